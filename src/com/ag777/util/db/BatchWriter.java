@@ -0,0 +1,561 @@
+package com.ag777.util.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ag777.util.db.monitor.SqlEvent;
+import com.ag777.util.lang.interf.Disposable;
+
+/**
+ * 分块批量写入辅助类
+ * <p>
+ * 	逐行添加参数,每满batchSize行或者参数累计超过maxBatchBytes字节时执行一次批处理(flush),
+ * 	每执行commitEveryBatches次批处理提交一次事务,内存占用与总行数无关。
+ * 	开启rewriteValues后,形如INSERT INTO t(a,b) VALUES (?,?)的sql会被改写为多行VALUES的形式
+ * 	(效果同mysql驱动的rewriteBatchedStatements),oracle不支持该写法,会自动忽略
+ * </p>
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	BatchWriter writer = helper.batchWriter(sql).batchSize(1000).commitEveryBatches(10);
+ * 	try {
+ * 		for(Object[] row : rows) {
+ * 			writer.add(row);
+ * 		}
+ * 		writer.finish();
+ * 	} finally {
+ * 		writer.dispose();
+ * 	}
+ * </pre>
+ * 	该类不是线程安全的,写入期间不要在同一个连接上执行其他事务
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月23日,last modify at 2018年05月29日
+ */
+public class BatchWriter implements Disposable {
+
+	//INSERT/REPLACE ... VALUES (?, ?, ...) [ON DUPLICATE KEY UPDATE ...]
+	private static final Pattern P_INSERT_VALUES = Pattern.compile(
+			"^\\s*((?:insert|replace)\\s+(?:ignore\\s+)?into\\s+.+?\\s+values)\\s*(\\([\\s?,]*\\))(.*?)\\s*;?\\s*$",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final int MAX_PARAMS_DEFAULT = 65535;
+	private static final int MAX_PARAMS_SQLITE = 999;
+	private static final int MAX_PARAMS_SQLSERVER = 2100;
+	private static final int MAX_ROWS_SQLSERVER = 1000;
+
+	/**
+	 * 每个分块执行完毕后的回调
+	 */
+	public interface ChunkListener {
+		void onChunk(ChunkResult result);
+	}
+
+	/**
+	 * 分块执行结果
+	 */
+	public static class ChunkResult {
+		private final int index;
+		private final int rowCount;
+		private final long bytes;
+		private final int[] updateCounts;
+		private final long costNanos;
+		private final boolean committed;
+
+		public ChunkResult(int index, int rowCount, long bytes, int[] updateCounts, long costNanos, boolean committed) {
+			this.index = index;
+			this.rowCount = rowCount;
+			this.bytes = bytes;
+			this.updateCounts = updateCounts;
+			this.costNanos = costNanos;
+			this.committed = committed;
+		}
+
+		/**
+		 * @return 分块序号,从0开始
+		 */
+		public int getIndex() {
+			return index;
+		}
+		/**
+		 * @return 分块包含的行数
+		 */
+		public int getRowCount() {
+			return rowCount;
+		}
+		/**
+		 * @return 估算的参数字节数
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+		/**
+		 * @return executeBatch的返回,开启rewriteValues时每个元素对应一条多行语句
+		 */
+		public int[] getUpdateCounts() {
+			return updateCounts;
+		}
+		public long getCostNanos() {
+			return costNanos;
+		}
+		/**
+		 * @return 执行完该分块后是否提交了事务
+		 */
+		public boolean isCommitted() {
+			return committed;
+		}
+	}
+
+	private final DbHelper helper;
+	private final String sql;
+	private int batchSize = 1000;
+	private long maxBatchBytes = 4 * 1024 * 1024;
+	private int commitEveryBatches = 1;
+	private boolean rewriteValues = false;
+	private ChunkListener listener;
+
+	private Connection conn;
+	private boolean autoCommitOld;
+	private boolean started;
+	private PreparedStatement pstmt;				//不改写时使用
+	private Rewrite rewrite;							//改写时使用,为null表示不改写
+	private List<Object[]> pendingRows;			//改写时缓存的行
+	private int pendingCount;
+	private long pendingBytes;
+	private int chunkIndex;
+	private int uncommittedChunks;
+	private long totalRows;
+	private List<int[]> resultList;
+
+	public BatchWriter(DbHelper helper, String sql) {
+		this.helper = helper;
+		this.sql = sql;
+		started = false;
+		resultList = new ArrayList<>();
+	}
+
+	/*==================配置========================*/
+	/**
+	 * 每批最多的行数
+	 * @param batchSize
+	 * @return
+	 */
+	public BatchWriter batchSize(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+		return this;
+	}
+
+	/**
+	 * 每批参数最多的字节数(估算),小于等于0不限制
+	 * @param maxBatchBytes
+	 * @return
+	 */
+	public BatchWriter maxBatchBytes(long maxBatchBytes) {
+		this.maxBatchBytes = maxBatchBytes;
+		return this;
+	}
+
+	/**
+	 * 每执行几批提交一次事务,小于等于0则只在finish()时提交(整体一个事务)
+	 * @param commitEveryBatches
+	 * @return
+	 */
+	public BatchWriter commitEveryBatches(int commitEveryBatches) {
+		this.commitEveryBatches = commitEveryBatches;
+		return this;
+	}
+
+	/**
+	 * 是否将单行insert改写为多行VALUES
+	 * @param rewriteValues
+	 * @return
+	 */
+	public BatchWriter rewriteValues(boolean rewriteValues) {
+		this.rewriteValues = rewriteValues;
+		return this;
+	}
+
+	public BatchWriter listener(ChunkListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/*==================写入========================*/
+	/**
+	 * 添加一行参数,达到阈值时自动执行批处理
+	 * @param params
+	 * @throws SQLException
+	 */
+	public void add(Object[] params) throws SQLException {
+		start();
+		if(rewrite != null) {
+			pendingRows.add(params);
+		} else {
+			for (int i = 0; i < params.length; i++) {
+				pstmt.setObject(i+1, params[i]);
+			}
+			pstmt.addBatch();
+		}
+		pendingCount++;
+		pendingBytes += estimateBytes(params);
+		if(pendingCount >= batchSize || (maxBatchBytes > 0 && pendingBytes >= maxBatchBytes)) {
+			flush();
+		}
+	}
+
+	/**
+	 * 立即执行已添加的行
+	 * @throws SQLException 执行失败时回滚未提交的部分
+	 */
+	public void flush() throws SQLException {
+		if(!started || pendingCount == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		int rowCount = pendingCount;
+		long bytes = pendingBytes;
+		int[] counts;
+		try {
+			counts = rewrite != null ? executeRewrite() : pstmt.executeBatch();
+			DbHelper.monitor(SqlEvent.Type.BATCH, sql, start, rowCount, null);
+			helper.afterUpdate(sql);
+			uncommittedChunks++;
+			boolean committed = false;
+			if(commitEveryBatches > 0 && uncommittedChunks >= commitEveryBatches) {
+				conn.commit();
+				helper.afterTransaction();
+				uncommittedChunks = 0;
+				committed = true;
+			}
+			pendingCount = 0;
+			pendingBytes = 0;
+			totalRows += rowCount;
+			resultList.add(counts);
+			if(listener != null) {
+				listener.onChunk(new ChunkResult(chunkIndex, rowCount, bytes, counts, System.nanoTime() - start, committed));
+			}
+			chunkIndex++;
+		} catch(SQLException ex) {
+			DbHelper.monitor(SqlEvent.Type.BATCH, sql, start, -1, ex);
+			rollbackQuietly();
+			throw ex;
+		}
+	}
+
+	/**
+	 * 执行已添加的行并立即提交事务,之后可以继续添加
+	 * @throws SQLException
+	 */
+	public void commit() throws SQLException {
+		if(!started) {
+			return;
+		}
+		flush();
+		if(uncommittedChunks > 0) {
+			try {
+				conn.commit();
+			} catch(SQLException ex) {
+				rollbackQuietly();
+				throw ex;
+			}
+			helper.afterTransaction();
+			uncommittedChunks = 0;
+		}
+	}
+	
+	/**
+	 * 执行剩余的行并提交事务,之后该对象不可再用
+	 * @return 总行数
+	 * @throws SQLException
+	 */
+	public long finish() throws SQLException {
+		if(!started) {
+			return totalRows;
+		}
+		try {
+			flush();
+			if(uncommittedChunks > 0) {
+				conn.commit();
+				helper.afterTransaction();
+				uncommittedChunks = 0;
+			}
+			return totalRows;
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * 按顺序合并所有分块的执行结果
+	 * @return
+	 */
+	public int[] getUpdateCounts() {
+		int length = 0;
+		for (int[] counts : resultList) {
+			length += counts.length;
+		}
+		int[] results = new int[length];
+		int pos = 0;
+		for (int[] counts : resultList) {
+			System.arraycopy(counts, 0, results, pos, counts.length);
+			pos += counts.length;
+		}
+		return results;
+	}
+
+	/**
+	 * @return 已执行的行数
+	 */
+	public long getTotalRows() {
+		return totalRows;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * 释放资源,未执行及未提交的部分会被回滚
+	 */
+	@Override
+	public void dispose() {
+		if(!started) {
+			return;
+		}
+		if(pendingCount > 0 || uncommittedChunks > 0) {
+			rollbackQuietly();
+		}
+		release();
+	}
+
+	/*==================内部方法========================*/
+	private void start() throws SQLException {
+		if(started) {
+			return;
+		}
+		conn = helper.getConn();
+		if(conn == null) {
+			throw new SQLException("数据库连接已释放");
+		}
+		autoCommitOld = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		started = true;
+		if(rewriteValues && !helper.isOracle()) {
+			rewrite = Rewrite.parse(sql, maxParams(), helper.isSqlServer() ? MAX_ROWS_SQLSERVER : Integer.MAX_VALUE);
+		}
+		if(rewrite != null) {
+			pendingRows = new ArrayList<>(batchSize);
+		} else {
+			pstmt = conn.prepareStatement(sql);
+		}
+	}
+
+	private int maxParams() {
+		if(helper.isSqlite()) {
+			return MAX_PARAMS_SQLITE;
+		} else if(helper.isSqlServer()) {
+			return MAX_PARAMS_SQLSERVER;
+		}
+		return MAX_PARAMS_DEFAULT;
+	}
+
+	/**
+	 * 将缓存的行拼成多行insert执行
+	 * @return 每条多行语句影响的行数
+	 * @throws SQLException
+	 */
+	private int[] executeRewrite() throws SQLException {
+		int rowsPerStmt = Math.min(rewrite.maxRows, batchSize);
+		int fullCount = pendingRows.size() / rowsPerStmt;
+		int rest = pendingRows.size() % rowsPerStmt;
+		List<Integer> counts = new ArrayList<>();
+		int pos = 0;
+		if(fullCount > 0) {
+			PreparedStatement full = rewrite.prepare(conn, rowsPerStmt);
+			for (int i = 0; i < fullCount; i++) {
+				pos = bind(full, pos, rowsPerStmt);
+				full.addBatch();
+			}
+			for (int count : full.executeBatch()) {
+				counts.add(count);
+			}
+		}
+		if(rest > 0) {
+			try(PreparedStatement ps = conn.prepareStatement(rewrite.toSql(rest))) {
+				bind(ps, pos, rest);
+				counts.add(ps.executeUpdate());
+			}
+		}
+		pendingRows.clear();
+		int[] results = new int[counts.size()];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = counts.get(i);
+		}
+		return results;
+	}
+
+	private int bind(PreparedStatement ps, int pos, int rows) throws SQLException {
+		int index = 1;
+		for (int r = 0; r < rows; r++) {
+			Object[] params = pendingRows.get(pos++);
+			if(params.length != rewrite.paramsPerRow) {
+				throw new SQLException("参数个数["+params.length+"]与sql中的占位符个数["+rewrite.paramsPerRow+"]不一致");
+			}
+			for (Object param : params) {
+				ps.setObject(index++, param);
+			}
+		}
+		return pos;
+	}
+
+	private void rollbackQuietly() {
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+		}
+		helper.afterTransaction();
+		uncommittedChunks = 0;
+		pendingCount = 0;
+		pendingBytes = 0;
+		if(pendingRows != null) {
+			pendingRows.clear();
+		}
+		if(pstmt != null) {
+			try {
+				pstmt.clearBatch();
+			} catch (SQLException e) {
+			}
+		}
+	}
+
+	private void release() {
+		if(pstmt != null) {
+			try {
+				pstmt.close();
+			} catch (SQLException e) {
+			}
+			pstmt = null;
+		}
+		if(rewrite != null) {
+			rewrite.close();
+		}
+		try {
+			conn.setAutoCommit(autoCommitOld);
+		} catch (SQLException e) {
+		}
+		started = false;
+	}
+
+	/**
+	 * 估算一行参数占用的字节数
+	 * @param params
+	 * @return
+	 */
+	private static long estimateBytes(Object[] params) {
+		long bytes = 0;
+		for (Object param : params) {
+			if(param == null) {
+				bytes += 1;
+			} else if(param instanceof CharSequence) {
+				bytes += ((CharSequence) param).length() * 2L;
+			} else if(param instanceof byte[]) {
+				bytes += ((byte[]) param).length;
+			} else {
+				bytes += 8;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * 多行VALUES改写信息
+	 */
+	private static class Rewrite {
+		final String head;		//INSERT INTO t(a,b) VALUES
+		final String tuple;		//(?,?)
+		final String tail;			//ON DUPLICATE KEY UPDATE ...
+		final int paramsPerRow;
+		final int maxRows;
+		PreparedStatement full;
+		int fullRows;
+
+		Rewrite(String head, String tuple, String tail, int paramsPerRow, int maxRows) {
+			this.head = head;
+			this.tuple = tuple;
+			this.tail = tail;
+			this.paramsPerRow = paramsPerRow;
+			this.maxRows = maxRows;
+		}
+
+		/**
+		 * @param sql
+		 * @param maxParams 单条语句最多的参数个数
+		 * @param maxRows 单条语句最多的行数
+		 * @return 无法改写返回null
+		 */
+		static Rewrite parse(String sql, int maxParams, int maxRows) {
+			Matcher m = P_INSERT_VALUES.matcher(sql);
+			if(!m.matches()) {
+				return null;
+			}
+			if(m.group(3).indexOf('?') != -1) {	//尾部(如ON DUPLICATE KEY UPDATE a=?)带参数时参数位置无法按行展开
+				return null;
+			}
+			String tuple = m.group(2);
+			int paramsPerRow = 0;
+			for (int i = 0; i < tuple.length(); i++) {
+				if(tuple.charAt(i) == '?') {
+					paramsPerRow++;
+				}
+			}
+			if(paramsPerRow == 0) {
+				return null;
+			}
+			int rows = Math.min(maxParams / paramsPerRow, maxRows);
+			if(rows < 2) {
+				return null;
+			}
+			return new Rewrite(m.group(1), tuple, m.group(3), paramsPerRow, rows);
+		}
+
+		String toSql(int rows) {
+			StringBuilder sb = new StringBuilder(head.length() + (tuple.length() + 1) * rows + tail.length() + 1)
+					.append(head).append(' ');
+			for (int i = 0; i < rows; i++) {
+				if(i > 0) {
+					sb.append(',');
+				}
+				sb.append(tuple);
+			}
+			return sb.append(tail).toString();
+		}
+
+		/**
+		 * 获取(复用)rows行的语句
+		 */
+		PreparedStatement prepare(Connection conn, int rows) throws SQLException {
+			if(full == null || fullRows != rows) {
+				close();
+				full = conn.prepareStatement(toSql(rows));
+				fullRows = rows;
+			}
+			full.clearBatch();
+			return full;
+		}
+
+		void close() {
+			if(full != null) {
+				try {
+					full.close();
+				} catch (SQLException e) {
+				}
+				full = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package com.ag777.util.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import com.ag777.util.db.monitor.SqlEvent;
+
+/**
+ * 批量导入数据,根据数据库类型选择最快的方式
+ * <p>
+ * 	<ul>
+ * 		<li>mysql:把数据编码为tsv,通过LOAD DATA LOCAL INFILE从内存流导入,每块单独提交(需要驱动支持setLocalInfileInputStream,否则退回批处理;
+ * 		客户端未开启allowLoadLocalInfile或服务端禁用了local_infile时,第一块导入失败后同样退回批处理)</li>
+ * 		<li>sqlite:导入期间临时设置journal_mode=WAL、synchronous=OFF,整体一个事务,结束后恢复原设置</li>
+ * 		<li>oracle:大批量的PreparedStatement批处理(驱动端即数组绑定),整体一个事务</li>
+ * 		<li>其他:分块批处理,单行insert改写为多行VALUES</li>
+ * 	</ul>
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	long rows = helper.bulkLoader("user", new String[]{"id", "name"}).load(rowList);
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月31日,last modify at 2018年06月13日
+ */
+public class BulkLoader {
+
+	/**
+	 * 导入方式
+	 */
+	public enum Mode {
+		MYSQL_LOAD_DATA, SQLITE_TRANSACTION, ORACLE_BATCH, BATCH
+	}
+
+	private static final int ORACLE_BATCH_SIZE = 5000;
+
+	private final DbHelper helper;
+	private final String table;
+	private final String[] columns;
+	private int batchSize = 1000;
+	private int loadDataChunkBytes = 8 * 1024 * 1024;
+	private boolean useLoadData = true;
+	private Mode lastMode;
+
+	public BulkLoader(DbHelper helper, String table, String[] columns) {
+		this.helper = helper;
+		this.table = table;
+		this.columns = columns;
+	}
+
+	/*==================配置========================*/
+	/**
+	 * 批处理方式每批的行数(oracle至少为5000)
+	 * @param batchSize
+	 * @return
+	 */
+	public BulkLoader batchSize(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+		return this;
+	}
+
+	/**
+	 * mysql LOAD DATA方式每次发送的数据大小
+	 * @param bytes
+	 * @return
+	 */
+	public BulkLoader loadDataChunkBytes(int bytes) {
+		this.loadDataChunkBytes = Math.max(bytes, 1024);
+		return this;
+	}
+
+	/**
+	 * mysql是否使用LOAD DATA LOCAL INFILE(服务端禁用了local_infile或者需要导入二进制数据时关闭)
+	 * @param useLoadData
+	 * @return
+	 */
+	public BulkLoader useLoadData(boolean useLoadData) {
+		this.useLoadData = useLoadData;
+		return this;
+	}
+
+	/**
+	 * @return 最近一次导入实际使用的方式
+	 */
+	public Mode getLastMode() {
+		return lastMode;
+	}
+
+	/*==================导入========================*/
+	public long load(List<Object[]> rows) throws SQLException {
+		return load(rows.iterator());
+	}
+
+	/**
+	 * 导入数据
+	 * @param rows 每个元素为一行,顺序与columns一致
+	 * @return 导入的行数
+	 * @throws SQLException
+	 */
+	public long load(Iterator<Object[]> rows) throws SQLException {
+		if(helper.isMysql() && useLoadData) {
+			Method method = getLocalInfileMethod();
+			if(method != null) {
+				lastMode = Mode.MYSQL_LOAD_DATA;
+				return loadDataMysql(rows, method);
+			}
+		}
+		if(helper.isSqlite()) {
+			lastMode = Mode.SQLITE_TRANSACTION;
+			return loadSqlite(rows);
+		}
+		if(helper.isOracle()) {
+			lastMode = Mode.ORACLE_BATCH;
+			return loadBatch(rows, Math.max(batchSize, ORACLE_BATCH_SIZE), false);
+		}
+		lastMode = Mode.BATCH;
+		return loadBatch(rows, batchSize, true);
+	}
+
+	/*==================mysql========================*/
+	/**
+	 * 通过LOAD DATA LOCAL INFILE导入,数据按块编码为tsv后从内存流发送
+	 */
+	private long loadDataMysql(Iterator<Object[]> rows, Method method) throws SQLException {
+		String sql = new StringBuilder()
+				.append("LOAD DATA LOCAL INFILE 'stream' INTO TABLE ").append(table)
+				.append(" CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (")
+				.append(String.join(",", columns)).append(')')
+				.toString();
+		Connection conn = helper.getConn();
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(loadDataChunkBytes, 1024 * 1024));
+		List<Object[]> firstChunk = new ArrayList<>();	//第一块导入成功前保留原始数据,LOAD DATA被禁用时交给批处理
+		long total = 0;
+		try (Statement stmt = conn.createStatement()) {
+			Object target = unwrapMysqlStatement(stmt, method);
+			while(rows.hasNext()) {
+				Object[] row = rows.next();
+				if(firstChunk != null) {
+					firstChunk.add(row);
+				}
+				appendTsvRow(out, row, format);
+				if(out.size() >= loadDataChunkBytes) {
+					total += executeLoadData(stmt, target, method, sql, out);
+					firstChunk = null;
+				}
+			}
+			if(out.size() > 0) {
+				total += executeLoadData(stmt, target, method, sql, out);
+			}
+		} catch(SQLException ex) {
+			if(firstChunk == null || !isLocalInfileDisabled(ex)) {
+				throw ex;
+			}
+			lastMode = Mode.BATCH;
+			return loadBatch(concat(firstChunk.iterator(), rows), batchSize, true);
+		}
+		helper.afterUpdate("INSERT INTO "+table);
+		return total;
+	}
+
+	/**
+	 * 判断是否是客户端或服务端禁用了LOAD DATA LOCAL INFILE导致的异常
+	 * <p>
+	 * 	1148:服务端local_infile=0(5.x),3948:服务端local_infile=0(8.0),2068:客户端拒绝,
+	 * 	驱动未开启allowLoadLocalInfile时没有错误码,只能通过提示信息判断
+	 * </p>
+	 */
+	private static boolean isLocalInfileDisabled(SQLException ex) {
+		switch(ex.getErrorCode()) {
+			case 1148:
+			case 3948:
+			case 2068:
+				return true;
+			default:
+				String message = ex.getMessage();
+				if(message == null) {
+					return false;
+				}
+				message = message.toLowerCase();
+				return message.contains("local data is disabled")	//8.x
+						|| message.contains("functionality is disabled at client");	//5.x
+		}
+	}
+
+	private static Iterator<Object[]> concat(Iterator<Object[]> first, Iterator<Object[]> second) {
+		return new Iterator<Object[]>() {
+			@Override
+			public boolean hasNext() {
+				return first.hasNext() || second.hasNext();
+			}
+
+			@Override
+			public Object[] next() {
+				return first.hasNext() ? first.next() : second.next();
+			}
+		};
+	}
+
+	private static long executeLoadData(Statement stmt, Object target, Method method, String sql, ByteArrayOutputStream out) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			method.invoke(target, new ByteArrayInputStream(out.toByteArray()));
+			int rows = stmt.executeUpdate(sql);
+			DbHelper.monitor(SqlEvent.Type.BATCH, sql, start, rows, null);
+			return rows;
+		} catch(SQLException ex) {
+			DbHelper.monitor(SqlEvent.Type.BATCH, sql, start, -1, ex);
+			throw ex;
+		} catch(ReflectiveOperationException ex) {
+			throw new SQLException("设置LOAD DATA数据流失败", ex);
+		} finally {
+			out.reset();
+		}
+	}
+
+	/**
+	 * 编码一行tsv,null为\N,制表符/换行/反斜杠转义
+	 */
+	private static void appendTsvRow(ByteArrayOutputStream out, Object[] row, SimpleDateFormat format) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < row.length; i++) {
+			if(i > 0) {
+				sb.append('\t');
+			}
+			Object value = row[i];
+			if(value == null) {
+				sb.append("\\N");
+				continue;
+			}
+			String str;
+			if(value instanceof byte[]) {
+				throw new IllegalArgumentException("LOAD DATA方式不支持二进制数据,请使用useLoadData(false)");
+			} else if(value instanceof Date) {
+				str = format.format((Date) value);
+			} else if(value instanceof Boolean) {
+				str = (Boolean) value ? "1" : "0";
+			} else {
+				str = value.toString();
+			}
+			for (int j = 0; j < str.length(); j++) {
+				char c = str.charAt(j);
+				switch(c) {
+					case '\\':
+						sb.append("\\\\");
+						break;
+					case '\t':
+						sb.append("\\t");
+						break;
+					case '\n':
+						sb.append("\\n");
+						break;
+					case '\r':
+						sb.append("\\r");
+						break;
+					case '\0':
+						sb.append("\\0");
+						break;
+					default:
+						sb.append(c);
+				}
+			}
+		}
+		sb.append('\n');
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * 获取驱动的setLocalInfileInputStream方法(5.x为com.mysql.jdbc.Statement,8.x为com.mysql.cj.jdbc.JdbcStatement)
+	 * @return 驱动不支持返回null
+	 */
+	private static Method getLocalInfileMethod() {
+		String[] classNames = new String[]{"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement"};
+		for (String className : classNames) {
+			try {
+				return Class.forName(className).getMethod("setLocalInfileInputStream", InputStream.class);
+			} catch(ClassNotFoundException | NoSuchMethodException ex) {
+			}
+		}
+		return null;
+	}
+
+	private static Object unwrapMysqlStatement(Statement stmt, Method method) throws SQLException {
+		Class<?> clazz = method.getDeclaringClass();
+		if(clazz.isInstance(stmt)) {
+			return stmt;
+		}
+		return stmt.unwrap(clazz);
+	}
+
+	/*==================sqlite========================*/
+	/**
+	 * 导入期间临时关闭同步,整体一个事务
+	 */
+	private long loadSqlite(Iterator<Object[]> rows) throws SQLException {
+		Connection conn = helper.getConn();
+		String journalOld;
+		String synchronousOld;
+		try (Statement stmt = conn.createStatement()) {	//直接查询,避免命中查询结果缓存
+			journalOld = queryPragma(stmt, "journal_mode");
+			synchronousOld = queryPragma(stmt, "synchronous");
+			stmt.execute("PRAGMA journal_mode=WAL");	//需要在事务外设置
+			stmt.execute("PRAGMA synchronous=OFF");
+		}
+		try {
+			return loadBatch(rows, batchSize, true);
+		} finally {
+			try (Statement stmt = conn.createStatement()) {
+				if(synchronousOld != null) {
+					stmt.execute("PRAGMA synchronous="+synchronousOld);
+				}
+				if(journalOld != null && !"wal".equalsIgnoreCase(journalOld)) {
+					stmt.execute("PRAGMA journal_mode="+journalOld);
+				}
+			}
+		}
+	}
+
+	private static String queryPragma(Statement stmt, String name) throws SQLException {
+		try (ResultSet rs = stmt.executeQuery("PRAGMA "+name)) {
+			return rs.next() ? rs.getString(1) : null;
+		}
+	}
+
+	/*==================通用========================*/
+	/**
+	 * 分块批处理,整体一个事务
+	 */
+	private long loadBatch(Iterator<Object[]> rows, int size, boolean rewriteValues) throws SQLException {
+		StringBuilder sql = new StringBuilder()
+				.append("INSERT INTO ").append(table)
+				.append(" (").append(String.join(",", columns)).append(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i == 0 ? "?" : ",?");
+		}
+		sql.append(')');
+		BatchWriter writer = helper.batchWriter(sql.toString())
+				.batchSize(size)
+				.maxBatchBytes(0)
+				.commitEveryBatches(0)
+				.rewriteValues(rewriteValues);
+		try {
+			while(rows.hasNext()) {
+				writer.add(rows.next());
+			}
+			writer.finish();
+			return writer.getTotalRows();
+		} finally {
+			writer.dispose();
+		}
+	}
+}
@@ -2,12 +2,24 @@ package com.ag777.util.db;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.ag777.util.db.cache.SchemaCache;
+import com.ag777.util.db.connection.DbConnectionPool;
+import com.ag777.util.db.model.UpgradeReport;
 import com.ag777.util.db.model.VersionSqlPojo;
 import com.ag777.util.db.model.VersionSqlPojo.DdlListBean;
 import com.ag777.util.lang.Console;
@@ -19,9 +31,14 @@ import com.ag777.util.lang.StringUtils;
  * 		直接引入项目可以作为数据库版本控制模块使用,
  * 		支持多级版本号x.xx.xx, xx.xxx等
  * </p>
+ * <p>
+ * 		大型数据库可以使用update(versionCodeOld, pool, ddlThreads)并行升级:
+ * 		每个版本内修改不同表的ddl在连接池的多个连接上并行执行,dml合并为jdbc批处理在一个事务中执行(版本号的更新也在该事务中),
+ * 		返回每个步骤的耗时
+ * </p>
  * 
  * @author ag777
- * @version create on 2017年09月06日,last modify at 2018年01月29日
+ * @version create on 2017年09月06日,last modify at 2018年06月13日
  */
 public abstract class DBUpdateHelper {
 
@@ -31,6 +48,11 @@ public abstract class DBUpdateHelper {
 	}
 	
 	private static Pattern p_classPath = Pattern.compile("^([\\w\\d_]+\\.)+[\\w\\d_]+$");
+	//ddl修改的表名,匹配不到的ddl(或者带外键的)视为和所有表相关,单独执行
+	private static Pattern p_ddlTable = Pattern.compile(
+			"^\\s*(?:CREATE\\s+(?:TEMPORARY\\s+)?TABLE(?:\\s+IF\\s+NOT\\s+EXISTS)?|ALTER\\s+TABLE|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?|TRUNCATE\\s+TABLE|CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+[\\w`\"\\[\\].]+\\s+ON)\\s+([\\w`\"\\[\\].]+)",
+			Pattern.CASE_INSENSITIVE);
+	private static Pattern p_references = Pattern.compile("\\bREFERENCES\\b", Pattern.CASE_INSENSITIVE);
 	
 	private List<VersionSqlPojo> versionSqlPojoList;	//版本号及对应sql列表
 	
@@ -49,7 +71,14 @@ public abstract class DBUpdateHelper {
 	 * @throws SQLException	主要抛出sql执行异常,其他异常也包装成SQLException,通过getMessage()方法获取错误信息
 	 */
 	public void update(String versionCodeOld, Connection conn) throws SQLException {
-		
+		try {
+			doUpdate(versionCodeOld, conn);
+		} finally {
+			SchemaCache.invalidate(conn.getMetaData().getURL());	//表结构可能已经变化,清除结构信息缓存
+		}
+	}
+	
+	private void doUpdate(String versionCodeOld, Connection conn) throws SQLException {
 		for (int i = 0; i < versionSqlPojoList.size(); i++) {
 			VersionSqlPojo verionSql = versionSqlPojoList.get(i);
 			String versionCodeNew = verionSql.getCode();
@@ -87,6 +116,82 @@ public abstract class DBUpdateHelper {
 		
 	}
 	
+	/**
+	 * 根据版本号和对应的sql列表并行升级数据库
+	 * <p>
+	 * 	版本之间依旧按顺序执行,每个版本内:
+	 * 	<ul>
+	 * 		<li>ddl按修改的表分组,不同表的分组在连接池的连接上并行执行,同一张表的ddl保持原有顺序;
+	 * 		无法识别表名或者带外键(REFERENCES)的ddl作为分隔点,等之前的ddl执行完后单独执行;
+	 * 		通过[method]获取的ddl同样作为分隔点,在之前的ddl执行完后才调用方法获取sql(方法可能依赖之前ddl的结果)</li>
+	 * 		<li>dml(包括dbVersionUpdateSql返回的版本号更新语句)合并为批处理在同一个事务中执行,失败时整体回滚</li>
+	 * 	</ul>
+	 * 	连接池的最大连接数需要大于ddlThreads,否则并行的ddl会等待获取连接
+	 * </p>
+	 * @param versionCodeOld 当前版本号
+	 * @param pool 连接池
+	 * @param ddlThreads 并行执行ddl的线程数
+	 * @return 升级报告(每个步骤的耗时)
+	 * @throws SQLException
+	 */
+	public UpgradeReport update(String versionCodeOld, DbConnectionPool pool, int ddlThreads) throws SQLException {
+		long start = System.currentTimeMillis();
+		UpgradeReport report = new UpgradeReport(versionCodeOld);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, ddlThreads), r->{
+			Thread t = new Thread(r, "db-upgrade");
+			t.setDaemon(true);
+			return t;
+		});
+		Connection conn = null;
+		try {
+			conn = borrow(pool);
+			for (int i = 0; i < versionSqlPojoList.size(); i++) {
+				VersionSqlPojo verionSql = versionSqlPojoList.get(i);
+				String versionCodeNew = verionSql.getCode();
+				if(!isBefore(versionCodeOld, versionCodeNew)) {
+					continue;
+				}
+				Console.log(
+						new StringBuilder()
+							.append("数据库版本")
+							.append(versionCodeOld)
+							.append("->")
+							.append(versionCodeNew)
+							.toString());
+				List<String> dmlList = new ArrayList<>(verionSql.getDmlList());	//拷贝,避免版本号更新语句重复加入
+				additionalSql(i, versionCodeNew, dmlList);
+				try {
+					executeDdlParallel(versionCodeNew, verionSql.getDdlList(), conn, pool, executor, report);
+					executeDmlBatch(versionCodeNew, dmlList, conn, report);
+					versionCodeOld = versionCodeNew;
+					report.setVersionTo(versionCodeNew);
+				} catch(SQLException ex) {
+					String errMsg = new StringBuilder()
+										.append("升级版本")
+										.append(versionCodeNew)
+										.append("失败:")
+										.append('[')
+										.append(ex.getMessage())
+										.append(']')
+										.toString();
+					throw new SQLException(errMsg, ex);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			if(conn != null) {
+				try {
+					SchemaCache.invalidate(conn.getMetaData().getURL());
+				} finally {
+					release(conn);
+				}
+			}
+			report.setTotalMillis(System.currentTimeMillis() - start);
+			log(report.toString());
+		}
+		return report;
+	}
+	
 	/**
 	 * 需要提供升级数据库版本的sql,在版本升级sql都执行完后将版本写进数据库（业务默认数据库版本独立放在数据库里，可以简单改造该类，改为其他方式存储,以现有方式升级数据库版本操作会融入事务）
 	 * @param versionCodeNew 将要变成的版本号
@@ -217,6 +322,203 @@ public abstract class DBUpdateHelper {
 		}
 	}
 	
+	/**
+	 * 并行执行一个版本的ddl
+	 * @param version
+	 * @param ddlList
+	 * @param conn 主连接,只有一个分组时直接使用
+	 * @param pool
+	 * @param executor
+	 * @param report
+	 * @throws SQLException
+	 */
+	private void executeDdlParallel(String version, List<DdlListBean> ddlList, Connection conn, DbConnectionPool pool, ExecutorService executor, UpgradeReport report) throws SQLException {
+		Map<String, List<DdlListBean>> groupMap = new LinkedHashMap<>();	//表名->该表的ddl
+		for (DdlListBean ddl : ddlList) {
+			if(ddl.getSql().startsWith("[method]")) {	//分隔点:方法需要在之前的ddl执行完后再调用
+				executeDdlGroups(version, groupMap, conn, pool, executor, report);
+				groupMap.clear();
+			}
+			String sql = toSql(ddl.getSql(), conn);
+			if(sql == null) {
+				continue;
+			}
+			DdlListBean resolved = new DdlListBean(sql, ddl.getRollback(), ddl.getIsForce());
+			String table = getDdlTable(sql);
+			if(table == null) {	//分隔点:先执行完之前的分组,再单独执行
+				executeDdlGroups(version, groupMap, conn, pool, executor, report);
+				groupMap.clear();
+				List<DdlListBean> single = new ArrayList<>();
+				single.add(resolved);
+				executeDdlGroup(version, "ddl", single, conn, report);
+			} else {
+				groupMap.computeIfAbsent(table, k->new ArrayList<>()).add(resolved);
+			}
+		}
+		executeDdlGroups(version, groupMap, conn, pool, executor, report);
+	}
+	
+	/**
+	 * 并行执行多个分组,等待全部执行完毕后抛出第一个异常
+	 */
+	private void executeDdlGroups(String version, Map<String, List<DdlListBean>> groupMap, Connection conn, DbConnectionPool pool, ExecutorService executor, UpgradeReport report) throws SQLException {
+		if(groupMap.isEmpty()) {
+			return;
+		}
+		if(groupMap.size() == 1) {
+			Map.Entry<String, List<DdlListBean>> entry = groupMap.entrySet().iterator().next();
+			executeDdlGroup(version, "ddl["+entry.getKey()+"]", entry.getValue(), conn, report);
+			return;
+		}
+		List<Future<?>> futureList = new ArrayList<>();
+		for (Map.Entry<String, List<DdlListBean>> entry : groupMap.entrySet()) {
+			futureList.add(executor.submit(()->{
+				Connection groupConn = borrow(pool);
+				try {
+					executeDdlGroup(version, "ddl["+entry.getKey()+"]", entry.getValue(), groupConn, report);
+				} finally {
+					release(groupConn);
+				}
+				return null;
+			}));
+		}
+		SQLException error = null;
+		for (Future<?> future : futureList) {
+			try {
+				future.get();
+			} catch(ExecutionException ex) {
+				if(error == null) {
+					error = ex.getCause() instanceof SQLException ? (SQLException) ex.getCause() : new SQLException(ex.getCause());
+				}
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("数据库升级被中断", ex);
+			}
+		}
+		if(error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * 在一个连接上顺序执行一组ddl,执行失败时执行回滚语句,isForce为true时抛出异常
+	 */
+	private void executeDdlGroup(String version, String name, List<DdlListBean> ddlList, Connection conn, UpgradeReport report) throws SQLException {
+		long start = System.currentTimeMillis();
+		conn.setAutoCommit(true);
+		try (Statement stmt = conn.createStatement()) {
+			for (DdlListBean ddl : ddlList) {
+				log("执行ddl:"+ddl.getSql());
+				try {
+					stmt.executeUpdate(ddl.getSql());
+				} catch(SQLException ex) {
+					if(ddl.getRollback() != null && !ddl.getRollback().isEmpty()) {	//执行回滚语句
+						stmt.execute(ddl.getRollback());
+					}
+					if(ddl.getIsForce() != null && ddl.getIsForce()) {
+						throw new SQLException(getErrMsg(ddl.getSql(), ex));
+					}
+				}
+			}
+		}
+		report.addStep(new UpgradeReport.Step(version, name, ddlList.size(), System.currentTimeMillis() - start));
+	}
+	
+	/**
+	 * 将一个版本的dml合并为批处理,在同一个事务中执行
+	 * <p>
+	 * 	[method]类型的sql可能依赖之前dml的结果,获取前先执行已积累的批处理
+	 * </p>
+	 */
+	private void executeDmlBatch(String version, List<String> dmlList, Connection conn, UpgradeReport report) throws SQLException {
+		long start = System.currentTimeMillis();
+		int count = 0;
+		List<String> batchList = new ArrayList<>();
+		conn.setAutoCommit(false);
+		try (Statement stmt = conn.createStatement()) {
+			for (String sql : dmlList) {
+				if(sql.startsWith("[method]")) {
+					executeBatch(stmt, batchList);
+				}
+				sql = toSql(sql, conn);
+				if(sql == null) {
+					continue;
+				}
+				log("执行dml:"+sql);
+				stmt.addBatch(sql);
+				batchList.add(sql);
+				count++;
+			}
+			executeBatch(stmt, batchList);
+			conn.commit();
+		} catch(SQLException ex) {
+			conn.rollback();
+			throw ex;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+		report.addStep(new UpgradeReport.Step(version, "dml", count, System.currentTimeMillis() - start));
+	}
+	
+	private static void executeBatch(Statement stmt, List<String> batchList) throws SQLException {
+		if(batchList.isEmpty()) {
+			return;
+		}
+		try {
+			stmt.executeBatch();
+		} catch(BatchUpdateException ex) {	//找出失败的那条sql
+			int[] counts = ex.getUpdateCounts();
+			int index = counts == null ? 0 : counts.length;
+			if(counts != null) {
+				for (int i = 0; i < counts.length; i++) {
+					if(counts[i] == Statement.EXECUTE_FAILED) {
+						index = i;
+						break;
+					}
+				}
+			}
+			throw new SQLException(getErrMsg(batchList.get(Math.min(index, batchList.size()-1)), ex));
+		} finally {
+			stmt.clearBatch();
+			batchList.clear();
+		}
+	}
+	
+	/**
+	 * 获取ddl修改的表名
+	 * @param sql
+	 * @return 无法识别或者涉及多张表(外键)时返回null
+	 */
+	private static String getDdlTable(String sql) {
+		if(p_references.matcher(sql).find()) {
+			return null;
+		}
+		Matcher m = p_ddlTable.matcher(sql);
+		if(!m.find()) {
+			return null;
+		}
+		String table = m.group(1).replaceAll("[`\"\\[\\]]", "").toLowerCase();
+		int index = table.lastIndexOf('.');
+		return index == -1 ? table : table.substring(index+1);
+	}
+	
+	private static Connection borrow(DbConnectionPool pool) throws SQLException {
+		try {
+			return pool.borrow();
+		} catch (ClassNotFoundException ex) {
+			throw new SQLException(ex);
+		}
+	}
+	
+	private static void release(Connection conn) {
+		if(!DbConnectionPool.release(conn)) {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+			}
+		}
+	}
+	
 	/**
 	 * 判断旧版本号是否小于新版本号
 	 * @param versionCodeOld
@@ -0,0 +1,248 @@
+package com.ag777.util.db;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ag777.util.db.connection.DbConnectionPool;
+import com.ag777.util.lang.interf.Disposable;
+
+/**
+ * 数据库异步操作辅助类
+ * <p>
+ * 	每个操作在独立的线程池中执行,执行时从连接池借出连接,结束后归还,调用线程立即拿到CompletableFuture。
+ * 	运行在java21及以上时默认使用虚拟线程,否则使用有界线程池(线程数与连接池大小一致)。
+ * 	超时通过Statement.setQueryTimeout实现,调用返回的CompletableFuture的cancel()方法会通过Statement.cancel()取消正在执行的sql
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	DbAsyncHelper helper = new DbAsyncHelper(pool).timeout(10);
+ * 	helper.queryList("select * from user where age>?", new Object[]{18})
+ * 		.thenAccept(list->...);
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月26日,last modify at 2018年05月26日
+ */
+public class DbAsyncHelper implements Disposable {
+
+	private static final AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+
+	/**
+	 * 在借出的连接上执行的任务
+	 */
+	public interface Task<T> {
+		T execute(DbHelper helper) throws Exception;
+	}
+
+	private final DbConnectionPool pool;
+	private final ExecutorService executor;
+	private final boolean shutdownExecutor;	//线程池是否由该类创建(dispose时需要关闭)
+	private int timeout;	//默认超时时间(秒),0为不限制
+
+	/**
+	 * 使用默认线程池(虚拟线程或者与连接池同样大小的有界线程池)
+	 * @param pool
+	 */
+	public DbAsyncHelper(DbConnectionPool pool) {
+		this(pool, newExecutor(pool.getConfig().getMaxSize(), pool.getConfig().getMaxSize()*100), true);
+	}
+
+	/**
+	 * 使用外部线程池,dispose时不会关闭该线程池
+	 * @param pool
+	 * @param executor
+	 */
+	public DbAsyncHelper(DbConnectionPool pool, ExecutorService executor) {
+		this(pool, executor, false);
+	}
+
+	private DbAsyncHelper(DbConnectionPool pool, ExecutorService executor, boolean shutdownExecutor) {
+		this.pool = pool;
+		this.executor = executor;
+		this.shutdownExecutor = shutdownExecutor;
+	}
+
+	/**
+	 * 设置默认超时时间
+	 * @param seconds 小于等于0为不限制
+	 * @return
+	 */
+	public DbAsyncHelper timeout(int seconds) {
+		timeout = seconds > 0 ? seconds : 0;
+		return this;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public DbConnectionPool getPool() {
+		return pool;
+	}
+
+	/*==================静态方法========================*/
+	/**
+	 * 创建线程池
+	 * <p>
+	 * 	java21及以上返回虚拟线程池(并发量由连接池限制,等待连接时不占用平台线程),
+	 * 	否则返回固定大小的守护线程池,队列满时拒绝任务
+	 * </p>
+	 * @param threads 线程数(虚拟线程时忽略)
+	 * @param queueCapacity 等待队列长度(虚拟线程时忽略)
+	 * @return
+	 */
+	public static ExecutorService newExecutor(int threads, int queueCapacity) {
+		try {
+			Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch(Exception ex) {	//java21以下
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(queueCapacity),
+				r->{
+					Thread t = new Thread(r, "db-async-"+THREAD_INDEX.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/*==================常用操作========================*/
+	public CompletableFuture<List<Map<String, Object>>> queryList(String sql, Object[] params) {
+		return queryList(sql, params, timeout);
+	}
+
+	/**
+	 * 异步查询多行
+	 * @param sql
+	 * @param params
+	 * @param timeoutSeconds 超时时间(秒),小于等于0为不限制
+	 * @return
+	 */
+	public CompletableFuture<List<Map<String, Object>>> queryList(String sql, Object[] params, int timeoutSeconds) {
+		return submit(timeoutSeconds, helper->helper.queryListWithException(sql, params));
+	}
+
+	public <T>CompletableFuture<T> getObject(String sql, Object[] params, Class<T> clazz) {
+		return getObject(sql, params, clazz, timeout);
+	}
+
+	/**
+	 * 异步获取单个对象
+	 * @param sql
+	 * @param params
+	 * @param clazz
+	 * @param timeoutSeconds
+	 * @return 没有查询到数据时结果为null
+	 */
+	public <T>CompletableFuture<T> getObject(String sql, Object[] params, Class<T> clazz, int timeoutSeconds) {
+		return submit(timeoutSeconds, helper->helper.getObjectWithException(sql, params, clazz));
+	}
+
+	public CompletableFuture<Integer> update(String sql, Object[] params) {
+		return update(sql, params, timeout);
+	}
+
+	/**
+	 * 异步执行update语句
+	 * @param sql
+	 * @param params
+	 * @param timeoutSeconds
+	 * @return 影响行数
+	 */
+	public CompletableFuture<Integer> update(String sql, Object[] params, int timeoutSeconds) {
+		return submit(timeoutSeconds, helper->helper.updateWithException(sql, params));
+	}
+
+	public CompletableFuture<int[]> batchUpdate(String sql, List<Object[]> paramsList) {
+		return batchUpdate(sql, paramsList, timeout);
+	}
+
+	/**
+	 * 异步批量执行(同一个事务)
+	 * @param sql
+	 * @param paramsList
+	 * @param timeoutSeconds 每一次executeBatch的超时时间
+	 * @return
+	 */
+	public CompletableFuture<int[]> batchUpdate(String sql, List<Object[]> paramsList, int timeoutSeconds) {
+		return submit(timeoutSeconds, helper->helper.batchUpdateWithException(sql, paramsList));
+	}
+
+	/**
+	 * 异步执行自定义任务
+	 * <p>
+	 * 	任务在借出的连接上执行,执行结束后归还连接(不要在任务外保留helper的引用)。
+	 * 	线程池已满时返回的CompletableFuture直接以RejectedExecutionException结束
+	 * </p>
+	 * @param timeoutSeconds sql超时时间(秒),小于等于0为不限制
+	 * @param task
+	 * @return
+	 */
+	public <T>CompletableFuture<T> submit(int timeoutSeconds, Task<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		AtomicReference<DbHelper> running = new AtomicReference<>();
+		try {
+			executor.execute(()->{
+				if(future.isDone()) {	//排队期间已被取消
+					return;
+				}
+				DbHelper helper = null;
+				try {
+					Connection conn = pool.borrow();
+					helper = new DbHelper(conn).queryTimeout(timeoutSeconds);
+					running.set(helper);
+					if(future.isDone()) {
+						return;
+					}
+					future.complete(task.execute(helper));
+				} catch(Throwable t) {
+					future.completeExceptionally(t);
+				} finally {
+					running.set(null);
+					if(helper != null) {
+						helper.dispose();
+					}
+				}
+			});
+		} catch(RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+			return future;
+		}
+		future.whenComplete((result, t)->{
+			if(future.isCancelled()) {
+				DbHelper helper = running.get();
+				if(helper != null) {
+					helper.cancel();
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * 关闭由该类创建的线程池,不会关闭连接池
+	 */
+	@Override
+	public void dispose() {
+		if(shutdownExecutor) {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -1,6 +1,5 @@
 package com.ag777.util.db;
 
-import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Connection;
@@ -13,24 +12,43 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import com.ag777.util.db.cache.QueryResultCache;
+import com.ag777.util.db.cache.SchemaCache;
+import com.ag777.util.db.cache.StatementCache;
+import com.ag777.util.db.connection.DbConnectionPool;
 import com.ag777.util.db.connection.MysqlConnection;
 import com.ag777.util.db.connection.OracleConnection;
 import com.ag777.util.db.connection.SqlServerConnection;
 import com.ag777.util.db.connection.SqliteConnection;
+import com.ag777.util.db.interf.DBRowHandlerInterf;
+import com.ag777.util.db.mapper.BeanRowMapper;
+import com.ag777.util.db.monitor.SqlEvent;
+import com.ag777.util.db.monitor.SqlMonitor;
 import com.ag777.util.db.interf.DBTransactionInterf;
 import com.ag777.util.db.model.ColumnPojo;
+import com.ag777.util.db.model.ColumnarResult;
 import com.ag777.util.db.model.DBIPojo;
 import com.ag777.util.db.model.DbDriver;
 import com.ag777.util.db.model.DbPojo;
+import com.ag777.util.db.model.DbPoolConfig;
 import com.ag777.util.db.model.DbPropertieKey;
 import com.ag777.util.db.model.OracleRole;
 import com.ag777.util.db.model.TypePojo;
-import com.ag777.util.lang.StringUtils;
 import com.ag777.util.lang.interf.Disposable;
 import com.ag777.util.lang.reflection.ReflectionUtils;
 
@@ -38,7 +56,7 @@ import com.ag777.util.lang.reflection.ReflectionUtils;
  * 数据库操作辅助类
  * 
  * @author ag777
- * @version create on 2017年07月28日,last modify at 2018年05月07日
+ * @version create on 2017年07月28日,last modify at 2018年06月13日
  */
 public class DbHelper implements Disposable{
 	
@@ -46,6 +64,27 @@ public class DbHelper implements Disposable{
 	private static boolean MODE_DEBUG = true;
 	//执行完sql后关闭数据库连接,一旦开启则该工具类不可重复使用(连接不存在了)
 	private static boolean MODE_CLOSE_AFTER_EXECUTE = false;
+	//连接池模式,开启后通过getConnection获取的连接来自连接池,dispose()时归还连接而不是关闭
+	private static boolean MODE_POOL = false;
+	private static DbPoolConfig POOL_CONFIG = new DbPoolConfig();
+	//每个连接缓存的PreparedStatement数量,小于等于0则不缓存
+	private static int STATEMENT_CACHE_SIZE = 0;
+	//流式查询默认每次从数据库拉取的行数
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	//结构信息缓存模式,开启后表名/字段/主键/索引等元数据按数据库url缓存,执行ddl后自动清除
+	private static boolean MODE_SCHEMA_CACHE = false;
+	//结构信息缓存过期时间(毫秒),小于等于0永不过期
+	private static long SCHEMA_CACHE_TTL = 0;
+	//sql执行监控,为null则不监控
+	private static volatile SqlMonitor SQL_MONITOR = null;
+	//判断是否为修改表结构的语句
+	private static final Pattern P_DDL = Pattern.compile("^\\s*(CREATE|ALTER|DROP|RENAME)\\s", Pattern.CASE_INSENSITIVE);
+	//只涉及一张表的ddl,执行后只清除该表的结构缓存
+	private static final Pattern P_DDL_TABLE = Pattern.compile(
+			"^\\s*(?:ALTER\\s+TABLE|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?|CREATE\\s+(?:TEMPORARY\\s+)?TABLE(?:\\s+IF\\s+NOT\\s+EXISTS)?)\\s+([\\w$.`\\[\\]\"]+)",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern P_RENAME = Pattern.compile("\\bRENAME\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern P_FROM_TABLE = Pattern.compile("\\bFROM\\s+([\\w.`\\[\\]\"]+)", Pattern.CASE_INSENSITIVE);
 
 	public static void setModeDebug(boolean debugMode) {
 		DbHelper.MODE_DEBUG = debugMode;
@@ -55,12 +94,65 @@ public class DbHelper implements Disposable{
 		DbHelper.MODE_CLOSE_AFTER_EXECUTE = closeAfterExecuteMode;
 	}
 	
+	public static void setModePool(boolean poolMode) {
+		DbHelper.MODE_POOL = poolMode;
+	}
+	
+	public static void setModeSchemaCache(boolean schemaCacheMode) {
+		DbHelper.MODE_SCHEMA_CACHE = schemaCacheMode;
+	}
+	
+	/**
+	 * 设置sql执行监控,之后所有DbHelper执行的sql及连接池等待时间都会被统计
+	 * @param monitor 为null则关闭监控
+	 */
+	public static void setSqlMonitor(SqlMonitor monitor) {
+		DbHelper.SQL_MONITOR = monitor;
+	}
+	
+	public static SqlMonitor getSqlMonitor() {
+		return SQL_MONITOR;
+	}
+	
+	/**
+	 * 配置结构信息缓存的过期时间
+	 * @param ttl 毫秒,小于等于0永不过期
+	 */
+	public static void setSchemaCacheTtl(long ttl) {
+		DbHelper.SCHEMA_CACHE_TTL = ttl;
+	}
+	
+	/**
+	 * 配置默认的PreparedStatement缓存大小,只对之后新建的DbHelper生效
+	 * @param size 小于等于0则不缓存
+	 */
+	public static void setDefaultStatementCacheSize(int size) {
+		DbHelper.STATEMENT_CACHE_SIZE = size;
+	}
+	
+	/**
+	 * 配置连接池参数,只对之后新建的连接池生效
+	 * @param config
+	 */
+	public static void setPoolConfig(DbPoolConfig config) {
+		DbHelper.POOL_CONFIG = config == null ? new DbPoolConfig() : config;
+	}
+	
 	private Connection conn;
 	private String dbType;	//数据库类型(mysql/oracle/sqlite等)
+	private String dbUrl;	//数据库连接url,作为结构信息缓存的键
+	private StatementCache statementCache;
+	private int queryTimeout;	//sql执行超时时间(秒),0为不限制
+	private volatile Statement runningStatement;	//最近一次执行的Statement,用于取消
+	private QueryResultCache resultCache;	//查询结果缓存,为null则不缓存
+	private Set<String> txUpdateSqlSet;	//事务中执行的修改语句,提交或回滚后再清除对应的查询结果缓存
 	
 	public DbHelper(Connection conn) {
 		this.conn = conn;
-		dbType = dbInfo().getName();
+		DbPojo dbInfo = dbInfo();
+		dbType = dbInfo.getName();
+		dbUrl = dbInfo.getUrl();
+		statementCacheSize(STATEMENT_CACHE_SIZE);
 	}
 	
 	/**
@@ -126,6 +218,9 @@ public class DbHelper implements Disposable{
 	
 	/**
 	 * 获取数据库连接
+	 * <p>
+	 * 	连接池模式下从url+用户名对应的连接池中借出连接
+	 * </p>
 	 * @param url
 	 * @param user
 	 * @param password
@@ -136,6 +231,24 @@ public class DbHelper implements Disposable{
 	 * @throws SQLException
 	 */
 	public static Connection getConnection(String url, String user, String password, DbDriver driver, Properties props) throws ClassNotFoundException, SQLException {
+		if(MODE_POOL) {
+			return DbConnectionPool.get(url, user, password, driver, props, POOL_CONFIG).borrow();
+		}
+		return createConnection(url, user, password, driver, props);
+	}
+	
+	/**
+	 * 新建数据库物理连接(不经过连接池)
+	 * @param url
+	 * @param user
+	 * @param password
+	 * @param driver
+	 * @param props
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public static Connection createConnection(String url, String user, String password, DbDriver driver, Properties props) throws ClassNotFoundException, SQLException {
 		if(props == null) {
 			props = new Properties();
 		}
@@ -326,19 +439,113 @@ public class DbHelper implements Disposable{
 		return conn;
 	}
 	
+	/**
+	 * 设置当前连接的PreparedStatement缓存大小,会关闭已缓存的PreparedStatement
+	 * <p>
+	 * 	开启缓存后同一条sql复用同一个PreparedStatement,
+	 * 	再次执行相同sql时上一次getResultSet返回的结果集会被关闭,请在下次执行前读取完毕
+	 * </p>
+	 * @param size 小于等于0则关闭缓存
+	 * @return
+	 */
+	public DbHelper statementCacheSize(int size) {
+		if(statementCache != null) {
+			statementCache.clear();
+		}
+		statementCache = size > 0 ? new StatementCache(size) : null;
+		return this;
+	}
+	
+	/**
+	 * 获取PreparedStatement缓存(可以从中获取命中/未命中次数)
+	 * @return 未开启缓存返回null
+	 */
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+	
+	/**
+	 * 设置之后执行的sql的超时时间(通过Statement.setQueryTimeout实现),超时后驱动抛出SQLTimeoutException
+	 * @param seconds 小于等于0为不限制
+	 * @return
+	 */
+	public DbHelper queryTimeout(int seconds) {
+		queryTimeout = seconds > 0 ? seconds : 0;
+		return this;
+	}
+	
+	public int getQueryTimeout() {
+		return queryTimeout;
+	}
+	
+	/**
+	 * 设置查询结果缓存
+	 * <p>
+	 * 	开启后queryList/getMap/getInt/getDouble/getStr的结果按sql+参数缓存(返回的是拷贝),
+	 * 	通过该helper执行的update/batchUpdate/batchExcute会清除所修改的表相关的缓存。
+	 * 	事务中(autoCommit为false)的查询不走缓存,修改的表在事务提交或回滚后才清除缓存,避免其他helper在提交前把旧数据重新缓存。
+	 * 	同一个缓存可以设置给连接同一个数据库的多个helper,其他途径修改数据只能依赖过期时间或者手动清除
+	 * </p>
+	 * @param cache 为null则关闭缓存
+	 * @return
+	 */
+	public DbHelper resultCache(QueryResultCache cache) {
+		resultCache = cache;
+		return this;
+	}
+	
+	/**
+	 * 获取查询结果缓存(可以从中获取命中率等信息)
+	 * @return 未开启缓存返回null
+	 */
+	public QueryResultCache getResultCache() {
+		return resultCache;
+	}
+	
+	/**
+	 * 取消正在执行的sql(可以在其他线程调用)
+	 * <p>
+	 * 	通过Statement.cancel()实现,被取消的sql会在执行线程抛出SQLException,是否支持取决于驱动
+	 * </p>
+	 * @return 没有可以取消的sql时返回false
+	 */
+	public boolean cancel() {
+		Statement stmt = runningStatement;
+		if(stmt == null) {
+			return false;
+		}
+		try {
+			stmt.cancel();
+			return true;
+		} catch (SQLException ex) {
+			err(ex);
+		}
+		return false;
+	}
+	
 	/**
 	 * 测试连接
 	 * @param timeoutSeconds
 	 * @return
 	 */
 	public boolean test(int timeoutSeconds) {
+		return test(conn, timeoutSeconds);
+	}
+	
+	/**
+	 * 测试连接
+	 * @param conn
+	 * @param timeoutSeconds
+	 * @return
+	 */
+	public static boolean test(Connection conn, int timeoutSeconds) {
 		Statement stmt = null;
 		try {
 			stmt = conn.createStatement();
 			stmt.setQueryTimeout(timeoutSeconds);//单位秒
 			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			err(e);
 		} finally {
 			try {
 				if(stmt != null) {
@@ -352,11 +559,17 @@ public class DbHelper implements Disposable{
 	
 	/**
 	 * 关闭数据库连接.释放资源
+	 * <p>
+	 * 	连接来自连接池时归还到连接池
+	 * </p>
 	 */
 	@Override
 	public void dispose() {
+		if(statementCache != null) {
+			statementCache.clear();
+		}
 		try {
-			if(conn != null) {
+			if(conn != null && !DbConnectionPool.release(conn)) {
 				conn.close();
 			}
 		} catch (SQLException e) {
@@ -367,6 +580,9 @@ public class DbHelper implements Disposable{
 	
 	/**
 	 * 执行数据库事务
+	 * <p>
+	 * 	task抛出异常时回滚后再恢复autoCommit(否则setAutoCommit(true)会提交已执行的部分)
+	 * </p>
 	 * @param task
 	 * @return
 	 * @throws Exception
@@ -379,9 +595,14 @@ public class DbHelper implements Disposable{
 				conn.commit();
 				return result;
 			} catch(Exception ex) {
+				try {
+					conn.rollback();
+				} catch (SQLException e1) {
+				}
 				throw ex;
 			} finally {
 				conn.setAutoCommit(true);
+				afterTransaction();
 			}
 		}
 		
@@ -411,6 +632,14 @@ public class DbHelper implements Disposable{
 		return DbPojo.TYPE_ORACLE.equals(dbType);
 	}
 	
+	/**
+	 * 判断是否为sqlserver数据库连接
+	 * @return
+	 */
+	public boolean isSqlServer() {
+		return DbPojo.TYPE_SQLSERVER.equals(dbType);
+	}
+	
 	/**
 	 * 重命名数据库表
 	 * <p>
@@ -438,10 +667,14 @@ public class DbHelper implements Disposable{
 	 * @return
 	 */
 	public ResultSet getResultSet(String sql) {
+		long start = System.nanoTime();
     	try {
-    		Statement stmt = conn.createStatement();
-	    	return stmt.executeQuery(sql);
+    		Statement stmt = createStatement();
+	    	ResultSet rs = stmt.executeQuery(sql);
+	    	monitor(SqlEvent.Type.QUERY, sql, start, -1, null);
+	    	return rs;
 		} catch (SQLException ex) {
+			monitor(SqlEvent.Type.QUERY, sql, start, -1, ex);
 			err(ex);
 		} finally {
 			closeAfterExecute();
@@ -459,10 +692,14 @@ public class DbHelper implements Disposable{
 		if(isNullOrEmpty(params)) {
 			return getResultSet(sql);
 		}
+		long start = System.nanoTime();
 		try {
 			PreparedStatement ps = getPreparedStatement(sql, params);
-			return ps.executeQuery();
+			ResultSet rs = ps.executeQuery();
+			monitor(SqlEvent.Type.QUERY, sql, start, -1, null);
+			return rs;
 		} catch (SQLException e) {
+			monitor(SqlEvent.Type.QUERY, sql, start, -1, e);
 			e.printStackTrace();
 		} finally {
 			closeAfterExecute();
@@ -476,13 +713,7 @@ public class DbHelper implements Disposable{
 	 * @return
 	 */
 	public List<Map<String, Object>> queryList(String sql) {
-    	try {
-	    	ResultSet rs = getResultSet(sql);
-	    	return convert2List(rs);
-		} catch (SQLException e) {
-			e.printStackTrace();
-		} 
-    	return null;
+		return queryList(sql, null);
     }
 	
 	/**
@@ -492,15 +723,176 @@ public class DbHelper implements Disposable{
 	 * @return
 	 */
 	public List<Map<String, Object>> queryList(String sql, Object[] params) {
+		if(resultCache != null && !inTransaction()) {
+			try {
+				return copyRows(resultCache.get(sql, params, ()->queryListNoCache(sql, params)));
+			} catch (SQLException ex) {
+				err(ex);
+			}
+			return null;
+		}
+		return queryListNoCache(sql, params);
+	}
+	
+	private List<Map<String, Object>> queryListNoCache(String sql, Object[] params) {
 		try {
-			ResultSet rs =getResultSet(sql, params);
-			return convert2List(rs);
+			return queryListWithExceptionNoCache(sql, params);
 		} catch (SQLException e) {
 			e.printStackTrace();
-		} 
+		}
 		return null;
 	}
 	
+	/**
+	 * 查询多行，带参数，出错时抛出异常而不是返回null
+	 * @param sql
+	 * @param params 可以为null,为空时通过Statement执行
+	 * @return
+	 * @throws SQLException
+	 */
+	public List<Map<String, Object>> queryListWithException(String sql, Object[] params) throws SQLException {
+		if(resultCache != null && !inTransaction()) {
+			return copyRows(resultCache.get(sql, params, ()->queryListWithExceptionNoCache(sql, params)));
+		}
+		return queryListWithExceptionNoCache(sql, params);
+	}
+	
+	private List<Map<String, Object>> queryListWithExceptionNoCache(String sql, Object[] params) throws SQLException {
+		ResultSet rs = null;
+		long start = System.nanoTime();
+		try {
+			if(isNullOrEmpty(params)) {
+				rs = createStatement().executeQuery(sql);
+			} else {
+				rs = getPreparedStatement(sql, params).executeQuery();
+			}
+			List<Map<String, Object>> list = convert2List(rs);
+			monitor(SqlEvent.Type.QUERY, sql, start, list.size(), null);
+			return list;
+		} catch(SQLException ex) {
+			monitor(SqlEvent.Type.QUERY, sql, start, -1, ex);
+			throw ex;
+		} finally {
+			close(rs);
+			closeAfterExecute();
+		}
+	}
+	
+	/**
+	 * 流式查询,逐行读取结果而不是一次性加载到内存
+	 * <p>
+	 * 	返回的Stream必须关闭(推荐try-with-resources),关闭时释放对应的ResultSet和Statement。
+	 * 	mysql在读取完结果集之前该连接不能执行其他sql
+	 * </p>
+	 * 
+	 * @param sql
+	 * @param params 可以为null
+	 * @param fetchSize 每次从数据库拉取的行数,小于等于0时使用DEFAULT_FETCH_SIZE(mysql忽略该值,始终逐行读取)
+	 * @return
+	 * @throws SQLException
+	 */
+	public Stream<Map<String, Object>> queryStream(String sql, Object[] params, int fetchSize) throws SQLException {
+		ResultSet rs = null;
+		try {
+			rs = getStreamResultSet(sql, params, fetchSize);
+			ResultSetMetaData md = rs.getMetaData();
+			String[] labels = getColumnLabels(md);
+			ResultSet resultSet = rs;
+			Spliterator<Map<String, Object>> spliterator = new Spliterators.AbstractSpliterator<Map<String, Object>>(Long.MAX_VALUE, Spliterator.ORDERED|Spliterator.NONNULL) {
+				@Override
+				public boolean tryAdvance(Consumer<? super Map<String, Object>> action) {
+					try {
+						if(!resultSet.next()) {
+							return false;
+						}
+						action.accept(toRowMap(resultSet, labels));
+						return true;
+					} catch (SQLException ex) {
+						throw new RuntimeException("流式读取结果集失败", ex);
+					}
+				}
+			};
+			return StreamSupport.stream(spliterator, false)
+					.onClose(()->closeStream(resultSet));
+		} catch(SQLException ex) {
+			closeStream(rs);
+			throw ex;
+		}
+	}
+	
+	/**
+	 * 流式查询,逐行回调处理结果,处理完毕(或者回调返回false)后释放ResultSet和Statement
+	 * 
+	 * @param sql
+	 * @param params 可以为null
+	 * @param fetchSize 每次从数据库拉取的行数,小于等于0时使用DEFAULT_FETCH_SIZE(mysql忽略该值,始终逐行读取)
+	 * @param handler
+	 * @return 处理的行数
+	 * @throws Exception 查询异常或者回调抛出的异常
+	 */
+	public long queryForEach(String sql, Object[] params, int fetchSize, DBRowHandlerInterf handler) throws Exception {
+		ResultSet rs = null;
+		long start = System.nanoTime();
+		try {
+			rs = getStreamResultSet(sql, params, fetchSize);
+			String[] labels = getColumnLabels(rs.getMetaData());
+			long rowIndex = 0;
+			while(rs.next()) {
+				boolean goOn = handler.handle(toRowMap(rs, labels), rowIndex);
+				rowIndex++;
+				if(!goOn) {
+					break;
+				}
+			}
+			monitor(SqlEvent.Type.QUERY, sql, start, rowIndex, null);
+			return rowIndex;
+		} catch(SQLException ex) {
+			monitor(SqlEvent.Type.QUERY, sql, start, -1, ex);
+			throw ex;
+		} finally {
+			closeStream(rs);
+		}
+	}
+	
+	/**
+	 * 查询结果按列存储,适合报表统计等大结果集
+	 * <p>
+	 * 	结果通过流式游标逐行读取并直接写入基本类型数组,不会为每一行创建Map
+	 * </p>
+	 * @param sql
+	 * @param params 可以为null
+	 * @return
+	 * @throws SQLException
+	 * @see ColumnarResult
+	 */
+	public ColumnarResult queryColumnar(String sql, Object[] params) throws SQLException {
+		return queryColumnar(sql, params, DEFAULT_FETCH_SIZE);
+	}
+	
+	/**
+	 * 查询结果按列存储,适合报表统计等大结果集
+	 * @param sql
+	 * @param params 可以为null
+	 * @param fetchSize 每次从数据库拉取的行数,小于等于0时使用DEFAULT_FETCH_SIZE(mysql忽略该值,始终逐行读取)
+	 * @return
+	 * @throws SQLException
+	 */
+	public ColumnarResult queryColumnar(String sql, Object[] params, int fetchSize) throws SQLException {
+		ResultSet rs = null;
+		long start = System.nanoTime();
+		try {
+			rs = getStreamResultSet(sql, params, fetchSize);
+			ColumnarResult result = ColumnarResult.from(rs);
+			monitor(SqlEvent.Type.QUERY, sql, start, result.rowCount(), null);
+			return result;
+		} catch(SQLException ex) {
+			monitor(SqlEvent.Type.QUERY, sql, start, -1, ex);
+			throw ex;
+		} finally {
+			closeStream(rs);
+		}
+	}
+	
 	/**
 	 * 
 	 * @param sql
@@ -510,9 +902,10 @@ public class DbHelper implements Disposable{
 	@SuppressWarnings("unchecked")
 	public <T>List<T> queryObjectList(String sql, Object[] params, Class<T> clazz) {
 		
+		ResultSet rs = null;
 		try {
 			List<T> list = null;
-			ResultSet rs =getResultSet(sql, params);
+			rs =getResultSet(sql, params);
 			if(isBasicClass(clazz)){
 				list = new ArrayList<>();
 				while(rs.next()) {
@@ -524,7 +917,9 @@ public class DbHelper implements Disposable{
 			return list;
 		} catch(Exception ex) {
 			err(ex);
-		} 
+		} finally {
+			close(rs);
+		}
 		return null;
 	}
 	
@@ -568,24 +963,62 @@ public class DbHelper implements Disposable{
 	 */
 	@SuppressWarnings("unchecked")
 	public <T>T getObject(String sql, Object[] params, Class<T> clazz) {
+		ResultSet rs = null;
 		try{
-			ResultSet rs =getResultSet(sql, params);
+			rs =getResultSet(sql, params);
 			if(rs.next()) {
 				if(isBasicClass(clazz)) {
 					return (T) rs.getObject(1);
-				} else {
-					List<T> list = convert2List(rs, clazz);
-					if(list != null && !list.isEmpty()) {
-						return list.get(0);
-					}
+				} else {	//直接转换当前行,避免再次调用next()跳过第一行
+					return BeanRowMapper.get(clazz, rs.getMetaData()).mapRow(rs);
 				}
 			}
 		} catch(Exception ex) {
 			err(ex);
-		} 
+		} finally {
+			close(rs);
+		}
 		
 		return null;
 	}
+	
+	/**
+	 * 获取单个对象,出错时抛出异常而不是返回null
+	 * @param sql
+	 * @param params 可以为null
+	 * @param clazz
+	 * @return 没有查询到数据返回null
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T>T getObjectWithException(String sql, Object[] params, Class<T> clazz) throws SQLException {
+		ResultSet rs = null;
+		long start = System.nanoTime();
+		try{
+			if(isNullOrEmpty(params)) {
+				rs = createStatement().executeQuery(sql);
+			} else {
+				rs = getPreparedStatement(sql, params).executeQuery();
+			}
+			T result = null;
+			boolean found = rs.next();
+			if(found) {
+				if(isBasicClass(clazz)) {
+					result = (T) rs.getObject(1);
+				} else {
+					result = BeanRowMapper.get(clazz, rs.getMetaData()).mapRow(rs);
+				}
+			}
+			monitor(SqlEvent.Type.QUERY, sql, start, found ? 1 : 0, null);
+			return result;
+		} catch(SQLException ex) {
+			monitor(SqlEvent.Type.QUERY, sql, start, -1, ex);
+			throw ex;
+		} finally {
+			close(rs);
+			closeAfterExecute();
+		}
+	}
 	/**
 	 * 获取int类型的结果
 	 * @param sql
@@ -692,12 +1125,17 @@ public class DbHelper implements Disposable{
 	public int updateWithException(String sql) throws SQLException {
     	Statement stmt = null;
     	int row = -1;
+    	long start = System.nanoTime();
     	try {
-			stmt = conn.createStatement();
+			stmt = createStatement();
 			row = stmt.executeUpdate(sql);
+			monitor(SqlEvent.Type.UPDATE, sql, start, row, null);
 		} catch (SQLException e) {
+			monitor(SqlEvent.Type.UPDATE, sql, start, -1, e);
 			throw e;
 		} finally {
+			close(stmt);
+			afterUpdate(sql);
 			closeAfterExecute();
 		} 
     	
@@ -730,12 +1168,19 @@ public class DbHelper implements Disposable{
 		if(isNullOrEmpty(params)) {
 			return updateWithException(sql);
 		}
+		PreparedStatement pstmt = null;
+		long start = System.nanoTime();
     	try {
-	    	PreparedStatement pstmt = getPreparedStatement(sql, params);
-	    	return pstmt.executeUpdate(); 
+	    	pstmt = getPreparedStatement(sql, params);
+	    	int row = pstmt.executeUpdate();
+	    	monitor(SqlEvent.Type.UPDATE, sql, start, row, null);
+	    	return row;
     	} catch (SQLException e) {
+    		monitor(SqlEvent.Type.UPDATE, sql, start, -1, e);
     		throw e;
 		} finally {
+			close(pstmt);
+			afterUpdate(sql);
 			closeAfterExecute();
 		}
     }
@@ -766,16 +1211,29 @@ public class DbHelper implements Disposable{
 	}
 	
 	public int insertAndGetKeyWithException(String sql, Object[] params) throws SQLException {
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		long start = System.nanoTime();
     	try {
-	    	PreparedStatement pstmt = getPreparedStatement(sql, params, Statement.RETURN_GENERATED_KEYS);
-	    	pstmt.executeUpdate(); 
-	    	ResultSet rs = pstmt.getGeneratedKeys();
+	    	pstmt = getPreparedStatement(sql, params, Statement.RETURN_GENERATED_KEYS);
+	    	int row = pstmt.executeUpdate(); 
+	    	rs = pstmt.getGeneratedKeys();
 	        rs.next();
 	        int key = rs.getInt(1);
+	        monitor(SqlEvent.Type.UPDATE, sql, start, row, null);
 	        return key;
     	} catch (SQLException ex) {
+    		monitor(SqlEvent.Type.UPDATE, sql, start, -1, ex);
     		throw ex;
 		} finally {
+			if(rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {
+				}
+			}
+			close(pstmt);
+			afterUpdate(sql);
 			closeAfterExecute();
 		}
 	}
@@ -806,88 +1264,219 @@ public class DbHelper implements Disposable{
 		if(paramsList == null || paramsList.isEmpty()) {
 			return new int[]{};
 		}
+		PreparedStatement pstmt = null;
+		long start = System.nanoTime();
     	try {
     		conn.setAutoCommit(false);
-	    	PreparedStatement pstmt = getBatchPreparedStatement(sql, paramsList);
+	    	pstmt = getBatchPreparedStatement(sql, paramsList);
 	    	int[] results = pstmt.executeBatch(); //批量执行   
 	    	conn.commit();//提交事务 
+	    	monitor(SqlEvent.Type.BATCH, sql, start, paramsList.size(), null);
 	    	return results;
     	} catch (SQLException ex) {
+    		monitor(SqlEvent.Type.BATCH, sql, start, -1, ex);
     		try {
 				conn.rollback();
 			} catch (SQLException e1) {
 			}
     		throw ex;
 		}  finally {
+			close(pstmt);
+			afterUpdate(sql);
 			try {
 				conn.setAutoCommit(true);
 			} catch (SQLException ex) {
 				err(ex);
 			}
+			afterTransaction();
 			closeAfterExecute();
 		}
     }
 	
 	/**
-	 * 通过sql和参数列表获取PreparedStatement(批量)
+	 * 在外层事务中批量update
+	 * <p>
+	 * 	不提交、不回滚也不修改autoCommit,由外层事务(如doTransaction)负责提交或回滚,
+	 * 	batchUpdateWithException会自行提交并恢复autoCommit,在事务中调用会提前提交外层事务
+	 * </p>
 	 * @param sql
 	 * @param paramsList
 	 * @return
 	 * @throws SQLException
 	 */
-	public PreparedStatement getBatchPreparedStatement(String sql, List<Object[]> paramsList) throws SQLException {
-		PreparedStatement pstmt = conn.prepareStatement(sql);
-    	for (Object[] list : paramsList) {
-    		for (int i = 0; i < list.length; i++) {
-				pstmt.setObject(i+1, list[i]);
-			}
-			pstmt.addBatch();
+	public synchronized int[] batchUpdateInTransaction(String sql, List<Object[]> paramsList) throws SQLException {
+		if(paramsList == null || paramsList.isEmpty()) {
+			return new int[]{};
+		}
+		PreparedStatement pstmt = null;
+		long start = System.nanoTime();
+		try {
+			pstmt = getBatchPreparedStatement(sql, paramsList);
+			int[] results = pstmt.executeBatch();
+			monitor(SqlEvent.Type.BATCH, sql, start, paramsList.size(), null);
+			return results;
+		} catch (SQLException ex) {
+			monitor(SqlEvent.Type.BATCH, sql, start, -1, ex);
+			throw ex;
+		} finally {
+			close(pstmt);
+			afterUpdate(sql);
 		}
-    	return pstmt;
 	}
 	
 	/**
-	 * 通过sql和参数列表获取PreparedStatement
+	 * 分块批量update
+	 * <p>
+	 * 	每batchSize行执行一次批处理,整体仍是一个事务,失败时全部回滚。
+	 * 	相比batchUpdateWithException(sql, paramsList),驱动端只需缓存一个分块的数据
+	 * </p>
 	 * @param sql
-	 * @param params
+	 * @param paramsList
+	 * @param batchSize
 	 * @return
 	 * @throws SQLException
 	 */
-	public PreparedStatement getPreparedStatement(String sql, Object[] params) throws SQLException {
-		PreparedStatement pstmt = conn.prepareStatement(sql);
-		if(params != null) {
-	    	for (int i = 0; i < params.length; i++) {
-	    		Object item = params[i];
-	    		pstmt.setObject(i+1, item);
-			}
+	public int[] batchUpdateWithException(String sql, List<Object[]> paramsList, int batchSize) throws SQLException {
+		if(paramsList == null || paramsList.isEmpty()) {
+			return new int[]{};
 		}
-    	return pstmt;
-	}
-	
-	public PreparedStatement getPreparedStatement(String sql, Object[] params,  int autoGeneratedKeys) throws SQLException {
-		PreparedStatement pstmt = conn.prepareStatement(sql, autoGeneratedKeys);
-		if(params != null) {
-	    	for (int i = 0; i < params.length; i++) {
-	    		Object item = params[i];
-	    		pstmt.setObject(i+1, item);
+		BatchWriter writer = batchWriter(sql)
+				.batchSize(batchSize)
+				.maxBatchBytes(0)
+				.commitEveryBatches(0);
+		try {
+			for (Object[] params : paramsList) {
+				writer.add(params);
 			}
+			writer.finish();
+			return writer.getUpdateCounts();
+		} finally {
+			writer.dispose();
+			closeAfterExecute();
 		}
-    	return pstmt;
 	}
 	
 	/**
-	 * 批量执行sql语句,这里记得只能执行dml语句(针对数据的语句),执行ddl语句(表结构操作)时会立即触发commit导致无法回滚
-	 * @param sqlList
+	 * 创建分块批量写入器,逐行添加参数,按行数/字节数自动执行批处理并按批次提交
+	 * @param sql
 	 * @return
+	 * @see BatchWriter
 	 */
-	public boolean batchExcute(List<String> sqlList) {
-		try {
+	public BatchWriter batchWriter(String sql) {
+		return new BatchWriter(this, sql);
+	}
+	
+	/**
+	 * 创建批量导入器,根据数据库类型选择最快的导入方式(mysql LOAD DATA/sqlite关闭同步/oracle大批量绑定/通用分块批处理)
+	 * @param table
+	 * @param columns
+	 * @return
+	 * @see BulkLoader
+	 */
+	public BulkLoader bulkLoader(String table, String[] columns) {
+		return new BulkLoader(this, table, columns);
+	}
+
+	/**
+	 * 创建键集分页器,按表的主键(需要为单列主键)分页遍历整张表,翻页耗时与页深无关
+	 * @param table
+	 * @param pageSize
+	 * @return
+	 * @see KeysetPager
+	 */
+	public KeysetPager keysetPager(String table, int pageSize) {
+		return new KeysetPager(this, table, pageSize);
+	}
+
+	/**
+	 * 创建键集分页器,用于替代limit ? offset ?的深度分页
+	 * @param baseSql 基础查询,形如select ... from ... [where ...],不带order by/limit
+	 * @param params
+	 * @param keyColumn 唯一且有索引的键列,为null时取baseSql中第一张表的单列主键
+	 * @param pageSize
+	 * @return
+	 * @see KeysetPager
+	 */
+	public KeysetPager keysetPager(String baseSql, Object[] params, String keyColumn, int pageSize) {
+		if(keyColumn == null) {
+			Matcher matcher = P_FROM_TABLE.matcher(baseSql);
+			if(!matcher.find()) {
+				throw new IllegalArgumentException("无法从sql中解析出表名,请指定键列:"+baseSql);
+			}
+			List<String> pkList = primaryKeyList(matcher.group(1));
+			if(pkList.size() != 1) {
+				throw new IllegalArgumentException("表["+matcher.group(1)+"]没有单列主键,请指定键列");
+			}
+			keyColumn = pkList.get(0);
+		}
+		return new KeysetPager(this, baseSql, params, keyColumn, pageSize);
+	}
+
+	/**
+	 * 通过sql和参数列表获取PreparedStatement(批量)
+	 * @param sql
+	 * @param paramsList
+	 * @return
+	 * @throws SQLException
+	 */
+	public PreparedStatement getBatchPreparedStatement(String sql, List<Object[]> paramsList) throws SQLException {
+		PreparedStatement pstmt = prepare(sql, StatementCache.NO_GENERATED_KEYS);
+		pstmt.clearBatch();
+    	for (Object[] list : paramsList) {
+    		for (int i = 0; i < list.length; i++) {
+				pstmt.setObject(i+1, list[i]);
+			}
+			pstmt.addBatch();
+		}
+    	return pstmt;
+	}
+	
+	/**
+	 * 通过sql和参数列表获取PreparedStatement
+	 * @param sql
+	 * @param params
+	 * @return
+	 * @throws SQLException
+	 */
+	public PreparedStatement getPreparedStatement(String sql, Object[] params) throws SQLException {
+		PreparedStatement pstmt = prepare(sql, StatementCache.NO_GENERATED_KEYS);
+		if(params != null) {
+	    	for (int i = 0; i < params.length; i++) {
+	    		Object item = params[i];
+	    		pstmt.setObject(i+1, item);
+			}
+		}
+    	return pstmt;
+	}
+	
+	public PreparedStatement getPreparedStatement(String sql, Object[] params,  int autoGeneratedKeys) throws SQLException {
+		PreparedStatement pstmt = prepare(sql, autoGeneratedKeys);
+		if(params != null) {
+	    	for (int i = 0; i < params.length; i++) {
+	    		Object item = params[i];
+	    		pstmt.setObject(i+1, item);
+			}
+		}
+    	return pstmt;
+	}
+	
+	/**
+	 * 批量执行sql语句,这里记得只能执行dml语句(针对数据的语句),执行ddl语句(表结构操作)时会立即触发commit导致无法回滚
+	 * @param sqlList
+	 * @return
+	 */
+	public boolean batchExcute(List<String> sqlList) {
+		Statement stmt = null;
+		try {
 			conn.setAutoCommit(false);
-			Statement stmt = conn.createStatement();
+			stmt = createStatement();
 			for (String sql : sqlList) {
+				long start = System.nanoTime();
 				try {
-					stmt.executeUpdate(sql);
+					int row = stmt.executeUpdate(sql);
+					monitor(SqlEvent.Type.UPDATE, sql, start, row, null);
 				} catch(SQLException ex) {
+					monitor(SqlEvent.Type.UPDATE, sql, start, -1, ex);
 					throw ex;
 				}
 			}
@@ -899,10 +1488,15 @@ public class DbHelper implements Disposable{
 			} catch (SQLException e) {
 			}
 		} finally {
+			close(stmt);
+			for (String sql : sqlList) {	//ddl会隐式提交,无论成功与否都清除缓存
+				afterUpdate(sql);
+			}
 			try {
 				conn.setAutoCommit(true);
 			} catch (SQLException e) {
 			}
+			afterTransaction();
 			closeAfterExecute();
 		}
 		return false;
@@ -942,7 +1536,10 @@ public class DbHelper implements Disposable{
 	}
 	
 	/**
-	 * 将resultSet转化为对象列表(方法有待验证及优化)
+	 * 将resultSet转化为对象列表
+	 * <p>
+	 * 	字段与属性的对应关系按(类,结果集结构)编译并缓存,详见BeanRowMapper
+	 * </p>
 	 * @param rs
 	 * @param clazz
 	 * @return
@@ -950,43 +1547,10 @@ public class DbHelper implements Disposable{
 	 */
 	public static <T>List<T> convert2List(ResultSet rs, Class<T> clazz) throws SQLException {
 		try {
-			List<T> list = new ArrayList<T>();
-	
-			ResultSetMetaData md = rs.getMetaData();
-	
-			int columnCount = md.getColumnCount(); // Map rowData;
-	
-			String[] cols = new String[columnCount];
-			for (int i = 1; i <= columnCount; i++) {
-				cols[i-1] = StringUtils.underline2Camel(md.getColumnName(i), false);	//首字母大写，驼峰
-			}
-			
-			while (rs.next()) { // rowData = new HashMap(columnCount);
-				
-				T rowData = ReflectionUtils.newInstace(clazz);
-	
-				for (int i = 1; i < columnCount; i++) {
-					Object value = rs.getObject(1);
-					Field[] fields = clazz.getDeclaredFields();
-					for (Field field : fields) {
-						if(field.getName().equalsIgnoreCase(cols[i])) {
-							boolean flag = field.isAccessible();
-							field.setAccessible(true);
-							field.set(rowData, value);
-							field.setAccessible(flag);
-						}
-					}
-					
-	
-				}
-	
-				list.add(rowData);
-	
-			}
-			return list;
+			return BeanRowMapper.get(clazz, rs.getMetaData()).mapAll(rs);
 		} catch(Exception ex) {
 			err(ex);
-			throw new SQLException("转换结果为对象列表失败");
+			throw new SQLException("转换结果为对象列表失败", ex);
 		}
 	}
 	
@@ -1007,6 +1571,7 @@ public class DbHelper implements Disposable{
 			db.setName(dbmd.getDatabaseProductName());		//MySQL
 			db.setVersion(dbmd.getDatabaseProductVersion());	//5.6.32
 			db.setDriverVersion(dbmd.getDriverVersion());			//mysql-connector-java-5.1.44 ( Revision: b3cda4f864902ffdde495b9df93937c3e20009be )
+			db.setUrl(dbmd.getURL());
 			return db;
 		} catch(Exception ex) {
 			err(ex);
@@ -1018,10 +1583,26 @@ public class DbHelper implements Disposable{
 	
 	/**
 	 * 获取所有表的名称列表
-	 * @param tableName
+	 * <p>
+	 * 	开启setModeSchemaCache(true)后从缓存中获取
+	 * </p>
 	 * @return
 	 */
 	public List<String> tableNameList() {
+		SchemaCache cache = schemaCache();
+		if(cache == null) {
+			return tableNameListNoCache();
+		}
+		try {
+			List<String> list = cache.get(SchemaCache.KEY_TABLES, this::tableNameListNoCache);
+			return list == null ? null : new ArrayList<>(list);
+		} catch (SQLException ex) {
+			err(ex);
+		}
+		return null;
+	}
+	
+	private List<String> tableNameListNoCache() {
 		try {
 			DatabaseMetaData dbmd = conn.getMetaData();
 			
@@ -1060,12 +1641,34 @@ public class DbHelper implements Disposable{
 	 * 
 	 * <p>
 	 * 	参考:http://blog.sina.com.cn/s/blog_707a9f0601014y1y.html
+	 * 	开启setModeSchemaCache(true)后从缓存中获取,返回的是缓存的拷贝,可以随意修改
 	 * </p>
 	 * 
 	 * @param tableName
 	 * @return
 	 */
 	public List<ColumnPojo> columnList(String tableName) {
+		SchemaCache cache = schemaCache();
+		if(cache == null) {
+			return columnListNoCache(tableName);
+		}
+		try {
+			List<ColumnPojo> list = cache.get(SchemaCache.KEY_COLUMNS+tableName, ()->columnListNoCache(tableName));
+			if(list == null) {
+				return null;
+			}
+			List<ColumnPojo> result = new ArrayList<>(list.size());
+			for (ColumnPojo column : list) {
+				result.add(column.clone());
+			}
+			return result;
+		} catch (SQLException ex) {
+			err(ex);
+		}
+		return null;
+	}
+	
+	private List<ColumnPojo> columnListNoCache(String tableName) {
 		List<ColumnPojo> columns = new ArrayList<>();
 		
 		try {
@@ -1075,34 +1678,7 @@ public class DbHelper implements Disposable{
 			ResultSet columnSet = dbmd.getColumns(null, "%", tableName, "%");
 
 			while (columnSet.next()) {
-				ColumnPojo column = new ColumnPojo();
-				String columnName = columnSet.getString("COLUMN_NAME");
-				if(primaryKeyList.contains(columnName)) {	//是否在主键列表里
-					column.isPK(true);
-				} else {
-					column.isPK(false);
-				}
-			    column.setName(columnName);
-			    column.setSqlType(columnSet.getInt("DATA_TYPE"));		//来自 java.sql.Types 的 SQL 类型
-			    column.setTypeName(columnSet.getString("TYPE_NAME"));	//数据源依赖的类型名称，对于 UDT，该类型名称是完全限定的
-			    column.setSize(columnSet.getInt("COLUMN_SIZE"));			//长度
-			    column.setDecimalDigits(columnSet.getInt("DECIMAL_DIGITS"));	//小数部分的位数。对于 DECIMAL_DIGITS 不适用的数据类型，则返回 Null
-			    column.setRemarks(columnSet.getString("REMARKS"));			//注释
-			    column.setDef(columnSet.getObject("COLUMN_DEF"));	//默认值，可以为null
-			    column.setCharOctetLength(columnSet.getInt("CHAR_OCTET_LENGTH"));	// 对于 char 类型，该长度是列中的最大字节数
-			    if(column.isPK()) {		//主键不允许为空
-			    	column.isNotNull(true);
-			    } else {
-			    	column.isNotNull(!columnSet.getBoolean("NULLABLE"));
-			    }
-			    column.isAutoIncrement(columnSet.getBoolean("IS_AUTOINCREMENT"));	//是否自增长
-			    column.setOrdinalPosition(columnSet.getInt("ORDINAL_POSITION"));		//表中的列的索引（从 1 开始）
-			    /*其他信息*/
-			    if(typeMap.containsKey(columnName)) {
-			    	column.setTypePojo(typeMap.get(columnName));
-			    }
-			    
-			    columns.add(column);
+			    columns.add(toColumnPojo(columnSet, primaryKeyList, typeMap));
 			}
 			
 			return columns;
@@ -1114,12 +1690,65 @@ public class DbHelper implements Disposable{
 		return null;
 	}
 	
+	/**
+	 * 将DatabaseMetaData.getColumns()结果集的当前行转化为字段信息
+	 * @param columnSet
+	 * @param primaryKeyList
+	 * @param typeMap
+	 * @return
+	 * @throws SQLException
+	 */
+	private static ColumnPojo toColumnPojo(ResultSet columnSet, List<String> primaryKeyList, Map<String, TypePojo> typeMap) throws SQLException {
+		ColumnPojo column = new ColumnPojo();
+		String columnName = columnSet.getString("COLUMN_NAME");
+		if(primaryKeyList.contains(columnName)) {	//是否在主键列表里
+			column.isPK(true);
+		} else {
+			column.isPK(false);
+		}
+		column.setName(columnName);
+		column.setSqlType(columnSet.getInt("DATA_TYPE"));		//来自 java.sql.Types 的 SQL 类型
+		column.setTypeName(columnSet.getString("TYPE_NAME"));	//数据源依赖的类型名称，对于 UDT，该类型名称是完全限定的
+		column.setSize(columnSet.getInt("COLUMN_SIZE"));			//长度
+		column.setDecimalDigits(columnSet.getInt("DECIMAL_DIGITS"));	//小数部分的位数。对于 DECIMAL_DIGITS 不适用的数据类型，则返回 Null
+		column.setRemarks(columnSet.getString("REMARKS"));			//注释
+		column.setDef(columnSet.getObject("COLUMN_DEF"));	//默认值，可以为null
+		column.setCharOctetLength(columnSet.getInt("CHAR_OCTET_LENGTH"));	// 对于 char 类型，该长度是列中的最大字节数
+		if(column.isPK()) {		//主键不允许为空
+			column.isNotNull(true);
+		} else {
+			column.isNotNull(!columnSet.getBoolean("NULLABLE"));
+		}
+		column.isAutoIncrement(columnSet.getBoolean("IS_AUTOINCREMENT"));	//是否自增长
+		column.setOrdinalPosition(columnSet.getInt("ORDINAL_POSITION"));		//表中的列的索引（从 1 开始）
+		/*其他信息*/
+		if(typeMap.containsKey(columnName)) {
+			column.setTypePojo(typeMap.get(columnName));
+		}
+		return column;
+	}
+	
 	/**
 	 * 通过表名获取所有主键
 	 * @param tableName
 	 * @return
 	 */
 	public List<String> primaryKeyList(String tableName) {
+		SchemaCache cache = schemaCache();
+		List<String> list = null;
+		if(cache == null) {
+			list = primaryKeyListNoCache(tableName);
+		} else {
+			try {
+				list = cache.get(SchemaCache.KEY_PRIMARY_KEYS+tableName, ()->primaryKeyListNoCache(tableName));
+			} catch (SQLException ex) {
+				err(ex);
+			}
+		}
+		return list == null ? new ArrayList<>() : new ArrayList<>(list);
+	}
+	
+	private List<String> primaryKeyListNoCache(String tableName) {
 		List<String> list = new ArrayList<>();
 		try {
 			ResultSet rs = conn.getMetaData().getPrimaryKeys(null, null, tableName);
@@ -1128,6 +1757,7 @@ public class DbHelper implements Disposable{
 			}
 		} catch (SQLException ex) {
 			err(ex);
+			return null;
 		}
 		return list;
 	}
@@ -1185,13 +1815,39 @@ public class DbHelper implements Disposable{
 	 * <p>
 	 * 	包括主键索引,索引名为为PRIMARY
 	 * 	参考:http://blog.csdn.net/uikoo9/article/details/39926687
+	 * 	开启setModeSchemaCache(true)后从缓存中获取
 	 * </p>
 	 * 
-	 * @param connection
 	 * @param tableName
 	 * @return
 	 */
 	public List<DBIPojo> dbiList(String tableName) {
+		SchemaCache cache = schemaCache();
+		List<DBIPojo> list = null;
+		if(cache == null) {
+			list = dbiListNoCache(tableName);
+		} else {
+			try {
+				list = cache.get(SchemaCache.KEY_INDEXES+tableName, ()->dbiListNoCache(tableName));
+			} catch (SQLException ex) {
+				ex.printStackTrace();
+			}
+		}
+		List<DBIPojo> result = new ArrayList<>();
+		if(list != null) {
+			for (DBIPojo dbi : list) {
+				result.add(new DBIPojo()
+						.setName(dbi.getName())
+						.setType(dbi.getType())
+						.setTypeName(dbi.getTypeName())
+						.setUnique(dbi.isUnique())
+						.setColumnNameList(new ArrayList<>(dbi.getColumnNameList())));
+			}
+		}
+		return result;
+	}
+	
+	private List<DBIPojo> dbiListNoCache(String tableName) {
 		List<DBIPojo> dbiList = new  ArrayList<>();
 		try {
 			ResultSet rs = conn.getMetaData().getIndexInfo(null, null, tableName, false, false);
@@ -1241,16 +1897,28 @@ public class DbHelper implements Disposable{
 		} catch (SQLException ex) {
 			ex.printStackTrace();
 		}
-		return dbiList;
+		return null;
 	}
 	
 	/**
 	 * 判断数据库里是否存在某张表
+	 * <p>
+	 * 	开启setModeSchemaCache(true)后只缓存表存在的结果,表不存在时每次都会重新查询
+	 * </p>
 	 * @param tableName
 	 * @return
 	 * @throws SQLException	可能是连接数据库异常,所以不能确定是否存在表
 	 */
 	public boolean isTableExisted(String tableName) throws SQLException {
+		SchemaCache cache = schemaCache();
+		if(cache == null) {
+			return isTableExistedNoCache(tableName);
+		}
+		Boolean existed = cache.get(SchemaCache.KEY_EXISTS+tableName, ()->isTableExistedNoCache(tableName) ? Boolean.TRUE : null);
+		return existed != null;
+	}
+	
+	private Boolean isTableExistedNoCache(String tableName) throws SQLException {
 		ResultSet rs = conn.getMetaData().getTables(null, null, tableName, null);  
         if (rs.next()) {  
               return true;  
@@ -1259,6 +1927,332 @@ public class DbHelper implements Disposable{
         }  
 	}
 	
+	/**
+	 * 一次性加载整个数据库的结构信息(表名/字段/主键)到缓存中
+	 * <p>
+	 * 	字段信息通过一次getColumns扫描获取,mysql的额外类型信息和主键通过一次information_schema查询获取,
+	 * 	sqlite通过一次pragma_table_info连接查询获取(低于3.16的版本不支持时退化为逐表pragma),
+	 * 	其他数据库的主键通过一次getPrimaryKeys获取(驱动不支持时退化为逐表获取),
+	 * 	避免逐表查询带来的大量往返,适合启动时预热或者需要遍历所有表结构的场景(比如数据库版本升级比对)。
+	 * 	需要开启setModeSchemaCache(true)才会在之后的查询中使用缓存
+	 * </p>
+	 * @return 加载的表数量
+	 * @throws SQLException
+	 */
+	public int loadSchema() throws SQLException {
+		if(dbUrl == null) {
+			throw new SQLException("无法获取数据库url,不能缓存结构信息");
+		}
+		SchemaCache cache = SchemaCache.get(dbUrl, SCHEMA_CACHE_TTL);
+		try {
+			List<String> tableList = tableNameListNoCache();
+			if(tableList == null) {
+				throw new SQLException("获取表名列表失败");
+			}
+			Map<String, List<String>> pkMap = new HashMap<>();
+			Map<String, List<ColumnPojo>> columnMap = new HashMap<>();
+			for (String tableName : tableList) {
+				columnMap.put(tableName, new ArrayList<>());
+			}
+			Map<String, Map<String, TypePojo>> typeMaps = typeMaps(tableList, pkMap);
+			if(pkMap.isEmpty() && !isSqlite()) {
+				primaryKeyMap(tableList, pkMap);
+			}
+			for (String tableName : tableList) {
+				if(!pkMap.containsKey(tableName)) {	//驱动不支持批量获取
+					List<String> pkList = primaryKeyListNoCache(tableName);
+					pkMap.put(tableName, pkList == null ? new ArrayList<>() : pkList);
+				}
+			}
+			
+			ResultSet columnSet = conn.getMetaData().getColumns(conn.getCatalog(), currentSchema(), "%", "%");
+			try {
+				while(columnSet.next()) {
+					String tableName = columnSet.getString("TABLE_NAME");
+					List<ColumnPojo> columns = columnMap.get(tableName);
+					if(columns == null) {	//视图或者其他schema的表
+						continue;
+					}
+					Map<String, TypePojo> typeMap = typeMaps.get(tableName);
+					columns.add(toColumnPojo(columnSet, pkMap.get(tableName), typeMap == null ? new HashMap<>() : typeMap));
+				}
+			} finally {
+				close(columnSet);
+			}
+			
+			cache.put(SchemaCache.KEY_TABLES, tableList);
+			for (String tableName : tableList) {
+				cache.put(SchemaCache.KEY_COLUMNS+tableName, columnMap.get(tableName));
+				cache.put(SchemaCache.KEY_PRIMARY_KEYS+tableName, pkMap.get(tableName));
+				cache.put(SchemaCache.KEY_EXISTS+tableName, Boolean.TRUE);
+			}
+			return tableList.size();
+		} finally {
+			closeAfterExecute();
+		}
+	}
+	
+	/**
+	 * 清除当前数据库的结构信息缓存
+	 */
+	public void invalidateSchemaCache() {
+		SchemaCache.invalidate(dbUrl);
+	}
+	
+	/**
+	 * 获取当前数据库的结构信息缓存,未开启缓存模式时返回null
+	 * @return
+	 */
+	private SchemaCache schemaCache() {
+		if(!MODE_SCHEMA_CACHE || dbUrl == null) {
+			return null;
+		}
+		return SchemaCache.get(dbUrl, SCHEMA_CACHE_TTL);
+	}
+	
+	/**
+	 * 批量获取多张表的额外类型信息,同时把查询结果中的主键放入pkMap
+	 * <p>
+	 * 	mysql通过一次information_schema查询获取(COLUMN_KEY为PRI的字段即主键),
+	 * 	sqlite通过一次pragma_table_info连接查询获取(pk大于0的字段即主键,不支持时退化为逐表pragma且不获取主键),
+	 * 	其他数据库不支持
+	 * </p>
+	 * @param tableList
+	 * @param pkMap 表名->主键列表,只放入查询结果覆盖的表
+	 * @return
+	 */
+	private Map<String, Map<String, TypePojo>> typeMaps(List<String> tableList, Map<String, List<String>> pkMap) {
+		Map<String, Map<String, TypePojo>> result = new HashMap<>();
+		switch(dbType) {
+			case DbPojo.TYPE_MYSQL:
+				List<Map<String, Object>> typeList = queryList(
+						"SELECT TABLE_NAME, COLUMN_NAME, COLUMN_TYPE, IS_NULLABLE, COLUMN_KEY, EXTRA FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() ORDER BY TABLE_NAME, ORDINAL_POSITION");
+				if(typeList != null) {
+					for (Map<String, Object> map : typeList) {
+						String tableName = (String) map.get("TABLE_NAME");
+						String field = (String) map.get("COLUMN_NAME");
+						String type = (String) map.get("COLUMN_TYPE");
+						Boolean nullAble = "YES".equals(map.get("IS_NULLABLE"));
+						String extra = (String) map.get("EXTRA");
+						String key = (String) map.get("COLUMN_KEY");
+						result.computeIfAbsent(tableName, k->new HashMap<>())
+							.put(field, new TypePojo().setField(field).setType(type).setNullAble(nullAble).setExtra(extra).setKey(key));
+						List<String> pkList = pkMap.computeIfAbsent(tableName, k->new ArrayList<>());
+						if("PRI".equals(key)) {
+							pkList.add(field);
+						}
+					}
+				}
+				break;
+			case DbPojo.TYPE_SQLITE:
+				try {
+					List<Map<String, Object>> list = queryListWithExceptionNoCache(
+							"SELECT m.name AS table_name, p.name AS name, p.type AS type, p.\"notnull\" AS \"notnull\", p.pk AS pk FROM sqlite_master m JOIN pragma_table_info(m.name) p WHERE m.type = 'table' ORDER BY m.name, p.pk", null);
+					for (Map<String, Object> map : list) {
+						String tableName = (String) map.get("table_name");
+						String field = (String) map.get("name");
+						String type = (String) map.get("type");
+						Boolean nullAble = Integer.valueOf(0).equals(toInteger(map.get("notnull")));
+						result.computeIfAbsent(tableName, k->new HashMap<>())
+							.put(field, new TypePojo().setField(field).setType(type).setNullAble(nullAble));
+						List<String> pkList = pkMap.computeIfAbsent(tableName, k->new ArrayList<>());
+						Integer pk = toInteger(map.get("pk"));
+						if(pk != null && pk > 0) {
+							pkList.add(field);
+						}
+					}
+				} catch(SQLException ex) {	//sqlite3.16以下不支持表值pragma函数
+					result.clear();
+					pkMap.clear();
+					for (String tableName : tableList) {
+						result.put(tableName, typeMap_Sqlite(tableName));
+					}
+				}
+				break;
+			default:
+				break;
+		}
+		return result;
+	}
+	
+	/**
+	 * 通过一次getPrimaryKeys(表名传null)获取所有表的主键
+	 * <p>
+	 * 	驱动不支持表名为null(抛出异常或者没有返回任何主键)时不放入任何数据,由调用方逐表获取
+	 * </p>
+	 * @param tableList
+	 * @param pkMap 表名->主键列表(按KEY_SEQ排序)
+	 */
+	private void primaryKeyMap(List<String> tableList, Map<String, List<String>> pkMap) {
+		Map<String, List<Object[]>> seqMap = new HashMap<>();
+		for (String tableName : tableList) {
+			seqMap.put(tableName, new ArrayList<>());
+		}
+		ResultSet rs = null;
+		boolean found = false;
+		try {
+			rs = conn.getMetaData().getPrimaryKeys(conn.getCatalog(), currentSchema(), null);
+			while(rs.next()) {
+				found = true;
+				List<Object[]> list = seqMap.get(rs.getString("TABLE_NAME"));
+				if(list != null) {
+					list.add(new Object[]{rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME")});
+				}
+			}
+		} catch (SQLException|RuntimeException ex) {
+			return;
+		} finally {
+			close(rs);
+		}
+		if(!found) {
+			return;
+		}
+		for (Map.Entry<String, List<Object[]>> entry : seqMap.entrySet()) {
+			List<Object[]> list = entry.getValue();
+			list.sort(Comparator.comparingInt(item->(Integer) item[0]));
+			List<String> pkList = new ArrayList<>(list.size());
+			for (Object[] item : list) {
+				pkList.add((String) item[1]);
+			}
+			pkMap.put(entry.getKey(), pkList);
+		}
+	}
+	
+	private static Integer toInteger(Object value) {
+		return value instanceof Number ? ((Number) value).intValue() : null;
+	}
+	
+	/**
+	 * 获取当前连接的schema,驱动不支持(jdbc4.1以下)时返回null
+	 * @return
+	 */
+	private String currentSchema() {
+		try {
+			return conn.getSchema();
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+	
+	/**
+	 * 执行修改语句后清除相关的缓存(ddl清除结构信息缓存,查询结果缓存按表清除)
+	 * <p>
+	 * 	事务中执行的语句先记录下来,提交或回滚后由afterTransaction()清除
+	 * </p>
+	 * @param sql
+	 */
+	void afterUpdate(String sql) {
+		if(isDdl(sql)) {
+			String table = ddlTable(sql);
+			if(table == null) {
+				SchemaCache.invalidate(dbUrl);
+			} else {
+				SchemaCache.invalidateTable(dbUrl, table);
+			}
+		}
+		if(resultCache == null) {
+			return;
+		}
+		if(inTransaction()) {
+			if(txUpdateSqlSet == null) {
+				txUpdateSqlSet = new LinkedHashSet<>();
+			}
+			txUpdateSqlSet.add(sql);
+			return;
+		}
+		resultCache.invalidateBySql(sql);
+	}
+	
+	/**
+	 * 事务提交或回滚后清除事务中修改过的表的查询结果缓存
+	 */
+	void afterTransaction() {
+		Set<String> sqlSet = txUpdateSqlSet;
+		if(sqlSet == null || sqlSet.isEmpty()) {
+			return;
+		}
+		txUpdateSqlSet = null;
+		if(resultCache != null) {
+			for (String sql : sqlSet) {
+				resultCache.invalidateBySql(sql);
+			}
+		}
+	}
+	
+	/**
+	 * 连接是否处于手动提交的事务中,无法判断时视为在事务中
+	 * @return
+	 */
+	private boolean inTransaction() {
+		try {
+			return conn != null && !conn.getAutoCommit();
+		} catch (SQLException ex) {
+			return true;
+		}
+	}
+	
+	/**
+	 * 记录sql执行情况,未开启监控时不做任何事
+	 * @param type
+	 * @param sql
+	 * @param startNanos 开始执行的时间(System.nanoTime())
+	 * @param rows 返回/影响的行数,未知时为-1
+	 * @param error 执行成功为null
+	 */
+	static void monitor(SqlEvent.Type type, String sql, long startNanos, long rows, SQLException error) {
+		SqlMonitor monitor = SQL_MONITOR;
+		if(monitor != null) {
+			monitor.record(type, sql, System.nanoTime() - startNanos, rows, error);
+		}
+	}
+	
+	/**
+	 * 拷贝缓存的结果,避免调用方修改缓存内容
+	 * @param list
+	 * @return
+	 */
+	private static List<Map<String, Object>> copyRows(List<Map<String, Object>> list) {
+		if(list == null) {
+			return null;
+		}
+		List<Map<String, Object>> result = new ArrayList<>(list.size());
+		for (Map<String, Object> row : list) {
+			result.add(new HashMap<>(row));
+		}
+		return result;
+	}
+	
+	/**
+	 * 判断是否为修改表结构的语句
+	 * @param sql
+	 * @return
+	 */
+	private static boolean isDdl(String sql) {
+		return sql != null && P_DDL.matcher(sql).find();
+	}
+	
+	/**
+	 * 获取只涉及一张表的ddl(建表/改表/删表)的表名
+	 * <p>
+	 * 	同时删除多张表或者重命名表的ddl返回null
+	 * </p>
+	 * @param sql
+	 * @return 去掉引号和schema前缀的表名,不是单表ddl时返回null
+	 */
+	private static String ddlTable(String sql) {
+		Matcher m = P_DDL_TABLE.matcher(sql);
+		if(!m.find()) {
+			return null;
+		}
+		String rest = sql.substring(m.end()).trim();
+		if(rest.startsWith(",") || P_RENAME.matcher(rest).find()) {
+			return null;
+		}
+		String table = m.group(1).replaceAll("[`\"\\[\\]]", "");
+		int index = table.lastIndexOf('.');
+		return index == -1 ? table : table.substring(index+1);
+	}
+	
 	/*----内部工具方法------*/
 	
 	/**
@@ -1270,6 +2264,81 @@ public class DbHelper implements Disposable{
 		return params == null || params.length == 0;
 	}
 	
+	/**
+	 * 构建流式查询用的结果集,使用独立的只读单向游标(不进入PreparedStatement缓存)
+	 * <p>
+	 * 	mysql驱动只有在fetchSize为Integer.MIN_VALUE时才会逐行读取,否则会把结果全部加载到内存;
+	 * 	oracle默认每次只拉取10行,sqlserver默认根据驱动配置缓冲,这里统一设置为fetchSize
+	 * </p>
+	 * @param sql
+	 * @param params
+	 * @param fetchSize
+	 * @return
+	 * @throws SQLException
+	 */
+	private ResultSet getStreamResultSet(String sql, Object[] params, int fetchSize) throws SQLException {
+		if(fetchSize <= 0) {
+			fetchSize = DEFAULT_FETCH_SIZE;
+		}
+		PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			track(pstmt);
+			if(isMysql()) {
+				pstmt.setFetchSize(Integer.MIN_VALUE);
+			} else {	//oracle/sqlserver/sqlite等直接按fetchSize拉取
+				pstmt.setFetchSize(fetchSize);
+			}
+			if(params != null) {
+				for (int i = 0; i < params.length; i++) {
+					pstmt.setObject(i+1, params[i]);
+				}
+			}
+			return pstmt.executeQuery();
+		} catch(SQLException ex) {
+			close(pstmt);
+			throw ex;
+		}
+	}
+	
+	/**
+	 * 关闭流式查询的结果集及Statement
+	 * @param rs
+	 */
+	private void closeStream(ResultSet rs) {
+		close(rs);
+		closeAfterExecute();
+	}
+	
+	/**
+	 * 获取所有字段的别名
+	 * @param md
+	 * @return
+	 * @throws SQLException
+	 */
+	private static String[] getColumnLabels(ResultSetMetaData md) throws SQLException {
+		int columnCount = md.getColumnCount();
+		String[] labels = new String[columnCount];
+		for (int i = 1; i <= columnCount; i++) {
+			labels[i-1] = md.getColumnLabel(i);
+		}
+		return labels;
+	}
+	
+	/**
+	 * 将结果集当前行转为map
+	 * @param rs
+	 * @param labels
+	 * @return
+	 * @throws SQLException
+	 */
+	private static Map<String, Object> toRowMap(ResultSet rs, String[] labels) throws SQLException {
+		Map<String, Object> rowData = new HashMap<String, Object>(labels.length * 4 / 3 + 1);
+		for (int i = 0; i < labels.length; i++) {
+			rowData.put(labels[i], rs.getObject(i+1));
+		}
+		return rowData;
+	}
+	
 	/**
 	 * 判断一个类是否为基础类型
 	 * @param clazz
@@ -1279,6 +2348,83 @@ public class DbHelper implements Disposable{
 		return ReflectionUtils.isBasicClass(clazz);
 	}
 	
+	/**
+	 * 从缓存获取PreparedStatement,未开启缓存或未命中时新建
+	 * @param sql
+	 * @param autoGeneratedKeys
+	 * @return
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+		if(statementCache != null) {
+			PreparedStatement pstmt = statementCache.get(sql, autoGeneratedKeys);
+			if(pstmt != null) {
+				pstmt.clearParameters();
+				return track(pstmt);
+			}
+		}
+		PreparedStatement pstmt = autoGeneratedKeys == StatementCache.NO_GENERATED_KEYS ?
+				conn.prepareStatement(sql) : conn.prepareStatement(sql, autoGeneratedKeys);
+		if(statementCache != null) {
+			statementCache.put(sql, autoGeneratedKeys, pstmt);
+		}
+		return track(pstmt);
+	}
+	
+	/**
+	 * 新建Statement,并应用超时设置
+	 * @return
+	 * @throws SQLException
+	 */
+	private Statement createStatement() throws SQLException {
+		return track(conn.createStatement());
+	}
+	
+	/**
+	 * 应用超时设置,并记录为正在执行的Statement以便cancel()
+	 * @param stmt
+	 * @return
+	 * @throws SQLException
+	 */
+	private <T extends Statement>T track(T stmt) throws SQLException {
+		if(stmt.getQueryTimeout() != queryTimeout) {	//缓存的PreparedStatement可能带有之前的设置
+			stmt.setQueryTimeout(queryTimeout);
+		}
+		runningStatement = stmt;
+		return stmt;
+	}
+	
+	/**
+	 * 关闭不由缓存管理的Statement
+	 * @param stmt
+	 */
+	private void close(Statement stmt) {
+		if(stmt == null || (statementCache != null && statementCache.contains(stmt))) {
+			return;
+		}
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+		}
+	}
+	
+	/**
+	 * 关闭结果集及其对应的(不由缓存管理的)Statement
+	 * @param rs
+	 */
+	private void close(ResultSet rs) {
+		if(rs == null) {
+			return;
+		}
+		Statement stmt = null;
+		try {
+			stmt = rs.getStatement();
+			rs.close();
+		} catch (SQLException e) {
+		}
+		close(stmt);
+	}
+	
 	private static void err(Exception ex) {
 		if(MODE_DEBUG) {
 			ex.printStackTrace();
@@ -0,0 +1,262 @@
+package com.ag777.util.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 键集分页(seek分页)
+ * <p>
+ * 	每一页从上一页最后一行的键值开始查询(where key &gt; ? order by key),
+ * 	借助键上的索引直接定位,翻到多深的页都只需要读取一页的数据,不会像limit/offset那样越往后越慢。
+ * 	根据数据库类型生成对应的sql:mysql/sqlite使用LIMIT,oracle使用ROWNUM,sqlserver使用TOP
+ * </p>
+ * <p>
+ * 	限制:
+ * 	<ul>
+ * 		<li>只支持单列键,键值需要唯一(一般为主键),否则可能漏掉重复键值的行</li>
+ * 		<li>基础查询形如select ... from ... [where ...],不能带order by/group by/limit,键列需要出现在查询结果中</li>
+ * 	</ul>
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	for (List&lt;Map&lt;String, Object&gt;&gt; page : helper.keysetPager("user", 1000)) {
+ * 		...
+ * 	}
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月02日,last modify at 2018年06月02日
+ */
+public class KeysetPager implements Iterable<List<Map<String, Object>>> {
+
+	private final DbHelper helper;
+	private final String baseSql;
+	private final Object[] params;
+	private final String keyColumn;
+	private final String keyLabel;	//键列在结果中的名称(去掉表别名)
+	private final int pageSize;
+	private boolean descending;
+	private Object lastKey;
+	private boolean finished;
+
+	/**
+	 * 按主键分页遍历整张表
+	 * @param helper
+	 * @param table
+	 * @param pageSize
+	 * @throws IllegalArgumentException 表没有主键或者为联合主键
+	 */
+	public KeysetPager(DbHelper helper, String table, int pageSize) {
+		this(helper, "SELECT * FROM "+table, null, getSingleKey(helper, table), pageSize);
+	}
+
+	/**
+	 * @param helper
+	 * @param baseSql 基础查询,形如select ... from ... [where ...]
+	 * @param params 基础查询的参数,可以为null
+	 * @param keyColumn 分页的键列(唯一且有索引)
+	 * @param pageSize
+	 */
+	public KeysetPager(DbHelper helper, String baseSql, Object[] params, String keyColumn, int pageSize) {
+		this.helper = helper;
+		this.baseSql = baseSql.trim();
+		this.params = params == null ? new Object[0] : params;
+		this.keyColumn = keyColumn;
+		int index = keyColumn.lastIndexOf('.');
+		this.keyLabel = index == -1 ? keyColumn : keyColumn.substring(index+1);
+		this.pageSize = Math.max(pageSize, 1);
+		descending = false;
+		finished = false;
+	}
+
+	/**
+	 * 是否倒序分页(默认正序)
+	 * @param descending
+	 * @return
+	 */
+	public KeysetPager descending(boolean descending) {
+		this.descending = descending;
+		return this;
+	}
+
+	/**
+	 * 从某个键值之后开始(不包括该键值),用于断点续查
+	 * @param key
+	 * @return
+	 */
+	public KeysetPager startAfter(Object key) {
+		this.lastKey = key;
+		return this;
+	}
+
+	/**
+	 * @return 已读取的最后一个键值,可以保存下来之后通过startAfter继续
+	 */
+	public Object getLastKey() {
+		return lastKey;
+	}
+
+	public boolean hasNext() {
+		return !finished;
+	}
+
+	/**
+	 * 读取下一页
+	 * @return 没有更多数据时返回空列表
+	 * @throws SQLException
+	 */
+	public List<Map<String, Object>> nextPage() throws SQLException {
+		if(finished) {
+			return new ArrayList<>();
+		}
+		List<Object> paramList = new ArrayList<>();
+		String sql = buildSql(paramList);
+		List<Map<String, Object>> page = helper.queryListWithException(sql, paramList.toArray());
+		if(page.size() < pageSize) {
+			finished = true;
+		}
+		if(!page.isEmpty()) {
+			lastKey = getKey(page.get(page.size()-1));
+		}
+		return page;
+	}
+
+	/**
+	 * 逐页遍历,查询出错时抛出IllegalStateException(cause为SQLException)
+	 */
+	@Override
+	public Iterator<List<Map<String, Object>>> iterator() {
+		return new Iterator<List<Map<String, Object>>>() {
+			private List<Map<String, Object>> next;
+
+			@Override
+			public boolean hasNext() {
+				if(next == null && !finished) {
+					try {
+						next = nextPage();
+					} catch (SQLException ex) {
+						throw new IllegalStateException("分页查询失败", ex);
+					}
+				}
+				return next != null && !next.isEmpty();
+			}
+
+			@Override
+			public List<Map<String, Object>> next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				List<Map<String, Object>> result = next;
+				next = null;
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * 构建当前页的sql
+	 * @param paramList 输出参数
+	 * @return
+	 */
+	String buildSql(List<Object> paramList) {
+		StringBuilder sb = new StringBuilder();
+		boolean sqlServer = helper.isSqlServer();
+		if(sqlServer) {	//SELECT [DISTINCT] TOP (?) ...
+			paramList.add(pageSize);
+			sb.append(insertTop(baseSql));
+		} else {
+			sb.append(baseSql);
+		}
+		for (Object param : params) {
+			paramList.add(param);
+		}
+		if(lastKey != null) {
+			int whereIndex = indexOfTopLevelWhere(baseSql);
+			if(whereIndex == -1) {
+				sb.append(" WHERE ");
+			} else {	//原条件加上括号,避免其中的or影响键条件
+				int offset = sb.length() - baseSql.length();
+				int condStart = offset + whereIndex + "WHERE".length();
+				sb.insert(condStart, " (").append(") AND ");
+			}
+			sb.append(keyColumn).append(descending ? " < ?" : " > ?");
+			paramList.add(lastKey);
+		}
+		sb.append(" ORDER BY ").append(keyColumn).append(descending ? " DESC" : " ASC");
+		if(helper.isOracle()) {
+			sb.insert(0, "SELECT * FROM (").append(") WHERE ROWNUM <= ?");
+			paramList.add(pageSize);
+		} else if(!sqlServer) {	//mysql/sqlite等
+			sb.append(" LIMIT ?");
+			paramList.add(pageSize);
+		}
+		return sb.toString();
+	}
+
+	private Object getKey(Map<String, Object> row) {
+		if(row.containsKey(keyLabel)) {
+			return row.get(keyLabel);
+		}
+		for (Map.Entry<String, Object> entry : row.entrySet()) {
+			if(entry.getKey().equalsIgnoreCase(keyLabel)) {
+				return entry.getValue();
+			}
+		}
+		throw new IllegalStateException("查询结果中不包含键列:"+keyLabel);
+	}
+
+	private static String getSingleKey(DbHelper helper, String table) {
+		List<String> pkList = helper.primaryKeyList(table);
+		if(pkList.size() != 1) {
+			throw new IllegalArgumentException("表["+table+"]没有单列主键,请指定键列");
+		}
+		return pkList.get(0);
+	}
+
+	/**
+	 * 在select(及distinct)之后插入TOP (?)
+	 */
+	private static String insertTop(String sql) {
+		String upper = sql.toUpperCase();
+		int index = upper.indexOf("SELECT") + "SELECT".length();
+		String rest = upper.substring(index).trim();
+		if(rest.startsWith("DISTINCT")) {
+			index = upper.indexOf("DISTINCT", index) + "DISTINCT".length();
+		}
+		return sql.substring(0, index) + " TOP (?)" + sql.substring(index);
+	}
+
+	/**
+	 * 查找不在括号(子查询)和字符串内的WHERE
+	 * @return 不存在返回-1
+	 */
+	private static int indexOfTopLevelWhere(String sql) {
+		int depth = 0;
+		boolean inString = false;
+		String upper = sql.toUpperCase();
+		for (int i = 0; i < upper.length(); i++) {
+			char c = upper.charAt(i);
+			if(c == '\'') {
+				inString = !inString;
+			} else if(inString) {
+				continue;
+			} else if(c == '(') {
+				depth++;
+			} else if(c == ')') {
+				depth--;
+			} else if(depth == 0 && upper.startsWith("WHERE", i)
+					&& (i == 0 || !Character.isLetterOrDigit(upper.charAt(i-1)) && upper.charAt(i-1) != '_')
+					&& (i+5 >= upper.length() || !Character.isLetterOrDigit(upper.charAt(i+5)) && upper.charAt(i+5) != '_')) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,300 @@
+package com.ag777.util.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ag777.util.db.connection.DbConnectionPool;
+import com.ag777.util.db.interf.DBTransactionInterf;
+
+/**
+ * 读写分离辅助类
+ * <p>
+ * 	查询(queryList/getMap/getObject等)发送到从库连接池,按轮询或者最少活跃连接选择从库,
+ * 	修改(update/batchUpdate/doTransaction等)发送到主库连接池。
+ * 	事务内(通过doTransaction)同一线程的所有查询都走事务所在的主库连接;
+ * 	可以通过stickPrimaryMillis设置写入后一段时间内同一线程的查询也走主库,避免读不到刚写入的数据(主从延迟)。
+ * 	所有从库都不可用时查询退回主库
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	RoutingDbHelper router = new RoutingDbHelper(primaryPool, replicaPoolList)
+ * 		.strategy(RoutingDbHelper.Strategy.LEAST_LOADED);
+ * 	router.queryList(sql, params);	//从库
+ * 	router.update(sql, params);		//主库
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月01日,last modify at 2018年06月13日
+ */
+public class RoutingDbHelper {
+
+	/**
+	 * 从库选择策略
+	 */
+	public enum Strategy {
+		ROUND_ROBIN,	//轮询
+		LEAST_LOADED	//借出连接最少的
+	}
+
+	private final DbConnectionPool primary;
+	private final List<DbConnectionPool> replicaList;
+	private final AtomicInteger roundRobinIndex;
+	private final ThreadLocal<DbHelper> transactionHelper;	//当前线程所在事务的主库helper
+	private final ThreadLocal<Long> lastWriteTime;				//当前线程最后一次写入的时间
+	private Strategy strategy;
+	private long stickPrimaryMillis;
+
+	/**
+	 * @param primary 主库连接池
+	 * @param replicaList 从库连接池,为空时所有操作都走主库
+	 */
+	public RoutingDbHelper(DbConnectionPool primary, List<DbConnectionPool> replicaList) {
+		this.primary = primary;
+		this.replicaList = replicaList == null ? new ArrayList<>() : new ArrayList<>(replicaList);
+		roundRobinIndex = new AtomicInteger(0);
+		transactionHelper = new ThreadLocal<>();
+		lastWriteTime = new ThreadLocal<>();
+		strategy = Strategy.ROUND_ROBIN;
+		stickPrimaryMillis = 0;
+	}
+
+	/*==================配置========================*/
+	public RoutingDbHelper strategy(Strategy strategy) {
+		this.strategy = strategy;
+		return this;
+	}
+
+	/**
+	 * 写入后同一线程的查询在多长时间内继续走主库
+	 * @param millis 小于等于0则不处理
+	 * @return
+	 */
+	public RoutingDbHelper stickPrimaryMillis(long millis) {
+		this.stickPrimaryMillis = millis;
+		return this;
+	}
+
+	public DbConnectionPool getPrimary() {
+		return primary;
+	}
+
+	public List<DbConnectionPool> getReplicaList() {
+		return new ArrayList<>(replicaList);
+	}
+
+	/*==================读========================*/
+	public List<Map<String, Object>> queryList(String sql) throws SQLException {
+		return queryList(sql, null);
+	}
+
+	public List<Map<String, Object>> queryList(String sql, Object[] params) throws SQLException {
+		return read(helper->helper.queryListWithException(sql, params));
+	}
+
+	/**
+	 * 查询单行
+	 * @param sql
+	 * @param params
+	 * @return 没有数据返回null
+	 * @throws SQLException
+	 */
+	public Map<String, Object> getMap(String sql, Object[] params) throws SQLException {
+		List<Map<String, Object>> list = queryList(sql, params);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	public <T>T getObject(String sql, Object[] params, Class<T> clazz) throws SQLException {
+		return read(helper->helper.getObjectWithException(sql, params, clazz));
+	}
+
+	/**
+	 * 在从库(事务内或者写入后粘滞期间为主库)上执行自定义查询
+	 * @param task
+	 * @return
+	 * @throws SQLException
+	 */
+	public <T>T read(DbAsyncHelper.Task<T> task) throws SQLException {
+		DbHelper helper = transactionHelper.get();
+		if(helper != null) {
+			return execute(helper, task);
+		}
+		if(replicaList.isEmpty() || isStickToPrimary()) {
+			return executeOn(primary, task);
+		}
+		DbConnectionPool first = chooseReplica();
+		Connection conn = borrowQuietly(first);
+		for (int i = 0; conn == null && i < replicaList.size(); i++) {	//选中的从库不可用,依次尝试其他从库
+			DbConnectionPool pool = replicaList.get(i);
+			if(pool != first) {
+				conn = borrowQuietly(pool);
+			}
+		}
+		if(conn == null) {	//所有从库都不可用
+			return executeOn(primary, task);
+		}
+		helper = new DbHelper(conn);
+		try {
+			return execute(helper, task);
+		} finally {
+			helper.dispose();
+		}
+	}
+
+	/*==================写========================*/
+	public int update(String sql, Object[] params) throws SQLException {
+		return write(helper->helper.updateWithException(sql, params));
+	}
+
+	/**
+	 * 批量update,在doTransaction中调用时加入外层事务(不单独提交)
+	 * @param sql
+	 * @param paramsList
+	 * @return
+	 * @throws SQLException
+	 */
+	public int[] batchUpdate(String sql, List<Object[]> paramsList) throws SQLException {
+		if(inTransaction()) {
+			return write(helper->helper.batchUpdateInTransaction(sql, paramsList));
+		}
+		return write(helper->helper.batchUpdateWithException(sql, paramsList));
+	}
+
+	public int insertAndGetKey(String sql, Object[] params) throws SQLException {
+		return write(helper->helper.insertAndGetKeyWithException(sql, params));
+	}
+
+	/**
+	 * 在主库上执行自定义操作
+	 * @param task
+	 * @return
+	 * @throws SQLException
+	 */
+	public <T>T write(DbAsyncHelper.Task<T> task) throws SQLException {
+		try {
+			DbHelper helper = transactionHelper.get();
+			if(helper != null) {
+				return execute(helper, task);
+			}
+			return executeOn(primary, task);
+		} finally {
+			if(stickPrimaryMillis > 0) {
+				lastWriteTime.set(System.currentTimeMillis());
+			}
+		}
+	}
+
+	/**
+	 * 在主库上执行事务,事务内通过该类执行的查询也走同一个主库连接(嵌套调用时直接加入外层事务)
+	 * @param task
+	 * @return
+	 * @throws Exception
+	 */
+	public boolean doTransaction(DBTransactionInterf task) throws Exception {
+		DbHelper helper = transactionHelper.get();
+		if(helper != null) {	//已在事务中
+			return task.doTransaction(helper);
+		}
+		helper = new DbHelper(borrow(primary));
+		transactionHelper.set(helper);
+		try {
+			return helper.doTransaction(task);
+		} finally {
+			transactionHelper.remove();
+			if(stickPrimaryMillis > 0) {
+				lastWriteTime.set(System.currentTimeMillis());
+			}
+			helper.dispose();
+		}
+	}
+
+	/**
+	 * @return 当前线程是否处于doTransaction中
+	 */
+	public boolean inTransaction() {
+		return transactionHelper.get() != null;
+	}
+
+	/*==================内部方法========================*/
+	private DbConnectionPool chooseReplica() {
+		if(replicaList.size() == 1) {
+			return replicaList.get(0);
+		}
+		if(strategy == Strategy.LEAST_LOADED) {
+			DbConnectionPool result = null;
+			int min = Integer.MAX_VALUE;
+			int offset = roundRobinIndex.getAndIncrement();	//负载相同时轮流选择
+			for (int i = 0; i < replicaList.size(); i++) {
+				DbConnectionPool pool = replicaList.get(Math.floorMod(offset + i, replicaList.size()));
+				if(pool.isClosed()) {
+					continue;
+				}
+				int active = pool.activeCount();
+				if(active < min) {
+					min = active;
+					result = pool;
+				}
+			}
+			if(result != null) {
+				return result;
+			}
+		}
+		return replicaList.get(Math.floorMod(roundRobinIndex.getAndIncrement(), replicaList.size()));
+	}
+
+	private boolean isStickToPrimary() {
+		if(stickPrimaryMillis <= 0) {
+			return false;
+		}
+		Long time = lastWriteTime.get();
+		if(time == null) {
+			return false;
+		}
+		if(System.currentTimeMillis() - time < stickPrimaryMillis) {
+			return true;
+		}
+		lastWriteTime.remove();
+		return false;
+	}
+
+	private static <T>T executeOn(DbConnectionPool pool, DbAsyncHelper.Task<T> task) throws SQLException {
+		DbHelper helper = new DbHelper(borrow(pool));
+		try {
+			return execute(helper, task);
+		} finally {
+			helper.dispose();
+		}
+	}
+
+	private static <T>T execute(DbHelper helper, DbAsyncHelper.Task<T> task) throws SQLException {
+		try {
+			return task.execute(helper);
+		} catch(SQLException | RuntimeException ex) {
+			throw ex;
+		} catch(Exception ex) {
+			throw new SQLException(ex);
+		}
+	}
+
+	private static Connection borrow(DbConnectionPool pool) throws SQLException {
+		try {
+			return pool.borrow();
+		} catch (ClassNotFoundException ex) {
+			throw new SQLException(ex);
+		}
+	}
+
+	private static Connection borrowQuietly(DbConnectionPool pool) {
+		try {
+			return pool.isClosed() ? null : pool.borrow();
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package com.ag777.util.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ag777.util.db.model.ColumnPojo;
+
+/**
+ * 数据表复制辅助类(支持跨数据库,如mysql->sqlite)
+ * <p>
+ * 	源表有单一整数主键时按主键范围切分为多个分区,多个线程各自通过独立的连接(建议来自连接池)并发流式读取,
+ * 	读到的数据经有界队列交给写线程,通过BatchWriter批量插入目标表(队列满时读线程阻塞,即背压)。
+ * 	每个分区写完后提交事务并记录到断点文件,中断后再次执行会跳过已完成的分区,
+ * 	未完成的分区会先删除目标表中该主键范围的数据再重新复制。
+ * 	断点文件的分区方案与本次不一致(如源表数据或分区数有变化)时,先按断点文件中记录的主键删除上次复制的所有主键范围再整体重新复制,
+ * 	无法确定上次的主键范围时抛出异常(不会清空目标表),需要手动清理目标表并删除断点文件。
+ * 	没有可用主键时退化为单分区全表复制(不支持断点续传)
+ * </p>
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	long rows = new TableCopyHelper(()->new DbHelper(pool.borrow()), targetHelper, "user")
+ * 		.partitions(8).threads(4)
+ * 		.checkpointFile(new File("user.copy"))
+ * 		.listener((copied, done, total)->Console.log(copied))
+ * 		.copy();
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月24日,last modify at 2018年06月13日
+ */
+public class TableCopyHelper {
+
+	/**
+	 * 提供源数据库连接,每个读线程调用一次,用完后会调用dispose()
+	 */
+	public interface SourceFactory {
+		DbHelper get() throws Exception;
+	}
+
+	/**
+	 * 进度回调(在写线程中调用)
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param copiedRows 已写入的行数
+		 * @param finishedPartitions 已完成的分区数(包括断点文件中记录的)
+		 * @param totalPartitions 总分区数
+		 */
+		void update(long copiedRows, int finishedPartitions, int totalPartitions);
+	}
+
+	private static final Pattern P_PARTITION_KEY = Pattern.compile("partition\\.\\d+\\.(-?\\d+)-(-?\\d+)");
+
+	private final SourceFactory sourceFactory;
+	private final DbHelper target;
+	private final String sourceTable;
+	private String targetTable;
+	private int partitions = 4;
+	private int threads = 4;
+	private int fetchSize = DbHelper.DEFAULT_FETCH_SIZE;
+	private int batchSize = 1000;
+	private int queueCapacity = 16;	//队列中最多积压的分块数
+	private boolean rewriteValues = true;
+	private File checkpointFile;
+	private ProgressListener listener;
+
+	public TableCopyHelper(SourceFactory sourceFactory, DbHelper target, String sourceTable) {
+		this.sourceFactory = sourceFactory;
+		this.target = target;
+		this.sourceTable = sourceTable;
+		this.targetTable = sourceTable;
+	}
+
+	/*==================配置========================*/
+	public TableCopyHelper targetTable(String targetTable) {
+		this.targetTable = targetTable;
+		return this;
+	}
+
+	public TableCopyHelper partitions(int partitions) {
+		this.partitions = Math.max(partitions, 1);
+		return this;
+	}
+
+	public TableCopyHelper threads(int threads) {
+		this.threads = Math.max(threads, 1);
+		return this;
+	}
+
+	public TableCopyHelper fetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	public TableCopyHelper batchSize(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+		return this;
+	}
+
+	public TableCopyHelper queueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(queueCapacity, 1);
+		return this;
+	}
+
+	/**
+	 * 是否将insert改写为多行VALUES,详见BatchWriter.rewriteValues
+	 * @param rewriteValues
+	 * @return
+	 */
+	public TableCopyHelper rewriteValues(boolean rewriteValues) {
+		this.rewriteValues = rewriteValues;
+		return this;
+	}
+
+	/**
+	 * 断点文件,为null则不记录断点;全部完成后该文件会被删除
+	 * @param checkpointFile
+	 * @return
+	 */
+	public TableCopyHelper checkpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile;
+		return this;
+	}
+
+	public TableCopyHelper listener(ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/*==================执行========================*/
+	/**
+	 * 开始复制,阻塞直到完成或失败
+	 * @return 本次写入的行数
+	 * @throws Exception 任意读写线程的异常
+	 */
+	public long copy() throws Exception {
+		List<ColumnPojo> columnList;
+		List<Partition> partitionList;
+		DbHelper source = sourceFactory.get();
+		try {
+			columnList = columnList(source);
+			partitionList = plan(source, columnList);
+		} finally {
+			source.dispose();
+		}
+		List<String> columns = new ArrayList<>(columnList.size());
+		for (ColumnPojo column : columnList) {
+			columns.add(column.getName());
+		}
+
+		String plan = planSignature(partitionList);
+		boolean resumable = partitionList.get(0).keyColumn != null;
+		Properties checkpoint = loadCheckpoint();
+		String lastPlan = checkpoint.getProperty("plan");
+		String keyColumn = partitionList.get(0).keyColumn;
+		String lastKeyColumn = checkpoint.getProperty("keyColumn");
+		if(lastPlan != null && (!resumable || !plan.equals(lastPlan) || (lastKeyColumn != null && !lastKeyColumn.equals(keyColumn)))) {	//分区方案变化,上次复制的数据无法按分区续传
+			clearLastCopy(lastPlan, lastKeyColumn);
+			checkpoint.clear();
+			lastPlan = null;
+		}
+		boolean resumed = lastPlan != null;
+		checkpoint.setProperty("plan", plan);
+		if(resumable) {
+			checkpoint.setProperty("keyColumn", keyColumn);
+		}
+		if(resumable) {	//开始写入前先记录方案,这样在第一个分区完成前中断也能清理
+			saveCheckpoint(checkpoint);
+		}
+		List<Partition> todoList = new ArrayList<>();
+		for (Partition p : partitionList) {
+			if(!"done".equals(checkpoint.getProperty(p.key()))) {
+				todoList.add(p);
+			}
+		}
+		int finished = partitionList.size() - todoList.size();
+		if(todoList.isEmpty()) {
+			deleteCheckpoint();
+			return 0;
+		}
+		if(resumed) {	//断点续传:其他分区提交时可能顺带提交了未完成分区的部分数据,先清理掉
+			for (Partition p : todoList) {
+				target.updateWithException("DELETE FROM "+targetTable+" WHERE "+p.where(), p.params());
+			}
+		}
+
+		BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(queueCapacity);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, todoList.size()));
+		String selectSql = "SELECT "+String.join(",", columns)+" FROM "+sourceTable;
+		for (Partition p : todoList) {
+			pool.execute(()->read(p, selectSql, columns, queue, failure));
+		}
+		pool.shutdown();
+
+		long copied = 0;
+		int remaining = todoList.size();
+		BatchWriter writer = target.batchWriter(insertSql(columns))
+				.batchSize(batchSize)
+				.commitEveryBatches(0)
+				.rewriteValues(rewriteValues);
+		try {
+			while(remaining > 0) {
+				if(failure.get() != null) {
+					throw failure.get();
+				}
+				Chunk chunk = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(chunk == null) {
+					continue;
+				}
+				for (Object[] row : chunk.rows) {
+					writer.add(row);
+				}
+				copied += chunk.rows.size();
+				if(chunk.end) {
+					writer.commit();
+					remaining--;
+					finished++;
+					if(resumable) {
+						checkpoint.setProperty(chunk.partition.key(), "done");
+						saveCheckpoint(checkpoint);
+					}
+				}
+				if(listener != null) {
+					listener.update(copied, finished, partitionList.size());
+				}
+			}
+			writer.finish();
+			deleteCheckpoint();
+			return copied;
+		} catch(Exception ex) {
+			pool.shutdownNow();
+			throw ex;
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/*==================内部方法========================*/
+	/**
+	 * 读线程:流式读取一个分区,按batchSize分块放入队列
+	 */
+	private void read(Partition p, String selectSql, List<String> columns, BlockingQueue<Chunk> queue, AtomicReference<Exception> failure) {
+		DbHelper source = null;
+		try {
+			source = sourceFactory.get();
+			String sql = p.keyColumn == null ? selectSql : selectSql+" WHERE "+p.where();
+			List<Object[]> rows = new ArrayList<>(batchSize);
+			List<List<Object[]>> holder = new ArrayList<>(1);
+			holder.add(rows);
+			source.queryForEach(sql, p.params(), fetchSize, (row, index)->{
+				if(failure.get() != null) {
+					return false;
+				}
+				holder.get(0).add(toArray(row, columns));
+				if(holder.get(0).size() >= batchSize) {
+					queue.put(new Chunk(p, holder.get(0), false));	//队列满时阻塞
+					holder.set(0, new ArrayList<>(batchSize));
+				}
+				return true;
+			});
+			if(failure.get() == null) {
+				queue.put(new Chunk(p, holder.get(0), true));
+			}
+		} catch(Exception ex) {
+			failure.compareAndSet(null, ex);
+		} finally {
+			if(source != null) {
+				source.dispose();
+			}
+		}
+	}
+
+	/**
+	 * 按主键范围切分分区
+	 */
+	private List<Partition> plan(DbHelper source, List<ColumnPojo> columnList) throws SQLException {
+		List<Partition> list = new ArrayList<>();
+		List<String> pkList = source.primaryKeyList(sourceTable);
+		if(pkList.size() == 1 && isIntegerColumn(columnList, pkList.get(0))) {	//字符串/小数主键按范围切分会漏数据或重复
+			String pk = pkList.get(0);
+			Map<String, Object> range = source.getMap("SELECT MIN("+pk+") AS min_key, MAX("+pk+") AS max_key FROM "+sourceTable);
+			Long min = range == null ? null : toLong(range, "min_key");
+			Long max = range == null ? null : toLong(range, "max_key");
+			if(min != null && max != null) {
+				long span = max - min + 1;
+				int count = (int) Math.max(1, Math.min(partitions, span));
+				long step = span / count;
+				long lo = min;
+				for (int i = 0; i < count; i++) {
+					long hi = i == count - 1 ? max : lo + step - 1;
+					list.add(new Partition(i, pk, lo, hi));
+					lo = hi + 1;
+				}
+				return list;
+			}
+		}
+		list.add(new Partition(0, null, 0, 0));
+		return list;
+	}
+
+	private List<ColumnPojo> columnList(DbHelper source) throws SQLException {
+		List<ColumnPojo> columnList = source.columnList(sourceTable);
+		if(columnList == null || columnList.isEmpty()) {
+			throw new SQLException("获取表["+sourceTable+"]的字段信息失败");
+		}
+		columnList.sort((a, b)->Integer.compare(a.getOrdinalPosition(), b.getOrdinalPosition()));
+		return columnList;
+	}
+
+	/**
+	 * 判断字段是否为整数类型(DECIMAL/NUMERIC需要没有小数位)
+	 */
+	private static boolean isIntegerColumn(List<ColumnPojo> columnList, String name) {
+		for (ColumnPojo column : columnList) {
+			if(!column.getName().equalsIgnoreCase(name) || column.getSqlType() == null) {
+				continue;
+			}
+			switch(column.getSqlType()) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					return true;
+				case Types.DECIMAL:
+				case Types.NUMERIC:
+					return column.getDecimalDigits() != null && column.getDecimalDigits() == 0;
+				default:
+					return false;
+			}
+		}
+		return false;
+	}
+
+	private String insertSql(List<String> columns) {
+		StringBuilder sb = new StringBuilder()
+				.append("INSERT INTO ").append(targetTable)
+				.append(" (").append(String.join(",", columns)).append(") VALUES (");
+		for (int i = 0; i < columns.size(); i++) {
+			if(i > 0) {
+				sb.append(',');
+			}
+			sb.append('?');
+		}
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * 读取断点文件
+	 * @return 没有断点文件时返回空的Properties
+	 */
+	private Properties loadCheckpoint() throws IOException {
+		Properties props = new Properties();
+		if(checkpointFile != null && checkpointFile.isFile()) {
+			try(InputStream in = new FileInputStream(checkpointFile)) {
+				props.load(in);
+			}
+		}
+		return props;
+	}
+
+	/**
+	 * 删除上次(分区方案不同)复制写入目标表的数据
+	 * <p>
+	 * 	上次的每个分区都可能已经写入(部分)数据,按断点文件中记录的主键和主键范围逐个删除(与当前的主键无关);
+	 * 	断点文件中没有主键或主键范围时无法确定上次写入了哪些数据,抛出异常而不是清空目标表(可能有复制前就存在的数据)
+	 * </p>
+	 * @param lastPlan 断点文件中记录的分区方案
+	 * @param lastKeyColumn 断点文件中记录的主键
+	 * @throws SQLException 无法确定上次的主键范围或删除失败
+	 */
+	private void clearLastCopy(String lastPlan, String lastKeyColumn) throws SQLException {
+		List<Object[]> rangeList = new ArrayList<>();
+		Matcher m = P_PARTITION_KEY.matcher(lastPlan);
+		while(m.find()) {
+			rangeList.add(new Object[]{Long.parseLong(m.group(1)), Long.parseLong(m.group(2))});
+		}
+		if(lastKeyColumn == null || rangeList.isEmpty()) {
+			throw new SQLException("无法从断点文件["+checkpointFile.getPath()+"]确定上次复制的主键范围,请手动清理目标表["+targetTable+"]中上次复制的数据并删除断点文件");
+		}
+		for (Object[] range : rangeList) {
+			target.updateWithException("DELETE FROM "+targetTable+" WHERE "+lastKeyColumn+" >= ? AND "+lastKeyColumn+" <= ?", range);
+		}
+	}
+
+	private String planSignature(List<Partition> partitionList) {
+		StringBuilder sb = new StringBuilder(sourceTable).append("->").append(targetTable);
+		for (Partition p : partitionList) {
+			sb.append(';').append(p.key());
+		}
+		return sb.toString();
+	}
+
+	private void saveCheckpoint(Properties props) throws IOException {
+		if(checkpointFile == null) {
+			return;
+		}
+		File tmp = new File(checkpointFile.getPath()+".tmp");
+		try(OutputStream out = new FileOutputStream(tmp)) {
+			props.store(out, "table copy checkpoint");
+		}
+		if(checkpointFile.exists() && !checkpointFile.delete()) {
+			throw new IOException("无法覆盖断点文件["+checkpointFile.getPath()+"]");
+		}
+		if(!tmp.renameTo(checkpointFile)) {
+			throw new IOException("无法写入断点文件["+checkpointFile.getPath()+"]");
+		}
+	}
+
+	private void deleteCheckpoint() {
+		if(checkpointFile != null && checkpointFile.exists()) {
+			checkpointFile.delete();
+		}
+	}
+
+	private static Object[] toArray(Map<String, Object> row, List<String> columns) {
+		Object[] values = new Object[columns.size()];
+		for (int i = 0; i < values.length; i++) {
+			String column = columns.get(i);
+			Object value = row.get(column);
+			if(value == null && !row.containsKey(column)) {	//字段别名大小写与字段名不一致(如oracle)
+				for (Map.Entry<String, Object> entry : row.entrySet()) {
+					if(entry.getKey().equalsIgnoreCase(column)) {
+						value = entry.getValue();
+						break;
+					}
+				}
+			}
+			values[i] = value;
+		}
+		return values;
+	}
+
+	private static Long toLong(Map<String, Object> map, String key) {
+		Object value = null;
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			if(entry.getKey().equalsIgnoreCase(key)) {
+				value = entry.getValue();
+			}
+		}
+		if(value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return null;
+	}
+
+	/**
+	 * 主键范围[lo, hi]
+	 */
+	private static class Partition {
+		final int index;
+		final String keyColumn;	//为null表示全表
+		final long lo;
+		final long hi;
+
+		Partition(int index, String keyColumn, long lo, long hi) {
+			this.index = index;
+			this.keyColumn = keyColumn;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		String key() {
+			return "partition."+index+"."+lo+"-"+hi;
+		}
+
+		String where() {
+			return keyColumn+" >= ? AND "+keyColumn+" <= ?";
+		}
+
+		Object[] params() {
+			return keyColumn == null ? null : new Object[]{lo, hi};
+		}
+	}
+
+	private static class Chunk {
+		final Partition partition;
+		final List<Object[]> rows;
+		final boolean end;	//分区读取完毕的标记
+
+		Chunk(Partition partition, List<Object[]> rows, boolean end) {
+			this.partition = partition;
+			this.rows = rows;
+			this.end = end;
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package com.ag777.util.db.cache;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 查询结果缓存(LRU+过期时间)
+ * <p>
+ * 	以sql+参数为键缓存查询结果,按权重(结果行数)限制容量,超出时移除最久未使用的结果。
+ * 	缓存时从sql中解析出涉及的表(from/join之后的表名),执行insert/update/delete/ddl等语句时按表清除对应的缓存,
+ * 	无法解析出表名的修改语句会清空整个缓存。
+ * 	同一个实例可以设置给多个DbHelper(连接同一个数据库)共享
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月27日,last modify at 2018年06月13日
+ */
+public class QueryResultCache {
+
+	//表名(可以带schema前缀和引号)
+	private static final String TABLE = "(?:[`\"\\[]?[\\w$]+[`\"\\]]?\\.)*[`\"\\[]?[\\w$]+[`\"\\]]?";
+	//查询语句中的表名(from a x, b y / join c)
+	private static final Pattern P_QUERY_TABLE = Pattern.compile(
+			"\\b(?:FROM|JOIN)\\s+("+TABLE+"(?:\\s+(?:AS\\s+)?\\w+)?(?:\\s*,\\s*"+TABLE+"(?:\\s+(?:AS\\s+)?\\w+)?)*)",
+			Pattern.CASE_INSENSITIVE);
+	//修改语句中的表名
+	private static final Pattern P_UPDATE_TABLE = Pattern.compile(
+			"^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?INTO|REPLACE\\s+INTO|MERGE\\s+INTO|UPDATE|DELETE\\s+FROM|DELETE|TRUNCATE\\s+TABLE|TRUNCATE|ALTER\\s+TABLE|DROP\\s+TABLE\\s+IF\\s+EXISTS|DROP\\s+TABLE|RENAME\\s+TABLE)\\s+("+TABLE+")",
+			Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * 缓存未命中时加载数据
+	 */
+	public interface Loader<T> {
+		/**
+		 * @return 返回null则不缓存
+		 * @throws SQLException
+		 */
+		T load() throws SQLException;
+	}
+
+	/**
+	 * 计算结果的权重
+	 */
+	public interface Weigher {
+		int weigh(Object value);
+	}
+
+	private final long maxWeight;
+	private final long ttl;
+	private final Weigher weigher;
+	private final LinkedHashMap<Key, Entry> cacheMap;
+	private final Map<String, Set<Key>> tableKeyMap;	//表名->缓存键
+	private long weight;
+	private long version;	//每次清除缓存时递增,用于丢弃加载期间被清除的结果
+	private final AtomicLong hitCount;
+	private final AtomicLong missCount;
+	private final AtomicLong evictionCount;
+	private final AtomicLong invalidationCount;
+
+	/**
+	 * @param maxWeight 最大权重,默认权重为结果的行数(集合大小),非集合结果权重为1
+	 * @param ttl 过期时间(毫秒),小于等于0永不过期
+	 */
+	public QueryResultCache(long maxWeight, long ttl) {
+		this(maxWeight, ttl, null);
+	}
+
+	/**
+	 * @param maxWeight 最大权重
+	 * @param ttl 过期时间(毫秒),小于等于0永不过期
+	 * @param weigher 为null时使用默认权重计算(集合大小,非集合为1)
+	 */
+	public QueryResultCache(long maxWeight, long ttl, Weigher weigher) {
+		this.maxWeight = maxWeight;
+		this.ttl = ttl;
+		this.weigher = weigher != null ? weigher : QueryResultCache::defaultWeight;
+		cacheMap = new LinkedHashMap<>(16, 0.75f, true);
+		tableKeyMap = new HashMap<>();
+		hitCount = new AtomicLong(0);
+		missCount = new AtomicLong(0);
+		evictionCount = new AtomicLong(0);
+		invalidationCount = new AtomicLong(0);
+	}
+
+	/**
+	 * 获取缓存的结果,未命中或者过期时通过loader加载并缓存
+	 * <p>
+	 * 	加载过程不加锁,同一条sql并发未命中时可能会重复查询
+	 * </p>
+	 * @param sql
+	 * @param params
+	 * @param loader
+	 * @return
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T>T get(String sql, Object[] params, Loader<T> loader) throws SQLException {
+		Key key = new Key(sql, params);
+		long loadVersion;
+		synchronized (this) {
+			Entry entry = cacheMap.get(key);
+			if(entry != null) {
+				if(!isExpired(entry)) {
+					hitCount.incrementAndGet();
+					return (T) entry.value;
+				}
+				remove(key);
+			}
+			missCount.incrementAndGet();
+			loadVersion = version;
+		}
+		T value = loader.load();
+		if(value != null) {
+			put(key, sql, value, loadVersion);
+		}
+		return value;
+	}
+
+	/**
+	 * 根据修改语句清除相关表的缓存,无法解析出表名时清空所有缓存
+	 * @param sql insert/update/delete/ddl等语句
+	 */
+	public void invalidateBySql(String sql) {
+		String table = getUpdateTable(sql);
+		if(table == null) {
+			invalidateAll();
+		} else {
+			invalidateTable(table);
+		}
+	}
+
+	/**
+	 * 清除涉及某张表的所有缓存
+	 * @param tableName
+	 */
+	public synchronized void invalidateTable(String tableName) {
+		version++;
+		Set<Key> keySet = tableKeyMap.remove(normalizeTable(tableName));
+		if(keySet == null) {
+			return;
+		}
+		for (Key key : keySet.toArray(new Key[keySet.size()])) {
+			if(remove(key)) {
+				invalidationCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public synchronized void invalidateAll() {
+		version++;
+		invalidationCount.addAndGet(cacheMap.size());
+		cacheMap.clear();
+		tableKeyMap.clear();
+		weight = 0;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	public synchronized int size() {
+		return cacheMap.size();
+	}
+
+	public synchronized long weight() {
+		return weight;
+	}
+
+	public long hitCount() {
+		return hitCount.get();
+	}
+
+	public long missCount() {
+		return missCount.get();
+	}
+
+	public long evictionCount() {
+		return evictionCount.get();
+	}
+
+	public long invalidationCount() {
+		return invalidationCount.get();
+	}
+
+	/**
+	 * 命中率,未使用过返回0
+	 * @return
+	 */
+	public double hitRate() {
+		long hit = hitCount.get();
+		long total = hit + missCount.get();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	/**
+	 * 获取统计信息
+	 * @return
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("size", size());
+		map.put("weight", weight());
+		map.put("maxWeight", maxWeight);
+		map.put("hit", hitCount());
+		map.put("miss", missCount());
+		map.put("eviction", evictionCount());
+		map.put("invalidation", invalidationCount());
+		map.put("hitRate", hitRate());
+		return map;
+	}
+
+	/*==================工具方法========================*/
+	/**
+	 * 解析查询语句涉及的表名(小写,去掉引号和schema前缀)
+	 * @param sql
+	 * @return
+	 */
+	public static Set<String> getQueryTables(String sql) {
+		Set<String> set = new HashSet<>();
+		Matcher m = P_QUERY_TABLE.matcher(sql);
+		while(m.find()) {
+			for (String part : m.group(1).split(",")) {
+				set.add(normalizeTable(part.trim().split("\\s+")[0]));	//去掉别名
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * 解析修改语句涉及的表名(小写,去掉引号和schema前缀)
+	 * @param sql
+	 * @return 无法解析时返回null
+	 */
+	public static String getUpdateTable(String sql) {
+		if(sql == null) {
+			return null;
+		}
+		Matcher m = P_UPDATE_TABLE.matcher(sql);
+		if(m.find()) {
+			return normalizeTable(m.group(1));
+		}
+		return null;
+	}
+
+	private synchronized void put(Key key, String sql, Object value, long loadVersion) {
+		if(loadVersion != version) {	//加载期间表被修改过,结果可能已经过时
+			return;
+		}
+		int w = Math.max(1, weigher.weigh(value));
+		if(w > maxWeight) {
+			return;
+		}
+		remove(key);
+		Set<String> tables = getQueryTables(sql);
+		cacheMap.put(key, new Entry(value, w, tables));
+		weight += w;
+		for (String table : tables) {
+			tableKeyMap.computeIfAbsent(table, k->new HashSet<>()).add(key);
+		}
+		Iterator<Map.Entry<Key, Entry>> itor = cacheMap.entrySet().iterator();
+		while(weight > maxWeight && itor.hasNext()) {
+			Map.Entry<Key, Entry> eldest = itor.next();
+			itor.remove();
+			unlink(eldest.getKey(), eldest.getValue());
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	private boolean remove(Key key) {
+		Entry entry = cacheMap.remove(key);
+		if(entry == null) {
+			return false;
+		}
+		unlink(key, entry);
+		return true;
+	}
+
+	private void unlink(Key key, Entry entry) {
+		weight -= entry.weight;
+		for (String table : entry.tables) {
+			Set<Key> keySet = tableKeyMap.get(table);
+			if(keySet != null) {
+				keySet.remove(key);
+				if(keySet.isEmpty()) {
+					tableKeyMap.remove(table);
+				}
+			}
+		}
+	}
+
+	private boolean isExpired(Entry entry) {
+		return ttl > 0 && System.currentTimeMillis() - entry.time > ttl;
+	}
+
+	private static String normalizeTable(String table) {
+		table = table.trim().replaceAll("[`\"\\[\\]]", "").toLowerCase();
+		int index = table.lastIndexOf('.');
+		return index == -1 ? table : table.substring(index+1);
+	}
+
+	private static int defaultWeight(Object value) {
+		if(value instanceof Collection) {
+			return ((Collection<?>) value).size();
+		}
+		return 1;
+	}
+
+	/**
+	 * 缓存键(sql+参数值+参数类型)
+	 * <p>
+	 * 	参数按值比较(数组按内容),类型不同的参数(如1和1L,"1"和1)视为不同的键
+	 * </p>
+	 */
+	private static final class Key {
+		final String sql;
+		final Object[] params;
+		final Class<?>[] types;
+		final int hash;
+
+		Key(String sql, Object[] params) {
+			this.sql = sql;
+			if(params == null || params.length == 0) {
+				this.params = new Object[0];
+				this.types = new Class<?>[0];
+			} else {
+				this.params = params.clone();	//调用方之后修改参数数组不影响缓存
+				this.types = new Class<?>[params.length];
+				for (int i = 0; i < params.length; i++) {
+					types[i] = params[i] == null ? null : params[i].getClass();
+				}
+			}
+			hash = 31 * (31 * sql.hashCode() + Arrays.deepHashCode(this.params)) + Arrays.hashCode(types);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && sql.equals(other.sql)
+					&& Arrays.equals(types, other.types) && Arrays.deepEquals(params, other.params);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static class Entry {
+		final Object value;
+		final int weight;
+		final Set<String> tables;
+		final long time;
+
+		Entry(Object value, int weight, Set<String> tables) {
+			this.value = value;
+			this.weight = weight;
+			this.tables = tables;
+			time = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.ag777.util.db.cache;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 数据库结构信息缓存
+ * <p>
+ * 	按数据库连接url区分,缓存表名列表/字段信息/主键/索引等元数据,
+ * 	可以设置过期时间,执行ddl、重命名表、升级数据库版本后需要(DbHelper/DBUpdateHelper会自动)调用invalidate清除缓存,
+ * 	只涉及一张表的ddl(建表/改表/删表)只清除该表相关的缓存
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月25日,last modify at 2018年06月13日
+ */
+public class SchemaCache {
+
+	private static final Map<String, SchemaCache> CACHE_MAP = new ConcurrentHashMap<>();
+
+	public static final String KEY_TABLES = "tables";
+	public static final String KEY_COLUMNS = "columns:";
+	public static final String KEY_PRIMARY_KEYS = "pk:";
+	public static final String KEY_INDEXES = "dbi:";
+	public static final String KEY_EXISTS = "exists:";
+
+	/**
+	 * 缓存未命中时加载数据
+	 */
+	public interface Loader<T> {
+		/**
+		 * @return 返回null则不缓存
+		 * @throws SQLException
+		 */
+		T load() throws SQLException;
+	}
+
+	private final String url;
+	private final Map<String, Entry> entryMap;
+	private volatile long ttl;	//过期时间(毫秒),小于等于0永不过期
+
+	private SchemaCache(String url, long ttl) {
+		this.url = url;
+		this.ttl = ttl;
+		entryMap = new ConcurrentHashMap<>();
+	}
+
+	/*==================静态方法========================*/
+	/**
+	 * 获取(不存在则创建)url对应的缓存
+	 * @param url
+	 * @param ttl 过期时间(毫秒),小于等于0永不过期,每次调用都会更新
+	 * @return
+	 */
+	public static SchemaCache get(String url, long ttl) {
+		SchemaCache cache = CACHE_MAP.computeIfAbsent(url, k->new SchemaCache(k, ttl));
+		cache.ttl = ttl;
+		return cache;
+	}
+
+	/**
+	 * 清除url对应的所有缓存
+	 * @param url
+	 */
+	public static void invalidate(String url) {
+		if(url == null) {
+			return;
+		}
+		SchemaCache cache = CACHE_MAP.get(url);
+		if(cache != null) {
+			cache.invalidateAll();
+		}
+	}
+
+	/**
+	 * 清除url对应的数据库中某张表相关的缓存(单表ddl后调用)
+	 * @param url
+	 * @param tableName
+	 */
+	public static void invalidateTable(String url, String tableName) {
+		if(url == null) {
+			return;
+		}
+		SchemaCache cache = CACHE_MAP.get(url);
+		if(cache != null) {
+			cache.invalidateTable(tableName);
+		}
+	}
+
+	/**
+	 * 清除所有数据库的缓存
+	 */
+	public static void invalidateAllUrl() {
+		CACHE_MAP.clear();
+	}
+
+	/*==================实例方法========================*/
+	/**
+	 * 获取缓存,未命中或者过期时通过loader加载
+	 * @param key
+	 * @param loader
+	 * @return
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T>T get(String key, Loader<T> loader) throws SQLException {
+		Entry entry = entryMap.get(key);
+		if(entry != null && !isExpired(entry)) {
+			return (T) entry.value;
+		}
+		T value = loader.load();
+		if(value != null) {
+			put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * 直接放入缓存(用于一次性加载整个数据库结构)
+	 * @param key
+	 * @param value
+	 */
+	public void put(String key, Object value) {
+		entryMap.put(key, new Entry(value));
+	}
+
+	/**
+	 * 清除某张表相关的缓存(同时清除表名列表)
+	 * @param tableName
+	 */
+	public void invalidateTable(String tableName) {
+		entryMap.remove(KEY_TABLES);
+		Iterator<String> itor = entryMap.keySet().iterator();
+		while(itor.hasNext()) {
+			String key = itor.next();
+			int index = key.indexOf(':');
+			if(index != -1 && key.substring(index+1).equalsIgnoreCase(tableName)) {
+				itor.remove();
+			}
+		}
+	}
+
+	/**
+	 * 清除所有缓存
+	 */
+	public void invalidateAll() {
+		entryMap.clear();
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	public int size() {
+		return entryMap.size();
+	}
+
+	private boolean isExpired(Entry entry) {
+		return ttl > 0 && System.currentTimeMillis() - entry.time > ttl;
+	}
+
+	private static class Entry {
+		final Object value;
+		final long time;
+
+		Entry(Object value) {
+			this.value = value;
+			time = System.currentTimeMillis();
+		}
+	}
+}
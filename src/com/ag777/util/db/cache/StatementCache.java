@@ -0,0 +1,168 @@
+package com.ag777.util.db.cache;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PreparedStatement缓存(LRU)
+ * <p>
+ * 	每个数据库连接独享一个,以sql+autoGeneratedKeys为键,
+ * 	超出容量时关闭并移除最久未使用的PreparedStatement,清空时关闭所有缓存的PreparedStatement
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月18日,last modify at 2018年05月18日
+ */
+public class StatementCache {
+
+	public static final int NO_GENERATED_KEYS = -1;
+
+	private final int maxSize;
+	private final LinkedHashMap<String, PreparedStatement> cacheMap;
+	private final Set<PreparedStatement> statementSet;	//按引用判断某个statement是否被缓存
+	private final AtomicLong hitCount;
+	private final AtomicLong missCount;
+	private final AtomicLong evictionCount;
+
+	public StatementCache(int maxSize) {
+		this.maxSize = maxSize;
+		cacheMap = new LinkedHashMap<>(16, 0.75f, true);
+		statementSet = Collections.newSetFromMap(new IdentityHashMap<>());
+		hitCount = new AtomicLong(0);
+		missCount = new AtomicLong(0);
+		evictionCount = new AtomicLong(0);
+	}
+
+	/**
+	 * 获取缓存的PreparedStatement,已被关闭的视为未命中
+	 * @param sql
+	 * @param autoGeneratedKeys 不需要返回主键时传NO_GENERATED_KEYS
+	 * @return 未命中返回null
+	 */
+	public synchronized PreparedStatement get(String sql, int autoGeneratedKeys) {
+		String key = getKey(sql, autoGeneratedKeys);
+		PreparedStatement ps = cacheMap.get(key);
+		if(ps != null) {
+			try {
+				if(!ps.isClosed()) {
+					hitCount.incrementAndGet();
+					return ps;
+				}
+			} catch (SQLException e) {
+			}
+			cacheMap.remove(key);
+			statementSet.remove(ps);
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * 放入缓存,超出容量时关闭最久未使用的PreparedStatement
+	 * @param sql
+	 * @param autoGeneratedKeys
+	 * @param ps
+	 */
+	public synchronized void put(String sql, int autoGeneratedKeys, PreparedStatement ps) {
+		PreparedStatement old = cacheMap.put(getKey(sql, autoGeneratedKeys), ps);
+		statementSet.add(ps);
+		if(old != null && old != ps) {
+			statementSet.remove(old);
+			closeQuietly(old);
+		}
+		Iterator<PreparedStatement> itor = cacheMap.values().iterator();
+		while(cacheMap.size() > maxSize && itor.hasNext()) {
+			PreparedStatement eldest = itor.next();
+			itor.remove();
+			statementSet.remove(eldest);
+			closeQuietly(eldest);
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 判断该PreparedStatement是否由缓存管理(由缓存管理的不能由调用方关闭)
+	 * @param stmt
+	 * @return
+	 */
+	public synchronized boolean contains(Object stmt) {
+		return statementSet.contains(stmt);
+	}
+
+	/**
+	 * 关闭并清空所有缓存的PreparedStatement
+	 */
+	public synchronized void clear() {
+		List<PreparedStatement> list = new ArrayList<>(cacheMap.values());
+		cacheMap.clear();
+		statementSet.clear();
+		for (PreparedStatement ps : list) {
+			closeQuietly(ps);
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized int size() {
+		return cacheMap.size();
+	}
+
+	public long hitCount() {
+		return hitCount.get();
+	}
+
+	public long missCount() {
+		return missCount.get();
+	}
+
+	public long evictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * 命中率,未使用过返回0
+	 * @return
+	 */
+	public double hitRate() {
+		long hit = hitCount.get();
+		long total = hit + missCount.get();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	/**
+	 * 获取统计信息
+	 * @return
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("size", size());
+		map.put("maxSize", maxSize);
+		map.put("hit", hitCount());
+		map.put("miss", missCount());
+		map.put("eviction", evictionCount());
+		map.put("hitRate", hitRate());
+		return map;
+	}
+
+	private static String getKey(String sql, int autoGeneratedKeys) {
+		return autoGeneratedKeys + ":" + sql;
+	}
+
+	private static void closeQuietly(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package com.ag777.util.db.connection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ag777.util.db.DbHelper;
+import com.ag777.util.db.monitor.SqlMonitor;
+import com.ag777.util.db.model.DbDriver;
+import com.ag777.util.db.model.DbPoolConfig;
+
+/**
+ * 数据库连接池
+ * <p>
+ * 	按url+用户名区分连接池,连接数由信号量限制,空闲连接存放在无锁双端队列中(后进先出,优先复用最近使用的连接)。
+ * 	借出前通过DbHelper.test(Connection, int)校验连接,超过最长存活时间或空闲时间的连接会被关闭,
+ * 	后台线程定时回收空闲连接。
+ * 	配合DbHelper.setModePool(true)使用时,DbHelper.dispose()会把连接归还到连接池而不是关闭
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月17日,last modify at 2018年05月29日
+ */
+public class DbConnectionPool {
+
+	private static final Map<String, DbConnectionPool> POOL_MAP = new ConcurrentHashMap<>();	//key为url+用户名
+	private static final Map<Connection, DbConnectionPool> OWNER_MAP = new ConcurrentHashMap<>();	//借出的连接->所属连接池
+	private static volatile ScheduledExecutorService evictor;
+
+	/**
+	 * 创建物理连接的接口
+	 */
+	public interface ConnectionFactory {
+		Connection create() throws ClassNotFoundException, SQLException;
+	}
+
+	private final String key;
+	private final ConnectionFactory factory;
+	private final DbPoolConfig config;
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<PooledEntry> idleQueue;
+	private final Map<Connection, PooledEntry> borrowedMap;
+	private final AtomicLong createdCount;
+	private final AtomicLong borrowWaitNanos;	//累计获取连接等待时间
+	private volatile boolean closed;
+	private ScheduledFuture<?> evictTask;
+
+	public DbConnectionPool(String key, ConnectionFactory factory, DbPoolConfig config) {
+		this.key = key;
+		this.factory = factory;
+		this.config = config == null ? new DbPoolConfig() : config.clone();
+		permits = new Semaphore(Math.max(this.config.getMaxSize(), 1));
+		idleQueue = new ConcurrentLinkedDeque<>();
+		borrowedMap = new ConcurrentHashMap<>();
+		createdCount = new AtomicLong(0);
+		borrowWaitNanos = new AtomicLong(0);
+		closed = false;
+		long interval = this.config.getEvictionInterval();
+		if(interval > 0) {
+			evictTask = evictor().scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/*==================静态方法========================*/
+	/**
+	 * 获取(不存在则创建)url+用户名对应的连接池
+	 * @param url
+	 * @param user
+	 * @param password
+	 * @param driver
+	 * @param props
+	 * @param config 连接池已存在时忽略该参数
+	 * @return
+	 */
+	public static DbConnectionPool get(String url, String user, String password, DbDriver driver, Properties props, DbPoolConfig config) {
+		String key = getKey(url, user);
+		DbConnectionPool pool = POOL_MAP.get(key);
+		if(pool == null || pool.closed) {
+			synchronized (POOL_MAP) {
+				pool = POOL_MAP.get(key);
+				if(pool == null || pool.closed) {
+					Properties copy = new Properties();
+					if(props != null) {
+						copy.putAll(props);
+					}
+					pool = new DbConnectionPool(key, ()->DbHelper.createConnection(url, user, password, driver, copy), config);
+					POOL_MAP.put(key, pool);
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * 根据url和用户名查找已存在的连接池
+	 * @param url
+	 * @param user
+	 * @return 不存在返回null
+	 */
+	public static DbConnectionPool find(String url, String user) {
+		return POOL_MAP.get(getKey(url, user));
+	}
+
+	/**
+	 * 将连接归还到所属的连接池
+	 * @param conn
+	 * @return 连接不是从连接池借出的则返回false,需要调用方自行关闭
+	 */
+	public static boolean release(Connection conn) {
+		if(conn == null) {
+			return false;
+		}
+		DbConnectionPool pool = OWNER_MAP.remove(conn);
+		if(pool == null) {
+			return false;
+		}
+		pool.giveBack(conn);
+		return true;
+	}
+
+	/**
+	 * 判断连接是否是从连接池借出的
+	 * @param conn
+	 * @return
+	 */
+	public static boolean isPooled(Connection conn) {
+		return conn != null && OWNER_MAP.containsKey(conn);
+	}
+
+	/**
+	 * 关闭所有连接池
+	 */
+	public static void closeAll() {
+		synchronized (POOL_MAP) {
+			for (DbConnectionPool pool : POOL_MAP.values()) {
+				pool.close();
+			}
+			POOL_MAP.clear();
+		}
+	}
+
+	private static String getKey(String url, String user) {
+		return url + '|' + (user == null ? "" : user);
+	}
+
+	private static ScheduledExecutorService evictor() {
+		if(evictor == null) {
+			synchronized (DbConnectionPool.class) {
+				if(evictor == null) {
+					evictor = Executors.newSingleThreadScheduledExecutor(r->{
+						Thread t = new Thread(r, "db-pool-evictor");
+						t.setDaemon(true);
+						return t;
+					});
+				}
+			}
+		}
+		return evictor;
+	}
+
+	/*==================实例方法========================*/
+	/**
+	 * 从连接池借出连接
+	 * <p>
+	 * 	连接数达到上限时等待,超过borrowTimeout抛出SQLException
+	 * </p>
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public Connection borrow() throws ClassNotFoundException, SQLException {
+		if(closed) {
+			throw new SQLException("连接池["+key+"]已关闭");
+		}
+		long start = System.nanoTime();
+		acquirePermit();
+		long waitNanos = System.nanoTime() - start;
+		borrowWaitNanos.addAndGet(waitNanos);
+		SqlMonitor monitor = DbHelper.getSqlMonitor();
+		if(monitor != null) {
+			monitor.recordPoolWait(key, waitNanos);
+		}
+		try {
+			PooledEntry entry;
+			while((entry = idleQueue.pollFirst()) != null) {
+				long now = System.currentTimeMillis();
+				if(isExpired(entry, now) || isIdleTooLong(entry, now)) {
+					closeQuietly(entry.conn);
+					continue;
+				}
+				if(config.isTestOnBorrow() && !DbHelper.test(entry.conn, config.getValidationTimeout())) {
+					closeQuietly(entry.conn);
+					continue;
+				}
+				return lend(entry);
+			}
+			Connection conn = factory.create();
+			createdCount.incrementAndGet();
+			return lend(new PooledEntry(conn));
+		} catch(ClassNotFoundException | SQLException | RuntimeException ex) {
+			permits.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * 回收空闲时间过长或者超过最长存活时间的连接
+	 */
+	public void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<PooledEntry> itor = idleQueue.iterator();
+		while(itor.hasNext()) {
+			PooledEntry entry = itor.next();
+			if((isExpired(entry, now) || isIdleTooLong(entry, now)) && idleQueue.removeFirstOccurrence(entry)) {
+				closeQuietly(entry.conn);
+			}
+		}
+	}
+
+	/**
+	 * 关闭连接池,空闲连接立即关闭,借出的连接在归还时关闭
+	 */
+	public void close() {
+		closed = true;
+		if(evictTask != null) {
+			evictTask.cancel(false);
+		}
+		PooledEntry entry;
+		while((entry = idleQueue.pollFirst()) != null) {
+			closeQuietly(entry.conn);
+		}
+		POOL_MAP.remove(key, this);
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public DbPoolConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return 借出中的连接数
+	 */
+	public int activeCount() {
+		return borrowedMap.size();
+	}
+
+	/**
+	 * @return 空闲连接数
+	 */
+	public int idleCount() {
+		return idleQueue.size();
+	}
+
+	/**
+	 * @return 累计创建的物理连接数
+	 */
+	public long createdCount() {
+		return createdCount.get();
+	}
+
+	/**
+	 * @return 累计获取连接等待时间(纳秒)
+	 */
+	public long borrowWaitNanos() {
+		return borrowWaitNanos.get();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/*==================内部方法========================*/
+	private void acquirePermit() throws SQLException {
+		try {
+			long timeout = config.getBorrowTimeout();
+			if(timeout <= 0) {
+				permits.acquire();
+			} else if(!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("获取数据库连接超时["+key+"],等待"+timeout+"毫秒");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("获取数据库连接被中断["+key+"]", e);
+		}
+	}
+
+	private Connection lend(PooledEntry entry) {
+		borrowedMap.put(entry.conn, entry);
+		OWNER_MAP.put(entry.conn, this);
+		return entry.conn;
+	}
+
+	private void giveBack(Connection conn) {
+		PooledEntry entry = borrowedMap.remove(conn);
+		try {
+			if(entry == null) {
+				closeQuietly(conn);
+				return;
+			}
+			if(closed || conn.isClosed() || isExpired(entry, System.currentTimeMillis())) {
+				closeQuietly(conn);
+				return;
+			}
+			if(!conn.getAutoCommit()) {	//未提交的事务直接回滚,以免污染下一个使用者
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+			entry.lastUsedTime = System.currentTimeMillis();
+			idleQueue.offerFirst(entry);
+		} catch(SQLException ex) {
+			closeQuietly(conn);
+		} finally {
+			if(entry != null) {
+				permits.release();
+			}
+		}
+	}
+
+	private boolean isExpired(PooledEntry entry, long now) {
+		return config.getMaxLifetime() > 0 && now - entry.createTime > config.getMaxLifetime();
+	}
+
+	private boolean isIdleTooLong(PooledEntry entry, long now) {
+		return config.getIdleTimeout() > 0 && now - entry.lastUsedTime > config.getIdleTimeout();
+	}
+
+	private static void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+		}
+	}
+
+	private static class PooledEntry {
+		final Connection conn;
+		final long createTime;
+		volatile long lastUsedTime;
+
+		PooledEntry(Connection conn) {
+			this.conn = conn;
+			createTime = System.currentTimeMillis();
+			lastUsedTime = createTime;
+		}
+	}
+}
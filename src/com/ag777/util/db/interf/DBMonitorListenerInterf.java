@@ -0,0 +1,36 @@
+package com.ag777.util.db.interf;
+
+import com.ag777.util.db.monitor.SqlEvent;
+
+/**
+ * sql执行监听接口,用于将执行情况导出到外部监控系统
+ * <p>
+ * 	回调在执行sql的线程中同步调用,实现需要尽量轻量且不能抛出异常
+ * </p>
+ * 
+ * @author ag777
+ * @version create on 2018年05月29日,last modify at 2018年05月29日
+ */
+public interface DBMonitorListenerInterf {
+	
+	/**
+	 * 每条sql(批处理为每一批)执行结束后回调,包括执行失败的情况
+	 * @param event
+	 */
+	public void onExecute(SqlEvent event);
+	
+	/**
+	 * 执行时间超过慢查询阈值时回调(在onExecute之后)
+	 * @param event
+	 */
+	public default void onSlowQuery(SqlEvent event) {
+	}
+	
+	/**
+	 * 从连接池获取连接后回调
+	 * @param poolKey 连接池标识(url+用户名)
+	 * @param waitNanos 等待时间(纳秒)
+	 */
+	public default void onPoolWait(String poolKey, long waitNanos) {
+	}
+}
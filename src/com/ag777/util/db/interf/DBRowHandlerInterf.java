@@ -0,0 +1,20 @@
+package com.ag777.util.db.interf;
+
+import java.util.Map;
+
+/**
+ * 流式查询时逐行处理结果的接口
+ * 
+ * @author ag777
+ * @version create on 2018年05月21日,last modify at 2018年05月21日
+ */
+public interface DBRowHandlerInterf {
+	
+	/**
+	 * @param row 当前行数据,key为字段别名
+	 * @param rowIndex 行号(从0开始)
+	 * @return 返回false则停止读取后续的行
+	 * @throws Exception
+	 */
+	public boolean handle(Map<String, Object> row, long rowIndex) throws Exception;
+}
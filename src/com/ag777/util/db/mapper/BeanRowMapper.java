@@ -0,0 +1,368 @@
+package com.ag777.util.db.mapper;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ag777.util.lang.reflection.ReflectionUtils;
+
+/**
+ * 结果集转javaBean的映射器
+ * <p>
+ * 	按(类,结果集字段别名及类型)缓存,字段到属性的对应关系只解析一次,
+ * 	赋值通过MethodHandle完成(优先使用setXxx方法,没有则直接写属性),
+ * 	读取时按属性类型调用rs.getLong/getInt/getString等方法,基本类型不会装箱
+ * </p>
+ * <p>
+ * 	字段名去掉下划线后与属性名忽略大小写比较,如user_name对应userName
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月22日,last modify at 2018年05月22日
+ */
+public class BeanRowMapper<T> {
+
+	private static final ClassValue<Map<String, BeanRowMapper<?>>> CACHE = new ClassValue<Map<String, BeanRowMapper<?>>>() {
+		@Override
+		protected Map<String, BeanRowMapper<?>> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	private static final MethodType TYPE_CONSTRUCTOR = MethodType.methodType(Object.class);
+
+	/**
+	 * 单个字段的赋值器
+	 */
+	private interface ColumnSetter {
+		void set(Object bean, ResultSet rs) throws Throwable;
+	}
+
+	private final Class<T> clazz;
+	private final MethodHandle constructor;	//为null时通过ReflectionUtils实例化(非静态内部类等)
+	private final ColumnSetter[] setters;		//只包含能对应上属性的字段
+
+	private BeanRowMapper(Class<T> clazz, MethodHandle constructor, ColumnSetter[] setters) {
+		this.clazz = clazz;
+		this.constructor = constructor;
+		this.setters = setters;
+	}
+
+	/**
+	 * 获取(不存在则编译)映射器
+	 * @param clazz
+	 * @param md
+	 * @return
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T>BeanRowMapper<T> get(Class<T> clazz, ResultSetMetaData md) throws SQLException {
+		Map<String, BeanRowMapper<?>> mapperMap = CACHE.get(clazz);
+		String shape = getShape(md);
+		BeanRowMapper<?> mapper = mapperMap.get(shape);
+		if(mapper == null) {
+			mapper = compile(clazz, md);
+			BeanRowMapper<?> old = mapperMap.putIfAbsent(shape, mapper);
+			if(old != null) {
+				mapper = old;
+			}
+		}
+		return (BeanRowMapper<T>) mapper;
+	}
+
+	/**
+	 * 将结果集当前行转为对象
+	 * @param rs
+	 * @return
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	public T mapRow(ResultSet rs) throws SQLException {
+		try {
+			T bean = constructor != null ? (T) constructor.invokeExact() : ReflectionUtils.newInstace(clazz);
+			for (ColumnSetter setter : setters) {
+				setter.set(bean, rs);
+			}
+			return bean;
+		} catch(SQLException ex) {
+			throw ex;
+		} catch(Throwable t) {
+			throw new SQLException("结果转换为["+clazz.getName()+"]失败", t);
+		}
+	}
+
+	/**
+	 * 将结果集剩余的行全部转为对象列表
+	 * @param rs
+	 * @return
+	 * @throws SQLException
+	 */
+	public List<T> mapAll(ResultSet rs) throws SQLException {
+		List<T> list = new ArrayList<T>();
+		while(rs.next()) {
+			list.add(mapRow(rs));
+		}
+		return list;
+	}
+
+	/**
+	 * @return 能对应上属性的字段数
+	 */
+	public int mappedColumnCount() {
+		return setters.length;
+	}
+
+	/**
+	 * 清空某个类的映射器缓存
+	 * @param clazz
+	 */
+	public static void clearCache(Class<?> clazz) {
+		CACHE.remove(clazz);
+	}
+
+	/*==================编译========================*/
+	private static <T>BeanRowMapper<T> compile(Class<T> clazz, ResultSetMetaData md) throws SQLException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Map<String, Field> fieldMap = getFieldMap(clazz);
+		List<ColumnSetter> setterList = new ArrayList<>();
+		int columnCount = md.getColumnCount();
+		try {
+			for (int i = 1; i <= columnCount; i++) {
+				Field field = fieldMap.get(normalize(md.getColumnLabel(i)));
+				if(field == null) {
+					continue;
+				}
+				setterList.add(toColumnSetter(getSetter(lookup, clazz, field), field.getType(), i));
+			}
+		} catch(IllegalAccessException ex) {
+			throw new SQLException("无法访问类["+clazz.getName()+"]的属性", ex);
+		}
+		return new BeanRowMapper<T>(clazz, getConstructor(lookup, clazz), setterList.toArray(new ColumnSetter[setterList.size()]));
+	}
+
+	/**
+	 * 获取类(包括父类)的所有非静态非final属性,key为去掉下划线后的小写属性名,子类属性优先
+	 * @param clazz
+	 * @return
+	 */
+	private static Map<String, Field> getFieldMap(Class<?> clazz) {
+		Map<String, Field> fieldMap = new HashMap<>();
+		for(Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic()) {
+					continue;
+				}
+				fieldMap.putIfAbsent(normalize(field.getName()), field);
+			}
+		}
+		return fieldMap;
+	}
+
+	/**
+	 * 获取属性的赋值方法句柄,优先public的setXxx方法,类型为(Object, 属性类型)void
+	 * @param lookup
+	 * @param clazz
+	 * @param field
+	 * @return
+	 * @throws IllegalAccessException
+	 */
+	private static MethodHandle getSetter(MethodHandles.Lookup lookup, Class<?> clazz, Field field) throws IllegalAccessException {
+		MethodHandle mh = null;
+		String name = field.getName();
+		String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		try {
+			Method method = clazz.getMethod(setterName, field.getType());
+			if(!Modifier.isStatic(method.getModifiers())) {
+				mh = lookup.unreflect(method);
+			}
+		} catch (NoSuchMethodException | SecurityException | IllegalAccessException e) {
+		}
+		if(mh == null) {
+			field.setAccessible(true);
+			mh = lookup.unreflectSetter(field);
+		}
+		return mh.asType(MethodType.methodType(void.class, Object.class, field.getType()));
+	}
+
+	private static MethodHandle getConstructor(MethodHandles.Lookup lookup, Class<?> clazz) {
+		if(clazz.isMemberClass() && !Modifier.isStatic(clazz.getModifiers())) {
+			return null;
+		}
+		try {
+			java.lang.reflect.Constructor<?> c = clazz.getDeclaredConstructor();
+			c.setAccessible(true);
+			return lookup.unreflectConstructor(c).asType(TYPE_CONSTRUCTOR);
+		} catch (NoSuchMethodException | SecurityException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 根据属性类型选择对应的rs.getXxx方法
+	 * @param mh 类型为(Object, type)void
+	 * @param type
+	 * @param i 字段序号(从1开始)
+	 * @return
+	 */
+	private static ColumnSetter toColumnSetter(MethodHandle mh, Class<?> type, int i) {
+		if(type == long.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getLong(i));
+			};
+		} else if(type == int.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getInt(i));
+			};
+		} else if(type == double.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getDouble(i));
+			};
+		} else if(type == float.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getFloat(i));
+			};
+		} else if(type == boolean.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getBoolean(i));
+			};
+		} else if(type == short.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getShort(i));
+			};
+		} else if(type == byte.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getByte(i));
+			};
+		} else if(type == Long.class) {
+			return (bean, rs)->{
+				long value = rs.getLong(i);
+				if(!rs.wasNull()) {
+					mh.invokeExact(bean, Long.valueOf(value));
+				}
+			};
+		} else if(type == Integer.class) {
+			return (bean, rs)->{
+				int value = rs.getInt(i);
+				if(!rs.wasNull()) {
+					mh.invokeExact(bean, Integer.valueOf(value));
+				}
+			};
+		} else if(type == Double.class) {
+			return (bean, rs)->{
+				double value = rs.getDouble(i);
+				if(!rs.wasNull()) {
+					mh.invokeExact(bean, Double.valueOf(value));
+				}
+			};
+		} else if(type == Float.class) {
+			return (bean, rs)->{
+				float value = rs.getFloat(i);
+				if(!rs.wasNull()) {
+					mh.invokeExact(bean, Float.valueOf(value));
+				}
+			};
+		} else if(type == Boolean.class) {
+			return (bean, rs)->{
+				boolean value = rs.getBoolean(i);
+				if(!rs.wasNull()) {
+					mh.invokeExact(bean, Boolean.valueOf(value));
+				}
+			};
+		} else if(type == Short.class) {
+			return (bean, rs)->{
+				short value = rs.getShort(i);
+				if(!rs.wasNull()) {
+					mh.invokeExact(bean, Short.valueOf(value));
+				}
+			};
+		} else if(type == Byte.class) {
+			return (bean, rs)->{
+				byte value = rs.getByte(i);
+				if(!rs.wasNull()) {
+					mh.invokeExact(bean, Byte.valueOf(value));
+				}
+			};
+		} else if(type == String.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getString(i));
+			};
+		} else if(type == BigDecimal.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getBigDecimal(i));
+			};
+		} else if(type == java.sql.Timestamp.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getTimestamp(i));
+			};
+		} else if(type == java.sql.Date.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getDate(i));
+			};
+		} else if(type == java.sql.Time.class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getTime(i));
+			};
+		} else if(type == byte[].class) {
+			return (bean, rs)->{
+				mh.invokeExact(bean, rs.getBytes(i));
+			};
+		}
+		//java.util.Date等其他类型,读取Object后赋值,类型不兼容时抛出异常
+		MethodHandle generic = mh.asType(MethodType.methodType(void.class, Object.class, Object.class));
+		if(type == java.util.Date.class) {
+			return (bean, rs)->{
+				generic.invokeExact(bean, (Object) rs.getTimestamp(i));
+			};
+		}
+		return (bean, rs)->{
+			Object value = rs.getObject(i);
+			if(value != null) {
+				generic.invokeExact(bean, value);
+			}
+		};
+	}
+
+	/**
+	 * 由字段别名及类型构成的结果集形状标识
+	 * @param md
+	 * @return
+	 * @throws SQLException
+	 */
+	private static String getShape(ResultSetMetaData md) throws SQLException {
+		int columnCount = md.getColumnCount();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= columnCount; i++) {
+			sb.append(md.getColumnLabel(i)).append(':').append(md.getColumnType(i)).append(',');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 去掉下划线并转小写,user_name和userName都对应username
+	 * @param name
+	 * @return
+	 */
+	private static String normalize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if(c != '_') {
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+		return sb.toString();
+	}
+}
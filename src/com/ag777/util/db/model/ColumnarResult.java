@@ -0,0 +1,636 @@
+package com.ag777.util.db.model;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按列存储的查询结果
+ * <p>
+ * 	每一列使用一个基本类型数组(int[]/long[]/double[])或者字典编码的字符串列存储,空值记录在位图中,
+ * 	相比convert2List(每行一个HashMap,值全部装箱,每行重复存放列名)占用内存小得多,遍历时也更连续,
+ * 	适合报表统计类的大结果集查询。需要时可以通过toListMap()转换回List&lt;Map&gt;
+ * </p>
+ * <p>
+ * 	类型对应关系:
+ * 	<ul>
+ * 		<li>TINYINT/SMALLINT/INTEGER及精度不超过9的整数DECIMAL -&gt; INT</li>
+ * 		<li>无符号INTEGER、BIGINT及精度不超过18的整数DECIMAL -&gt; LONG</li>
+ * 		<li>REAL/FLOAT/DOUBLE -&gt; DOUBLE</li>
+ * 		<li>CHAR/VARCHAR/LONGVARCHAR及对应的N类型 -&gt; STRING(字典编码)</li>
+ * 		<li>DATE/TIME/TIMESTAMP -&gt; TIMESTAMP(存储毫秒数,纳秒部分会丢失)</li>
+ * 		<li>其他(包括带小数的DECIMAL和无符号BIGINT,避免精度丢失或溢出) -&gt; OBJECT</li>
+ * 	</ul>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月28日,last modify at 2018年06月13日
+ */
+public class ColumnarResult {
+
+	/**
+	 * 列的存储类型
+	 */
+	public enum ColumnType {
+		INT, LONG, DOUBLE, STRING, TIMESTAMP, OBJECT
+	}
+
+	private static final int INIT_CAPACITY = 64;
+
+	private final String[] labels;
+	private final int[] sqlTypes;
+	private final Column[] columns;
+	private final Map<String, Integer> indexMap;
+	private int rowCount;
+
+	private ColumnarResult(String[] labels, int[] sqlTypes, Column[] columns) {
+		this.labels = labels;
+		this.sqlTypes = sqlTypes;
+		this.columns = columns;
+		indexMap = new HashMap<>(labels.length * 4 / 3 + 1);
+		for (int i = 0; i < labels.length; i++) {
+			indexMap.putIfAbsent(labels[i], i);
+		}
+	}
+
+	/**
+	 * 读取结果集剩余的所有行(不会关闭结果集)
+	 * @param rs
+	 * @return
+	 * @throws SQLException
+	 */
+	public static ColumnarResult from(ResultSet rs) throws SQLException {
+		ResultSetMetaData md = rs.getMetaData();
+		int columnCount = md.getColumnCount();
+		String[] labels = new String[columnCount];
+		int[] sqlTypes = new int[columnCount];
+		Column[] columns = new Column[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			labels[i] = md.getColumnLabel(i+1);
+			sqlTypes[i] = md.getColumnType(i+1);
+			columns[i] = newColumn(toColumnType(sqlTypes[i], md.getPrecision(i+1), md.getScale(i+1), md.isSigned(i+1)));
+		}
+		ColumnarResult result = new ColumnarResult(labels, sqlTypes, columns);
+		int row = 0;
+		while(rs.next()) {
+			for (int i = 0; i < columnCount; i++) {
+				columns[i].read(rs, i+1, row);
+			}
+			row++;
+		}
+		result.rowCount = row;
+		for (Column column : columns) {
+			column.trim(row);
+		}
+		return result;
+	}
+
+	/*==================结构信息========================*/
+	public int rowCount() {
+		return rowCount;
+	}
+
+	public int columnCount() {
+		return labels.length;
+	}
+
+	/**
+	 * 获取列名(别名)
+	 * @param column 从0开始
+	 * @return
+	 */
+	public String getLabel(int column) {
+		return labels[column];
+	}
+
+	/**
+	 * 根据列名获取列的下标
+	 * @param label
+	 * @return 不存在返回-1
+	 */
+	public int indexOf(String label) {
+		Integer index = indexMap.get(label);
+		return index == null ? -1 : index;
+	}
+
+	public ColumnType getType(int column) {
+		return columns[column].type;
+	}
+
+	/**
+	 * 获取列原始的sql类型(java.sql.Types)
+	 * @param column
+	 * @return
+	 */
+	public int getSqlType(int column) {
+		return sqlTypes[column];
+	}
+
+	/*==================按行读取========================*/
+	public boolean isNull(int row, int column) {
+		checkRow(row);
+		return columns[column].isNull(row);
+	}
+
+	/**
+	 * 获取int值,为空时返回0(通过isNull判断)
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public int getInt(int row, int column) {
+		checkRow(row);
+		return (int) columns[column].getLong(row);
+	}
+
+	/**
+	 * 获取long值,为空时返回0,TIMESTAMP列返回毫秒数
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public long getLong(int row, int column) {
+		checkRow(row);
+		return columns[column].getLong(row);
+	}
+
+	/**
+	 * 获取double值,为空时返回0
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public double getDouble(int row, int column) {
+		checkRow(row);
+		return columns[column].getDouble(row);
+	}
+
+	public String getString(int row, int column) {
+		Object value = getObject(row, column);
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * 获取装箱后的值,为空时返回null
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public Object getObject(int row, int column) {
+		checkRow(row);
+		Column c = columns[column];
+		if(c.isNull(row)) {
+			return null;
+		}
+		if(c.type == ColumnType.TIMESTAMP) {
+			long time = c.getLong(row);
+			switch(sqlTypes[column]) {
+				case Types.DATE:
+					return new java.sql.Date(time);
+				case Types.TIME:
+					return new Time(time);
+				default:
+					return new Timestamp(time);
+			}
+		}
+		return c.getObject(row);
+	}
+
+	public int getInt(int row, String label) {
+		return getInt(row, requireIndex(label));
+	}
+
+	public long getLong(int row, String label) {
+		return getLong(row, requireIndex(label));
+	}
+
+	public double getDouble(int row, String label) {
+		return getDouble(row, requireIndex(label));
+	}
+
+	public String getString(int row, String label) {
+		return getString(row, requireIndex(label));
+	}
+
+	public Object getObject(int row, String label) {
+		return getObject(row, requireIndex(label));
+	}
+
+	/*==================按列读取========================*/
+	/**
+	 * 获取INT列的数据(内部数组,不要修改),空值位置为0
+	 * @param column
+	 * @return
+	 */
+	public int[] intColumn(int column) {
+		return ((IntColumn) requireType(column, ColumnType.INT)).values;
+	}
+
+	/**
+	 * 获取LONG/TIMESTAMP列的数据(内部数组,不要修改),空值位置为0
+	 * @param column
+	 * @return
+	 */
+	public long[] longColumn(int column) {
+		Column c = columns[column];
+		if(!(c instanceof LongColumn)) {
+			throw new IllegalArgumentException("第"+column+"列的类型为"+c.type+",不是LONG/TIMESTAMP");
+		}
+		return ((LongColumn) c).values;
+	}
+
+	/**
+	 * 获取DOUBLE列的数据(内部数组,不要修改),空值位置为0
+	 * @param column
+	 * @return
+	 */
+	public double[] doubleColumn(int column) {
+		return ((DoubleColumn) requireType(column, ColumnType.DOUBLE)).values;
+	}
+
+	/**
+	 * 获取STRING列的字典编码(内部数组,不要修改),通过getDictionary(column)获取对应的字符串,空值位置为-1
+	 * @param column
+	 * @return
+	 */
+	public int[] stringCodes(int column) {
+		return ((StringColumn) requireType(column, ColumnType.STRING)).codes;
+	}
+
+	/**
+	 * 获取STRING列的字典(下标即编码)
+	 * @param column
+	 * @return
+	 */
+	public List<String> getDictionary(int column) {
+		return ((StringColumn) requireType(column, ColumnType.STRING)).dictionary;
+	}
+
+	/*==================转换========================*/
+	/**
+	 * 转换为List&lt;Map&gt;
+	 * <p>
+	 * 	键与DbHelper.convert2List相同,但值的类型由列的存储类型决定,与驱动getObject()的返回不一定相同,比如:
+	 * 	精度不超过18的整数DECIMAL为Integer/Long而不是BigDecimal,TINYINT(1)为Integer而不是Boolean,
+	 * 	REAL/FLOAT为Double,时间列的纳秒部分已丢失
+	 * </p>
+	 * @return
+	 */
+	public List<Map<String, Object>> toListMap() {
+		List<Map<String, Object>> list = new ArrayList<>(rowCount);
+		for (int row = 0; row < rowCount; row++) {
+			Map<String, Object> map = new HashMap<>(labels.length * 4 / 3 + 1);
+			for (int i = 0; i < labels.length; i++) {
+				map.put(labels[i], getObject(row, i));
+			}
+			list.add(map);
+		}
+		return list;
+	}
+
+	private void checkRow(int row) {
+		if(row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("row:"+row+",rowCount:"+rowCount);
+		}
+	}
+
+	private int requireIndex(String label) {
+		int index = indexOf(label);
+		if(index == -1) {
+			throw new IllegalArgumentException("列不存在:"+label);
+		}
+		return index;
+	}
+
+	private Column requireType(int column, ColumnType type) {
+		Column c = columns[column];
+		if(c.type != type) {
+			throw new IllegalArgumentException("第"+column+"列的类型为"+c.type+",不是"+type);
+		}
+		return c;
+	}
+
+	private static ColumnType toColumnType(int sqlType, int precision, int scale, boolean signed) {
+		switch(sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+				return ColumnType.INT;
+			case Types.INTEGER:
+				return signed ? ColumnType.INT : ColumnType.LONG;	//无符号INTEGER超出int范围
+			case Types.BIGINT:
+				return signed ? ColumnType.LONG : ColumnType.OBJECT;	//无符号BIGINT超出long范围,由驱动返回BigInteger/BigDecimal
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return ColumnType.DOUBLE;
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				if(scale == 0 && precision > 0) {
+					if(precision <= 9) {
+						return ColumnType.INT;
+					} else if(precision <= 18) {
+						return ColumnType.LONG;
+					}
+				}
+				return ColumnType.OBJECT;
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+				return ColumnType.STRING;
+			case Types.DATE:
+			case Types.TIME:
+			case Types.TIMESTAMP:
+				return ColumnType.TIMESTAMP;
+			default:
+				return ColumnType.OBJECT;
+		}
+	}
+
+	private static Column newColumn(ColumnType type) {
+		switch(type) {
+			case INT:
+				return new IntColumn();
+			case LONG:
+			case TIMESTAMP:
+				return new LongColumn(type);
+			case DOUBLE:
+				return new DoubleColumn();
+			case STRING:
+				return new StringColumn();
+			default:
+				return new ObjectColumn();
+		}
+	}
+
+	/*==================列实现========================*/
+	private static abstract class Column {
+		final ColumnType type;
+		long[] nulls = new long[1];	//空值位图
+
+		Column(ColumnType type) {
+			this.type = type;
+		}
+
+		abstract void read(ResultSet rs, int index, int row) throws SQLException;
+		abstract long getLong(int row);
+		abstract double getDouble(int row);
+		abstract Object getObject(int row);
+		abstract void trim(int size);
+
+		void setNull(int row) {
+			int word = row >>> 6;
+			if(word >= nulls.length) {
+				nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, word + 1));
+			}
+			nulls[word] |= 1L << row;
+		}
+
+		boolean isNull(int row) {
+			int word = row >>> 6;
+			return word < nulls.length && (nulls[word] & (1L << row)) != 0;
+		}
+
+		static int grow(int length, int row) {
+			return row < length ? length : Math.max(INIT_CAPACITY, length + (length >> 1));
+		}
+	}
+
+	private static class IntColumn extends Column {
+		int[] values = new int[0];
+
+		IntColumn() {
+			super(ColumnType.INT);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if(row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			values[row] = rs.getInt(index);
+			if(rs.wasNull()) {
+				setNull(row);
+			}
+		}
+
+		@Override
+		long getLong(int row) {
+			return values[row];
+		}
+
+		@Override
+		double getDouble(int row) {
+			return values[row];
+		}
+
+		@Override
+		Object getObject(int row) {
+			return values[row];
+		}
+
+		@Override
+		void trim(int size) {
+			values = Arrays.copyOf(values, size);
+		}
+	}
+
+	private static class LongColumn extends Column {
+		long[] values = new long[0];
+
+		LongColumn(ColumnType type) {
+			super(type);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if(row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			if(type == ColumnType.TIMESTAMP) {
+				Timestamp time = rs.getTimestamp(index);
+				if(time == null) {
+					setNull(row);
+				} else {
+					values[row] = time.getTime();
+				}
+			} else {
+				values[row] = rs.getLong(index);
+				if(rs.wasNull()) {
+					setNull(row);
+				}
+			}
+		}
+
+		@Override
+		long getLong(int row) {
+			return values[row];
+		}
+
+		@Override
+		double getDouble(int row) {
+			return values[row];
+		}
+
+		@Override
+		Object getObject(int row) {
+			return values[row];
+		}
+
+		@Override
+		void trim(int size) {
+			values = Arrays.copyOf(values, size);
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+		double[] values = new double[0];
+
+		DoubleColumn() {
+			super(ColumnType.DOUBLE);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if(row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			values[row] = rs.getDouble(index);
+			if(rs.wasNull()) {
+				setNull(row);
+			}
+		}
+
+		@Override
+		long getLong(int row) {
+			return (long) values[row];
+		}
+
+		@Override
+		double getDouble(int row) {
+			return values[row];
+		}
+
+		@Override
+		Object getObject(int row) {
+			return values[row];
+		}
+
+		@Override
+		void trim(int size) {
+			values = Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * 字典编码的字符串列,重复值只存一份
+	 */
+	private static class StringColumn extends Column {
+		int[] codes = new int[0];
+		final List<String> dictionary = new ArrayList<>();
+		Map<String, Integer> codeMap = new HashMap<>();
+
+		StringColumn() {
+			super(ColumnType.STRING);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if(row >= codes.length) {
+				codes = Arrays.copyOf(codes, grow(codes.length, row));
+			}
+			String value = rs.getString(index);
+			if(value == null) {
+				setNull(row);
+				codes[row] = -1;
+				return;
+			}
+			Integer code = codeMap.get(value);
+			if(code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				codeMap.put(value, code);
+			}
+			codes[row] = code;
+		}
+
+		@Override
+		long getLong(int row) {
+			return isNull(row) ? 0 : Long.parseLong(dictionary.get(codes[row]));
+		}
+
+		@Override
+		double getDouble(int row) {
+			return isNull(row) ? 0 : Double.parseDouble(dictionary.get(codes[row]));
+		}
+
+		@Override
+		Object getObject(int row) {
+			return dictionary.get(codes[row]);
+		}
+
+		@Override
+		void trim(int size) {
+			codes = Arrays.copyOf(codes, size);
+			codeMap = null;	//读取完毕后不再需要反查
+			((ArrayList<String>) dictionary).trimToSize();
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+		Object[] values = new Object[0];
+
+		ObjectColumn() {
+			super(ColumnType.OBJECT);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if(row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			values[row] = rs.getObject(index);
+			if(values[row] == null) {
+				setNull(row);
+			}
+		}
+
+		@Override
+		long getLong(int row) {
+			Object value = values[row];
+			if(value == null) {
+				return 0;
+			}
+			return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+		}
+
+		@Override
+		double getDouble(int row) {
+			Object value = values[row];
+			if(value == null) {
+				return 0;
+			}
+			return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+		}
+
+		@Override
+		Object getObject(int row) {
+			return values[row];
+		}
+
+		@Override
+		void trim(int size) {
+			values = Arrays.copyOf(values, size);
+		}
+	}
+}
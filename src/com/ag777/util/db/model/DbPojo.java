@@ -11,10 +11,12 @@ public class DbPojo {
 	public final static String TYPE_MYSQL ="MySQL";
 	public final static String TYPE_ORACLE ="Oracle";
 	public final static String TYPE_SQLITE = "SQLite";
+	public final static String TYPE_SQLSERVER = "Microsoft SQL Server";
 	
 	public String name; 		//用以获得当前数据库是什么数据库。比如oracle，access等。
 	public String version; 	//获得数据库的版本。
 	public String driverVersion; 	//获得驱动程序的版本。
+	public String url;	//数据库连接url
 	public String getName() {
 		return name;
 	}
@@ -33,5 +35,11 @@ public class DbPojo {
 	public void setDriverVersion(String driverVersion) {
 		this.driverVersion = driverVersion;
 	}
+	public String getUrl() {
+		return url;
+	}
+	public void setUrl(String url) {
+		this.url = url;
+	}
 	
 }
@@ -0,0 +1,83 @@
+package com.ag777.util.db.model;
+
+/**
+ * 数据库连接池配置
+ * <p>
+ * 	所有时间单位均为毫秒,小于等于0表示不限制
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月17日,last modify at 2018年05月17日
+ */
+public class DbPoolConfig implements Cloneable {
+
+	private int maxSize = 10;							//最大连接数(包括借出和空闲的)
+	private long borrowTimeout = 30000;			//获取连接最长等待时间
+	private long idleTimeout = 600000;				//空闲连接最长存活时间,超过则被回收
+	private long maxLifetime = 1800000;				//连接最长存活时间(从创建开始算),超过则在归还时关闭
+	private long evictionInterval = 60000;		//后台回收空闲连接的间隔
+	private int validationTimeout = 3;				//校验连接的超时时间(秒),对应DbHelper.test(int timeoutSeconds)
+	private boolean testOnBorrow = true;			//借出前是否校验连接
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+	public DbPoolConfig setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+	public long getBorrowTimeout() {
+		return borrowTimeout;
+	}
+	public DbPoolConfig setBorrowTimeout(long borrowTimeout) {
+		this.borrowTimeout = borrowTimeout;
+		return this;
+	}
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	public DbPoolConfig setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+	public long getMaxLifetime() {
+		return maxLifetime;
+	}
+	public DbPoolConfig setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+		return this;
+	}
+	public long getEvictionInterval() {
+		return evictionInterval;
+	}
+	public DbPoolConfig setEvictionInterval(long evictionInterval) {
+		this.evictionInterval = evictionInterval;
+		return this;
+	}
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+	public DbPoolConfig setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+		return this;
+	}
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+	public DbPoolConfig setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+		return this;
+	}
+
+	@Override
+	public DbPoolConfig clone() {
+		return new DbPoolConfig()
+				.setMaxSize(maxSize)
+				.setBorrowTimeout(borrowTimeout)
+				.setIdleTimeout(idleTimeout)
+				.setMaxLifetime(maxLifetime)
+				.setEvictionInterval(evictionInterval)
+				.setValidationTimeout(validationTimeout)
+				.setTestOnBorrow(testOnBorrow);
+	}
+}
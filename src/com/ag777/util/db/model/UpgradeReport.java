@@ -0,0 +1,116 @@
+package com.ag777.util.db.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 数据库升级报告,记录每个步骤的耗时
+ *
+ * @author ag777
+ * @version create on 2018年05月30日,last modify at 2018年05月30日
+ */
+public class UpgradeReport {
+
+	private final List<Step> stepList;
+	private String versionFrom;
+	private String versionTo;
+	private long totalMillis;
+
+	public UpgradeReport(String versionFrom) {
+		this.versionFrom = versionFrom;
+		this.versionTo = versionFrom;
+		stepList = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	public void addStep(Step step) {
+		stepList.add(step);
+	}
+
+	/**
+	 * @return 所有步骤(按完成顺序)
+	 */
+	public List<Step> getStepList() {
+		synchronized (stepList) {
+			return new ArrayList<>(stepList);
+		}
+	}
+
+	public String getVersionFrom() {
+		return versionFrom;
+	}
+
+	/**
+	 * @return 最后一个升级成功的版本号
+	 */
+	public String getVersionTo() {
+		return versionTo;
+	}
+
+	public UpgradeReport setVersionTo(String versionTo) {
+		this.versionTo = versionTo;
+		return this;
+	}
+
+	public long getTotalMillis() {
+		return totalMillis;
+	}
+
+	public UpgradeReport setTotalMillis(long totalMillis) {
+		this.totalMillis = totalMillis;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder()
+				.append("数据库版本").append(versionFrom).append("->").append(versionTo)
+				.append(",共用时").append(totalMillis).append("ms");
+		for (Step step : getStepList()) {
+			sb.append("\n\t").append(step);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 升级步骤
+	 */
+	public static class Step {
+		private final String version;
+		private final String name;	//比如ddl[user]/dml
+		private final int sqlCount;
+		private final long elapsedMillis;
+
+		public Step(String version, String name, int sqlCount, long elapsedMillis) {
+			this.version = version;
+			this.name = name;
+			this.sqlCount = sqlCount;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getSqlCount() {
+			return sqlCount;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder()
+					.append('[').append(version).append("]")
+					.append(name).append(",sql数:").append(sqlCount)
+					.append(",用时:").append(elapsedMillis).append("ms")
+					.toString();
+		}
+	}
+}
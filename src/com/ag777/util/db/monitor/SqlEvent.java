@@ -0,0 +1,90 @@
+package com.ag777.util.db.monitor;
+
+import java.sql.SQLException;
+
+/**
+ * 一次sql执行的信息
+ *
+ * @author ag777
+ * @version create on 2018年05月29日,last modify at 2018年05月29日
+ */
+public class SqlEvent {
+
+	/**
+	 * 执行类型
+	 */
+	public enum Type {
+		QUERY, UPDATE, BATCH
+	}
+
+	private final Type type;
+	private final String sql;
+	private final String normalizedSql;
+	private final long elapsedNanos;
+	private final long rows;
+	private final SQLException error;
+
+	public SqlEvent(Type type, String sql, String normalizedSql, long elapsedNanos, long rows, SQLException error) {
+		this.type = type;
+		this.sql = sql;
+		this.normalizedSql = normalizedSql;
+		this.elapsedNanos = elapsedNanos;
+		this.rows = rows;
+		this.error = error;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return 原始sql
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return 去掉常量后的sql,相同结构的sql结果相同
+	 */
+	public String getNormalizedSql() {
+		return normalizedSql;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedNanos / 1000000;
+	}
+
+	/**
+	 * @return 返回/影响的行数,未知时(比如只获取了结果集)为-1
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return 执行成功时为null
+	 */
+	public SQLException getError() {
+		return error;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append('[').append(type).append("][")
+				.append(elapsedNanos / 1000000.0).append("ms][rows:")
+				.append(rows).append("]")
+				.append(error == null ? "" : "[error:"+error.getMessage()+"]")
+				.append(sql)
+				.toString();
+	}
+}
@@ -0,0 +1,273 @@
+package com.ag777.util.db.monitor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.ag777.util.db.interf.DBMonitorListenerInterf;
+import com.ag777.util.lang.Console;
+import com.ag777.util.other.LatencyHistogram;
+
+/**
+ * sql执行监控
+ * <p>
+ * 	通过DbHelper.setSqlMonitor(monitor)开启,按归一化后的sql(常量替换为?)统计执行次数、耗时直方图、返回/影响行数和失败次数,
+ * 	同时统计从连接池获取连接的等待时间。执行时间超过阈值的sql会输出到控制台并保留最近的若干条,
+ * 	可以注册监听器把数据导出到外部监控系统
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月29日,last modify at 2018年05月29日
+ */
+public class SqlMonitor {
+
+	//超出统计的sql种类上限后,其余sql统一计入该项,避免拼接常量的sql撑爆内存
+	public static final String KEY_OTHER = "<other>";
+
+	private static final Pattern P_STRING = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern P_NUMBER = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern P_IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+	private static final Pattern P_VALUES_LIST = Pattern.compile("(\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\))(?:\\s*,\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\))+");
+	private static final Pattern P_SPACE = Pattern.compile("\\s+");
+	private static final int NORMALIZE_CACHE_SIZE = 2000;
+
+	private final int maxSqlCount;
+	private final Map<String, SqlStats> statsMap;
+	private final Map<String, String> normalizeCache;	//原始sql->归一化sql
+	private final Map<String, LatencyHistogram> poolWaitMap;	//连接池标识->等待时间(微秒)
+	private final List<DBMonitorListenerInterf> listenerList;
+	private final ConcurrentLinkedDeque<SqlEvent> slowQueryQueue;
+	private final AtomicInteger slowQueryCount;
+	private volatile long slowQueryThreshold;	//毫秒
+	private volatile int slowQueryKeep;
+	private volatile boolean logSlowQuery;
+
+	public SqlMonitor() {
+		this(1000);
+	}
+
+	/**
+	 * @param maxSqlCount 最多统计多少种不同的sql
+	 */
+	public SqlMonitor(int maxSqlCount) {
+		this.maxSqlCount = maxSqlCount;
+		statsMap = new ConcurrentHashMap<>();
+		normalizeCache = new ConcurrentHashMap<>();
+		poolWaitMap = new ConcurrentHashMap<>();
+		listenerList = new CopyOnWriteArrayList<>();
+		slowQueryQueue = new ConcurrentLinkedDeque<>();
+		slowQueryCount = new AtomicInteger(0);
+		slowQueryThreshold = 1000;
+		slowQueryKeep = 100;
+		logSlowQuery = true;
+	}
+
+	/*==================配置========================*/
+	/**
+	 * 设置慢查询阈值
+	 * @param millis 小于等于0则不记录慢查询
+	 * @return
+	 */
+	public SqlMonitor slowQueryThreshold(long millis) {
+		slowQueryThreshold = millis;
+		return this;
+	}
+
+	/**
+	 * 设置保留最近多少条慢查询
+	 * @param keep
+	 * @return
+	 */
+	public SqlMonitor slowQueryKeep(int keep) {
+		slowQueryKeep = keep;
+		return this;
+	}
+
+	/**
+	 * 是否在控制台输出慢查询
+	 * @param logSlowQuery
+	 * @return
+	 */
+	public SqlMonitor logSlowQuery(boolean logSlowQuery) {
+		this.logSlowQuery = logSlowQuery;
+		return this;
+	}
+
+	public SqlMonitor addListener(DBMonitorListenerInterf listener) {
+		listenerList.add(listener);
+		return this;
+	}
+
+	public SqlMonitor removeListener(DBMonitorListenerInterf listener) {
+		listenerList.remove(listener);
+		return this;
+	}
+
+	public long getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+
+	/*==================记录========================*/
+	/**
+	 * 记录一次sql执行
+	 * @param type
+	 * @param sql
+	 * @param elapsedNanos
+	 * @param rows 返回/影响的行数,未知时传-1
+	 * @param error 执行成功传null
+	 */
+	public void record(SqlEvent.Type type, String sql, long elapsedNanos, long rows, SQLException error) {
+		String normalizedSql = normalizeCached(sql);
+		SqlEvent event = new SqlEvent(type, sql, normalizedSql, elapsedNanos, rows, error);
+		getOrCreateStats(normalizedSql).record(event);
+		for (DBMonitorListenerInterf listener : listenerList) {
+			try {
+				listener.onExecute(event);
+			} catch(Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+		long threshold = slowQueryThreshold;
+		if(threshold > 0 && elapsedNanos >= threshold * 1000000) {
+			onSlowQuery(event);
+		}
+	}
+
+	/**
+	 * 记录从连接池获取连接的等待时间
+	 * @param poolKey
+	 * @param waitNanos
+	 */
+	public void recordPoolWait(String poolKey, long waitNanos) {
+		poolWaitMap.computeIfAbsent(poolKey, k->new LatencyHistogram()).record(waitNanos / 1000);
+		for (DBMonitorListenerInterf listener : listenerList) {
+			try {
+				listener.onPoolWait(poolKey, waitNanos);
+			} catch(Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/*==================查询统计========================*/
+	/**
+	 * 获取所有sql的统计,按总耗时从高到低排序
+	 * @return
+	 */
+	public List<SqlStats> getStatsList() {
+		List<SqlStats> list = new ArrayList<>(statsMap.values());
+		Collections.sort(list, (a, b)->Long.compare(b.getLatency().sum(), a.getLatency().sum()));
+		return list;
+	}
+
+	/**
+	 * 获取某条sql的统计(传入原始sql即可)
+	 * @param sql
+	 * @return 未执行过返回null
+	 */
+	public SqlStats getStats(String sql) {
+		return statsMap.get(normalize(sql));
+	}
+
+	/**
+	 * 获取连接池等待时间的直方图(微秒)
+	 * @param poolKey
+	 * @return
+	 */
+	public LatencyHistogram getPoolWait(String poolKey) {
+		return poolWaitMap.get(poolKey);
+	}
+
+	public Map<String, LatencyHistogram> getPoolWaitMap() {
+		return Collections.unmodifiableMap(poolWaitMap);
+	}
+
+	/**
+	 * 获取最近的慢查询(最新的在前)
+	 * @return
+	 */
+	public List<SqlEvent> getSlowQueryList() {
+		return new ArrayList<>(slowQueryQueue);
+	}
+
+	/**
+	 * 清空所有统计
+	 */
+	public void reset() {
+		statsMap.clear();
+		poolWaitMap.clear();
+		slowQueryQueue.clear();
+		slowQueryCount.set(0);
+	}
+
+	/*==================工具方法========================*/
+	/**
+	 * sql归一化,字符串和数字常量替换为?,in(?,?,?)及多行values合并,连续空白合并为一个空格
+	 * @param sql
+	 * @return
+	 */
+	public static String normalize(String sql) {
+		if(sql == null) {
+			return "";
+		}
+		String result = P_STRING.matcher(sql).replaceAll("?");
+		result = P_NUMBER.matcher(result).replaceAll("?");
+		result = P_IN_LIST.matcher(result).replaceAll("IN (?)");
+		result = P_VALUES_LIST.matcher(result).replaceAll("$1");
+		result = P_SPACE.matcher(result).replaceAll(" ");
+		return result.trim();
+	}
+
+	private String normalizeCached(String sql) {
+		String result = normalizeCache.get(sql);
+		if(result == null) {
+			result = normalize(sql);
+			if(normalizeCache.size() >= NORMALIZE_CACHE_SIZE) {
+				normalizeCache.clear();
+			}
+			normalizeCache.put(sql, result);
+		}
+		return result;
+	}
+
+	private SqlStats getOrCreateStats(String normalizedSql) {
+		SqlStats stats = statsMap.get(normalizedSql);
+		if(stats != null) {
+			return stats;
+		}
+		if(statsMap.size() >= maxSqlCount) {
+			normalizedSql = KEY_OTHER;
+		}
+		return statsMap.computeIfAbsent(normalizedSql, SqlStats::new);
+	}
+
+	private void onSlowQuery(SqlEvent event) {
+		slowQueryQueue.addFirst(event);
+		if(slowQueryCount.incrementAndGet() > slowQueryKeep) {
+			Iterator<SqlEvent> itor = slowQueryQueue.descendingIterator();
+			while(slowQueryCount.get() > slowQueryKeep && itor.hasNext()) {
+				itor.next();
+				itor.remove();
+				slowQueryCount.decrementAndGet();
+			}
+		}
+		if(logSlowQuery) {
+			Console.log("慢sql"+event);
+		}
+		for (DBMonitorListenerInterf listener : listenerList) {
+			try {
+				listener.onSlowQuery(event);
+			} catch(Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+}
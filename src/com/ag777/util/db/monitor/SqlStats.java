@@ -0,0 +1,79 @@
+package com.ag777.util.db.monitor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ag777.util.other.LatencyHistogram;
+
+/**
+ * 同一条(归一化后的)sql的执行统计
+ *
+ * @author ag777
+ * @version create on 2018年05月29日,last modify at 2018年05月29日
+ */
+public class SqlStats {
+
+	private final String normalizedSql;
+	private final LatencyHistogram latency;	//耗时(微秒)
+	private final AtomicLong errorCount;
+	private final AtomicLong rows;
+
+	public SqlStats(String normalizedSql) {
+		this.normalizedSql = normalizedSql;
+		latency = new LatencyHistogram();
+		errorCount = new AtomicLong(0);
+		rows = new AtomicLong(0);
+	}
+
+	void record(SqlEvent event) {
+		latency.record(event.getElapsedNanos() / 1000);
+		if(!event.isSuccess()) {
+			errorCount.incrementAndGet();
+		}
+		if(event.getRows() > 0) {
+			rows.addAndGet(event.getRows());
+		}
+	}
+
+	public String getNormalizedSql() {
+		return normalizedSql;
+	}
+
+	/**
+	 * @return 耗时直方图,单位为微秒
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getCount() {
+		return latency.count();
+	}
+
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * @return 累计返回/影响的行数(未知的不计入)
+	 */
+	public long getRows() {
+		return rows.get();
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("sql", normalizedSql);
+		map.put("count", getCount());
+		map.put("error", getErrorCount());
+		map.put("rows", getRows());
+		map.put("latencyMicros", latency.stats());
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return stats().toString();
+	}
+}
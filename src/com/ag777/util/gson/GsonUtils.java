@@ -1,8 +1,13 @@
 package com.ag777.util.gson;
 
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 import com.ag777.util.gson.model.TypeFactory;
 import com.ag777.util.lang.exception.model.JsonSyntaxException;
@@ -13,6 +18,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
@@ -39,7 +45,7 @@ import java.lang.reflect.Type;
  * </p>
  * 
  * @author ag777
- * @version create on 2017年05月27日,last modify at 2018年05月16日
+ * @version create on 2017年05月27日,last modify at 2018年06月10日
  */
 public class GsonUtils implements JsonUtilsInterf{
 	
@@ -202,6 +208,24 @@ public class GsonUtils implements JsonUtilsInterf{
 		return gson().toJson(obj);
 	}
 	
+	/**
+	 * 转换对象为json并直接写入字符流,边转换边写入(不关闭流)
+	 * @param obj
+	 * @param writer
+	 * @throws IOException 写入失败
+	 */
+	@Override
+	public void toJson(Object obj, Writer writer) throws IOException {
+		try {
+			gson().toJson(obj, writer);
+		} catch(JsonIOException ex) {	//gson会把写入异常包装成JsonIOException
+			if(ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw ex;
+		}
+	}
+	
 	/**
 	 * 转化json串为map
 	 * @param json
@@ -354,6 +378,97 @@ public class GsonUtils implements JsonUtilsInterf{
 		}
 	}
 	
+	/**
+	 * 从字符流中解析json,边读边解析,不会先把整个json读成字符串(不关闭流)
+	 * @param reader
+	 * @param type
+	 * @return
+	 * @throws JsonSyntaxException
+	 */
+	@Override
+	public <T> T fromJsonWithException(Reader reader, Type type) throws JsonSyntaxException {
+		try {
+			return gson().fromJson(reader, type);
+		} catch(Exception ex) {
+			throw new JsonSyntaxException(ex);
+		}
+	}
+	
+	/**
+	 * 流式读取json数组,每次next只解析一个元素,适合处理超大的数组(不关闭流)
+	 * <p>
+	 * 	元素类型为Map&lt;String, Object&gt;时请传入new TypeFactory(Map.class, String.class, Object.class),以使用MapTypeAdapter
+	 * </p>
+	 * 
+	 * @param reader
+	 * @param elementType
+	 * @return
+	 * @throws JsonSyntaxException json不是数组
+	 */
+	@Override
+	public <T> Iterator<T> arrayIterator(Reader reader, Type elementType) throws JsonSyntaxException {
+		@SuppressWarnings("unchecked")
+		TypeAdapter<T> adapter = (TypeAdapter<T>) gson().getAdapter(TypeToken.get(elementType));
+		JsonReader jsonReader = gson().newJsonReader(reader);
+		try {
+			jsonReader.beginArray();
+		} catch(Exception ex) {
+			throw new JsonSyntaxException(ex);
+		}
+		return new Iterator<T>() {
+
+			@Override
+			public boolean hasNext() {
+				try {
+					if(jsonReader.peek() == JsonToken.END_ARRAY) {
+						jsonReader.endArray();
+						return false;
+					}
+					return jsonReader.peek() != JsonToken.END_DOCUMENT;
+				} catch(Exception ex) {
+					throw new IllegalStateException(new JsonSyntaxException(ex));
+				}
+			}
+
+			@Override
+			public T next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					return adapter.read(jsonReader);
+				} catch(Exception ex) {
+					throw new IllegalStateException(new JsonSyntaxException(ex));
+				}
+			}
+		};
+	}
+	
+	/**
+	 * 流式读取json数组中的每个元素并回调(不关闭流)
+	 * @param reader
+	 * @param elementType
+	 * @param consumer
+	 * @return 元素个数
+	 * @throws JsonSyntaxException
+	 */
+	public <T> long forEachInArray(Reader reader, Type elementType, Consumer<T> consumer) throws JsonSyntaxException {
+		Iterator<T> itor = arrayIterator(reader, elementType);
+		long count = 0;
+		try {
+			while(itor.hasNext()) {
+				consumer.accept(itor.next());
+				count++;
+			}
+		} catch(IllegalStateException ex) {
+			if(ex.getCause() instanceof JsonSyntaxException) {
+				throw (JsonSyntaxException) ex.getCause();
+			}
+			throw ex;
+		}
+		return count;
+	}
+	
 	/*=================辅助类============*/
 	/**
 	 * 重载json转换类,主要目的是为了防止转为map时double型变量错误地转换为long型变量
@@ -0,0 +1,193 @@
+package com.ag777.util.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ag777.util.http.model.CallTag;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 请求标记索引(tag->进行中的请求)
+ * <p>
+ * 	通过EventListener维护:请求开始(同步执行或加入调度队列)时按tag登记,结束或失败时移除,
+ * 	按tag取消时只遍历带该tag的请求,不需要扫描调度器中的所有请求。
+ * 	命中缓存(或被对冲请求替代)的请求不会回调callEnd,所以还需要把getInterceptor()作为最外层的应用拦截器添加,
+ * 	请求失败或返回体关闭(读完)时同样移除
+ * 	tag为CallTag时同时登记到所有上层标记下,取消上层标记即取消整组请求。
+ * 	HttpUtils构建的client都会登记到同一个索引(共用调度器),HttpUtils.cancelAll(client, tag)自动使用
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月12日,last modify at 2018年06月13日
+ */
+public class CallTagIndex implements EventListener.Factory {
+
+	private final Map<Object, Set<Call>> indexMap;
+	private final Interceptor interceptor;
+
+	public CallTagIndex() {
+		indexMap = new ConcurrentHashMap<>();
+		interceptor = this::intercept;
+	}
+
+	/**
+	 * 请求结束时移除登记的应用拦截器,需要作为第一个应用拦截器添加
+	 * @return
+	 */
+	public Interceptor getInterceptor() {
+		return interceptor;
+	}
+
+	@Override
+	public EventListener create(Call call) {
+		return new EventListener() {
+			@Override
+			public void callStart(Call call) {
+				add(call);
+			}
+
+			@Override
+			public void callEnd(Call call) {
+				remove(call);
+			}
+
+			@Override
+			public void callFailed(Call call, IOException ioe) {
+				remove(call);
+			}
+		};
+	}
+
+	/**
+	 * 取消tag(及其子标记)对应的所有进行中的请求
+	 * @param tag
+	 * @return 取消的请求数
+	 */
+	public int cancel(Object tag) {
+		Set<Call> set = indexMap.get(tag);
+		if(set == null) {
+			return 0;
+		}
+		int count = 0;
+		for (Call call : set) {
+			if(!call.isCanceled()) {
+				call.cancel();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param tag
+	 * @return tag(及其子标记)对应的进行中的请求数
+	 */
+	public int count(Object tag) {
+		Set<Call> set = indexMap.get(tag);
+		return set == null ? 0 : set.size();
+	}
+
+	private Response intercept(Interceptor.Chain chain) throws IOException {
+		Call call = chain.call();
+		Response response = null;
+		try {
+			response = chain.proceed(chain.request());
+		} finally {
+			if(response == null || response.body() == null) {
+				remove(call);
+			}
+		}
+		if(tagOf(call.request()) == null) {
+			return response;
+		}
+		ResponseBody body = response.body();
+		ForwardingSource source = new ForwardingSource(body.source()) {
+			@Override
+			public long read(Buffer sink, long byteCount) throws IOException {
+				long read = super.read(sink, byteCount);
+				if(read == -1) {
+					remove(call);
+				}
+				return read;
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					remove(call);
+				}
+			}
+		};
+		return response.newBuilder()
+				.body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+				.build();
+	}
+
+	/**
+	 * 登记请求(EventListener之外,比如SingleFlight中等待其他请求结果、不会真正执行的call)
+	 * @param call
+	 */
+	void add(Call call) {
+		Object tag = tagOf(call.request());
+		if(tag == null) {
+			return;
+		}
+		for (Object key : keysOf(tag)) {
+			indexMap.compute(key, (k, set)->{
+				if(set == null) {
+					set = ConcurrentHashMap.newKeySet();
+				}
+				set.add(call);
+				return set;
+			});
+		}
+	}
+
+	void remove(Call call) {
+		Object tag = tagOf(call.request());
+		if(tag == null) {
+			return;
+		}
+		for (Object key : keysOf(tag)) {
+			indexMap.computeIfPresent(key, (k, set)->{
+				set.remove(call);
+				return set.isEmpty() ? null : set;
+			});
+		}
+	}
+
+	/**
+	 * 没有设置tag时okhttp返回请求本身,不登记
+	 */
+	private static Object tagOf(Request request) {
+		Object tag = request.tag();
+		return tag == request ? null : tag;
+	}
+
+	private static Iterable<Object> keysOf(Object tag) {
+		if(!(tag instanceof CallTag)) {
+			return Collections.singletonList(tag);
+		}
+		List<Object> list = new ArrayList<>(4);
+		for (CallTag t = (CallTag) tag; t != null; t = t.getParent()) {
+			list.add(t);
+		}
+		return list;
+	}
+}
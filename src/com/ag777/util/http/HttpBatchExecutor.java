@@ -0,0 +1,459 @@
+package com.ag777.util.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ag777.util.http.model.BatchResult;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 批量异步请求执行器
+ * <p>
+ * 	通过Call.enqueue异步发送请求,不需要为每个请求占用一个线程。
+ * 	同一个执行器上的所有批次共享并发上限:全局最大并发数、每个host最大并发数、令牌桶限速(每秒请求数),
+ * 	每个请求可以设置超时(从发出请求算起,超时后取消)。
+ * 	结果按请求顺序返回,单个请求失败不影响其他请求。
+ * </p>
+ * <p>
+ * 	注意:okhttp的调度器本身也有并发上限(默认64/每个host 5个),
+ * 	需要更高并发时请同时通过HttpUtils.configDispatcher调整
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	HttpBatchExecutor executor = new HttpBatchExecutor(HttpUtils.client())
+ * 		.maxConcurrency(64).maxPerHost(8).rateLimit(200, 50).timeout(10, TimeUnit.SECONDS);
+ * 	List&lt;BatchResult&lt;String&gt;&gt; resultList = executor.executeForStr(requestList).get();
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月06日,last modify at 2018年06月06日
+ */
+public class HttpBatchExecutor {
+
+	/**
+	 * 返回处理接口,在okhttp的回调线程中执行,返回后关闭response
+	 */
+	public interface ResponseHandler<T> {
+		T handle(Response response) throws Exception;
+	}
+
+	//用于超时取消和限速等待的定时器
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r->{
+		Thread thread = new Thread(r, "http-batch-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final OkHttpClient client;
+	private final Object lock;
+	private final LinkedHashMap<String, ArrayDeque<Task<?>>> pendingMap;	//host->待发送的请求
+	private final Map<String, Integer> hostRunningMap;
+	private int pendingCount;
+	private int runningCount;
+	private boolean drainScheduled;
+	private int maxConcurrency;
+	private int maxPerHost;
+	private long timeoutMillis;
+	private TokenBucket bucket;
+
+	public HttpBatchExecutor(OkHttpClient client) {
+		this.client = client == null ? HttpUtils.client() : client;
+		lock = new Object();
+		pendingMap = new LinkedHashMap<>();
+		hostRunningMap = new HashMap<>();
+		maxConcurrency = 64;
+		maxPerHost = 5;
+		timeoutMillis = 0;
+		bucket = null;
+	}
+
+	/*==================配置========================*/
+	/**
+	 * 全局最大并发请求数(默认64)
+	 * @param maxConcurrency
+	 * @return
+	 */
+	public HttpBatchExecutor maxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = Math.max(maxConcurrency, 1);
+		drain();
+		return this;
+	}
+
+	/**
+	 * 每个host的最大并发请求数(默认5)
+	 * @param maxPerHost
+	 * @return
+	 */
+	public HttpBatchExecutor maxPerHost(int maxPerHost) {
+		this.maxPerHost = Math.max(maxPerHost, 1);
+		drain();
+		return this;
+	}
+
+	/**
+	 * 令牌桶限速
+	 * @param permitsPerSecond 每秒发放的令牌数(即平均每秒最多发出的请求数),小于等于0则不限速
+	 * @param burst 桶容量(允许的突发请求数)
+	 * @return
+	 */
+	public HttpBatchExecutor rateLimit(double permitsPerSecond, int burst) {
+		synchronized (lock) {
+			bucket = permitsPerSecond > 0 ? new TokenBucket(permitsPerSecond, Math.max(burst, 1)) : null;
+		}
+		drain();
+		return this;
+	}
+
+	/**
+	 * 单个请求的超时时间(从发出请求到处理完成),小于等于0则只受client本身的超时限制
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 */
+	public HttpBatchExecutor timeout(long timeout, TimeUnit unit) {
+		this.timeoutMillis = unit.toMillis(timeout);
+		return this;
+	}
+
+	/**
+	 * @return 正在执行的请求数
+	 */
+	public int runningCount() {
+		synchronized (lock) {
+			return runningCount;
+		}
+	}
+
+	/**
+	 * @return 等待发送的请求数
+	 */
+	public int pendingCount() {
+		synchronized (lock) {
+			return pendingCount;
+		}
+	}
+
+	/*==================执行========================*/
+	/**
+	 * 批量请求并获取返回字符串(返回码非2xx视为失败)
+	 * @param requestList
+	 * @return
+	 */
+	public CompletableFuture<List<BatchResult<String>>> executeForStr(List<Request> requestList) {
+		return execute(requestList, response->HttpUtils.responseStr(response).orElse(null));
+	}
+
+	/**
+	 * 批量请求并将返回转为map(返回码非2xx视为失败)
+	 * @param requestList
+	 * @return
+	 */
+	public CompletableFuture<List<BatchResult<Map<String, Object>>>> executeForMap(List<Request> requestList) {
+		return execute(requestList, response->HttpUtils.responseMapStreaming(response).orElse(null));
+	}
+
+	/**
+	 * 批量请求
+	 * <p>
+	 * 	所有请求完成后future完成,结果顺序与请求顺序一致;
+	 * 	取消future会取消该批次中未完成的请求
+	 * </p>
+	 *
+	 * @param requestList
+	 * @param handler 返回处理
+	 * @return
+	 */
+	public <T>CompletableFuture<List<BatchResult<T>>> execute(List<Request> requestList, ResponseHandler<T> handler) {
+		Batch<T> batch = new Batch<>(requestList.size(), handler);
+		if(requestList.isEmpty()) {
+			batch.future.complete(new ArrayList<>());
+			return batch.future;
+		}
+		batch.future.whenComplete((result, ex)->{
+			if(batch.future.isCancelled()) {
+				batch.cancelAll();
+				drain();	//清理未发出的请求
+			}
+		});
+		synchronized (lock) {
+			for (int i = 0; i < requestList.size(); i++) {
+				Task<T> task = new Task<>(batch, i, requestList.get(i));
+				batch.tasks[i] = task;
+				pendingMap.computeIfAbsent(task.host, k->new ArrayDeque<>()).add(task);
+				pendingCount++;
+			}
+		}
+		drain();
+		return batch.future;
+	}
+
+	/*==================调度========================*/
+	/**
+	 * 在不超过上限的前提下尽量多地发出请求,各host轮流发出
+	 */
+	private void drain() {
+		List<Task<?>> startList = new ArrayList<>();
+		synchronized (lock) {
+			boolean progressed = true;
+			outer:
+			while(progressed && pendingCount > 0 && runningCount < maxConcurrency) {
+				progressed = false;
+				Iterator<Map.Entry<String, ArrayDeque<Task<?>>>> itor = pendingMap.entrySet().iterator();
+				while(itor.hasNext() && runningCount < maxConcurrency) {
+					Map.Entry<String, ArrayDeque<Task<?>>> entry = itor.next();
+					ArrayDeque<Task<?>> queue = entry.getValue();
+					Task<?> task = queue.peek();
+					while(task != null && task.batch.isCancelled()) {	//跳过已取消批次的请求
+						queue.poll();
+						pendingCount--;
+						task.finish(null, new CancellationException());
+						task = queue.peek();
+					}
+					if(task == null) {
+						itor.remove();
+						continue;
+					}
+					int hostRunning = hostRunningMap.getOrDefault(entry.getKey(), 0);
+					if(hostRunning >= maxPerHost) {
+						continue;
+					}
+					if(bucket != null) {
+						long waitNanos = bucket.tryAcquire();
+						if(waitNanos > 0) {	//令牌不足,等待后再调度
+							scheduleDrain(waitNanos);
+							break outer;
+						}
+					}
+					queue.poll();
+					if(queue.isEmpty()) {
+						itor.remove();
+					}
+					pendingCount--;
+					runningCount++;
+					hostRunningMap.put(entry.getKey(), hostRunning+1);
+					startList.add(task);
+					progressed = true;
+				}
+			}
+		}
+		for (Task<?> task : startList) {	//在锁外发出请求
+			task.start();
+		}
+	}
+
+	private void scheduleDrain(long delayNanos) {
+		if(drainScheduled) {
+			return;
+		}
+		drainScheduled = true;
+		TIMER.schedule(()->{
+			synchronized (lock) {
+				drainScheduled = false;
+			}
+			drain();
+		}, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private void onTaskDone(Task<?> task) {
+		synchronized (lock) {
+			runningCount--;
+			int hostRunning = hostRunningMap.getOrDefault(task.host, 1) - 1;
+			if(hostRunning <= 0) {
+				hostRunningMap.remove(task.host);
+			} else {
+				hostRunningMap.put(task.host, hostRunning);
+			}
+		}
+		drain();
+	}
+
+	/*==================内部类========================*/
+	/**
+	 * 一次批量请求
+	 */
+	private static class Batch<T> {
+		final ResponseHandler<T> handler;
+		final Task<?>[] tasks;
+		final BatchResult<?>[] results;
+		final AtomicInteger remaining;
+		final CompletableFuture<List<BatchResult<T>>> future;
+
+		Batch(int size, ResponseHandler<T> handler) {
+			this.handler = handler;
+			tasks = new Task<?>[size];
+			results = new BatchResult<?>[size];
+			remaining = new AtomicInteger(size);
+			future = new CompletableFuture<>();
+		}
+
+		boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		void cancelAll() {
+			for (Task<?> task : tasks) {
+				if(task != null) {
+					task.cancel();
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		void complete(int index, BatchResult<?> result) {
+			results[index] = result;
+			if(remaining.decrementAndGet() == 0) {
+				List<BatchResult<T>> list = new ArrayList<>(results.length);
+				for (BatchResult<?> item : Arrays.asList(results)) {
+					list.add((BatchResult<T>) item);
+				}
+				future.complete(list);
+			}
+		}
+	}
+
+	/**
+	 * 单个请求
+	 */
+	private class Task<T> implements Callback {
+		final Batch<T> batch;
+		final int index;
+		final Request request;
+		final String host;
+		volatile Call call;
+		volatile ScheduledFuture<?> timeoutFuture;
+		volatile boolean timedOut;
+		long startNanos;
+		boolean finished;
+
+		Task(Batch<T> batch, int index, Request request) {
+			this.batch = batch;
+			this.index = index;
+			this.request = request;
+			this.host = request.url().host()+":"+request.url().port();
+		}
+
+		void start() {
+			startNanos = System.nanoTime();
+			call = client.newCall(request);
+			if(batch.isCancelled()) {
+				call.cancel();
+			}
+			if(timeoutMillis > 0) {
+				timeoutFuture = TIMER.schedule(()->{
+					timedOut = true;
+					call.cancel();
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			call.enqueue(this);
+		}
+
+		void cancel() {
+			Call call = this.call;
+			if(call != null) {
+				call.cancel();
+			}
+		}
+
+		@Override
+		public void onFailure(Call call, IOException e) {
+			Exception error = e;
+			if(timedOut) {
+				error = new InterruptedIOException("请求超时("+timeoutMillis+"ms):"+request.url());
+				error.initCause(e);
+			} else if(batch.isCancelled()) {
+				error = new CancellationException();
+			}
+			done(null, error);
+		}
+
+		@Override
+		public void onResponse(Call call, Response response) {
+			try (Response r = response) {
+				T value = batch.handler.handle(r);
+				done(value, null);
+			} catch(IOException ex) {	//读取返回体时超时/取消
+				onFailure(call, ex);
+			} catch(Exception ex) {
+				done(null, ex);
+			}
+		}
+
+		private void done(T value, Exception error) {
+			ScheduledFuture<?> future = timeoutFuture;
+			if(future != null) {
+				future.cancel(false);
+			}
+			if(finish(value, error)) {
+				onTaskDone(this);
+			}
+		}
+
+		/**
+		 * @return 是否第一次完成
+		 */
+		synchronized boolean finish(T value, Exception error) {
+			if(finished) {
+				return false;
+			}
+			finished = true;
+			long elapsed = startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1000000;
+			batch.complete(index, new BatchResult<>(index, request, value, error, elapsed));
+			return true;
+		}
+	}
+
+	/**
+	 * 令牌桶
+	 */
+	private static class TokenBucket {
+		private final double permitsPerNano;
+		private final double capacity;
+		private double tokens;
+		private long lastNanos;
+
+		TokenBucket(double permitsPerSecond, int capacity) {
+			this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.capacity = capacity;
+			tokens = capacity;
+			lastNanos = System.nanoTime();
+		}
+
+		/**
+		 * 尝试获取一个令牌(调用方已加锁)
+		 * @return 获取成功返回0,否则返回需要等待的纳秒数
+		 */
+		long tryAcquire() {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastNanos) * permitsPerNano);
+			lastNanos = now;
+			if(tokens >= 1) {
+				tokens -= 1;
+				return 0;
+			}
+			return (long) Math.ceil((1 - tokens) / permitsPerNano);
+		}
+	}
+}
@@ -2,14 +2,15 @@ package com.ag777.util.http;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 import java.util.Optional;
 
+import com.ag777.util.http.model.ProgressRequestBody;
 import com.ag777.util.http.model.ProgressResponseBody;
 
 import okhttp3.Call;
-import okhttp3.OkHttpClient;
 import okhttp3.Response;
 
 /**
@@ -19,12 +20,23 @@ import okhttp3.Response;
  * </p>
  * 
  * @author ag777
- * @version create on 2018年03月30日,last modify at 2018年04月03日
+ * @version create on 2018年03月30日,last modify at 2018年06月11日
  */
 public class HttpEasy {
 	
+	private static volatile SingleFlight mSingleFlight;
+	
 	private HttpEasy() {}
 	
+	/**
+	 * 合并并发的相同get请求(get/getForMap),同一时刻相同的请求只发出一次
+	 * @param singleFlight 传null关闭
+	 * @see SingleFlight
+	 */
+	public static void setModeSingleFlight(SingleFlight singleFlight) {
+		mSingleFlight = singleFlight;
+	}
+	
 	/**===================GET请求===========================*/
 	
 	/**
@@ -40,7 +52,7 @@ public class HttpEasy {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public static <K, V>Optional<String> get(String url, Map<K, V> paramMap, Map<K,V> headerMap) throws IllegalArgumentException  {
-		Call call = HttpUtils.getByClient(null, url, paramMap, headerMap);
+		Call call = HttpUtils.getByClient(null, url, paramMap, headerMap, null);
 		return callForStrForce(call);
 	}
 	
@@ -58,7 +70,7 @@ public class HttpEasy {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public static <K, V>Optional<Map<String, Object>> getForMap(String url, Map<K, V> paramMap, Map<K,V> headerMap) throws IllegalArgumentException  {
-		Call call = HttpUtils.getByClient(null, url, paramMap, headerMap);
+		Call call = HttpUtils.getByClient(null, url, paramMap, headerMap, null);
 		return callForMapForce(call);
 	}
 	
@@ -77,7 +89,24 @@ public class HttpEasy {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public static <K, V>Optional<String> postJson(String url, String json, Map<K,V> headerMap) throws IllegalArgumentException {
-		Call call = HttpUtils.postJsonByClient(null, url, json, headerMap);
+		Call call = HttpUtils.postJsonByClient(null, url, json, headerMap, null);
+		return callForStrForce(call);
+	}
+	
+	/**
+	 * post请求向服务端发送对象转换成的json(压缩方式见HttpUtils.setModeCompression)
+	 * <p>
+	 * 	不论接口返回是否是200都去获取返回字符串
+	 * </p>
+	 * 
+	 * @param url
+	 * @param obj
+	 * @param headerMap
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 */
+	public static <K, V>Optional<String> postJsonObj(String url, Object obj, Map<K,V> headerMap) throws IllegalArgumentException {
+		Call call = HttpUtils.postJsonObjByClient(null, url, obj, headerMap, null);
 		return callForStrForce(call);
 	}
 	
@@ -112,7 +141,7 @@ public class HttpEasy {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public static <K, V>Optional<Map<String, Object>> postJsonForMap(String url, String json, Map<K,V> headerMap) throws IllegalArgumentException {
-		Call call = HttpUtils.postJsonByClient(null, url, json, headerMap);
+		Call call = HttpUtils.postJsonByClient(null, url, json, headerMap, null);
 		return callForMapForce(call);
 	}
 	
@@ -154,6 +183,27 @@ public class HttpEasy {
 		return callForStrForce(call);
 	}
 	
+	/**
+	 * 向接口提交表单并附带文件(流式上传,文件不读入内存,适合大文件)
+	 * <p>
+	 * 	不论接口返回是否是200都去获取返回字符串
+	 * </p>
+	 * 
+	 * @param url
+	 * @param files
+	 * @param gzip 是否边读边压缩上传
+	 * @param paramMap
+	 * @param headerMap
+	 * @param listener 上传进度监听
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 * @throws FileNotFoundException 
+	 */
+	public static <K, V>Optional<String> postMultiFilesStreaming(String url, File[] files, boolean gzip, Map<K, V> paramMap, Map<K,V> headerMap, ProgressRequestBody.ProgressListener listener) throws IllegalArgumentException, FileNotFoundException  {
+		Call call = HttpUtils.postMultiFilesStreamingByClient(null, url, files, gzip, paramMap, headerMap, listener, null);
+		return callForStrForce(call);
+	}
+	
 	/**
 	 * get请求获取文件流
 	 * <p>
@@ -167,8 +217,7 @@ public class HttpEasy {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public static Optional<InputStream> downLoadForStream(String url, String targetPath, ProgressResponseBody.ProgressListener listener) throws IllegalArgumentException {
-		OkHttpClient client = HttpUtils.clientWithProgress(null, listener);
-		Call call = HttpUtils.getByClient(client, url, null);
+		Call call = HttpUtils.withProgress(HttpUtils.getByClient(null, url, null), listener);
 		return callForInputStream(call);
 	}
 	
@@ -186,12 +235,47 @@ public class HttpEasy {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public static Optional<File> downLoad(String url, String targetPath, ProgressResponseBody.ProgressListener listener) throws IllegalArgumentException {
-		OkHttpClient client = HttpUtils.clientWithProgress(null, listener);
-		Call call = HttpUtils.getByClient(client, url, null);
+		Call call = HttpUtils.withProgress(HttpUtils.getByClient(null, url, null), listener);
 		return callForFile(call, targetPath);
 	}
 	
+	/**
+	 * 分段并行下载文件到指定路径,支持断点续传(中断后再次调用同一url和路径时继续下载)
+	 * <p>
+	 * 	服务端不支持Range时退化为单连接下载,下载失败时返回Optional.empty()
+	 * </p>
+	 * 
+	 * @param url
+	 * @param targetPath
+	 * @param segments 并行段数
+	 * @param listener 总进度监听
+	 * @return
+	 * @see SegmentDownloader
+	 */
+	public static Optional<File> downLoadSegmented(String url, String targetPath, int segments, ProgressResponseBody.ProgressListener listener) {
+		try {
+			File file = new SegmentDownloader(url, targetPath)
+					.segments(segments)
+					.listener(listener)
+					.download();
+			return Optional.of(file);
+		} catch(Exception ex) {
+			return Optional.empty();
+		}
+	}
+	
 	/**===================内部方法===========================*/
+	/**
+	 * 执行请求,开启合并时get请求与进行中的相同请求合并
+	 * @param call
+	 * @return
+	 * @throws IOException
+	 */
+	private static Response execute(Call call) throws IOException {
+		SingleFlight singleFlight = mSingleFlight;
+		return singleFlight == null ? HttpUtils.execute(call) : singleFlight.execute(call);
+	}
+	
 	/**
 	 * 从结果中强制获取字符串
 	 * 
@@ -200,7 +284,7 @@ public class HttpEasy {
 	 */
 	private static Optional<String> callForStrForce(Call call)  {
 		try {
-			Response response = HttpUtils.execute(call);
+			Response response = execute(call);
 			return HttpUtils.responseStrForce(response);
 		} catch(Exception ex) {
 			return Optional.empty();
@@ -215,7 +299,7 @@ public class HttpEasy {
 	 */
 	private static Optional<Map<String, Object>> callForMapForce(Call call)  {
 		try {
-			Response response = HttpUtils.execute(call);
+			Response response = execute(call);
 			return HttpUtils.responseMapForce(response);
 		} catch(Exception ex) {
 			return Optional.empty();
@@ -2,12 +2,19 @@ package com.ag777.util.http;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.ag777.util.http.model.BatchResult;
 import com.ag777.util.http.model.MyCall;
+import com.ag777.util.http.model.ProgressRequestBody;
 import com.ag777.util.http.model.ProgressResponseBody;
 import okhttp3.Call;
 import okhttp3.Headers;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
 import okhttp3.RequestBody;
 
 /**
@@ -17,7 +24,7 @@ import okhttp3.RequestBody;
  * </p>
  * 
  * @author ag777
- * @version create on 2018年03月30日,last modify at 2018年04月03日
+ * @version create on 2018年03月30日,last modify at 2018年06月13日
  */
 public class HttpHelper {
 	
@@ -36,12 +43,75 @@ public class HttpHelper {
 	
 	private OkHttpClient client;
 	private Object tag;
+	private volatile HttpBatchExecutor batchExecutor;
+	private volatile SingleFlight singleFlight;
 	
 	public HttpHelper(OkHttpClient client, Object tag) {
 		this.client = client;
 		this.tag = tag;
 	}
 	
+	/**
+	 * 合并并发的相同get请求,同一时刻相同的请求只发出一次,每个调用方各自得到一份返回体副本
+	 * @param singleFlight 传null关闭,多个helper可以共用一个实例
+	 * @return
+	 * @see SingleFlight
+	 */
+	public HttpHelper singleFlight(SingleFlight singleFlight) {
+		this.singleFlight = singleFlight;
+		return this;
+	}
+	
+	public SingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+	
+	/**===================批量请求===========================*/
+	
+	/**
+	 * 获取该helper的批量请求执行器(同一个helper的所有批量请求共享并发上限和限速)
+	 * @return
+	 * @see HttpBatchExecutor
+	 */
+	public HttpBatchExecutor batchExecutor() {
+		if(batchExecutor == null) {
+			synchronized (this) {
+				if(batchExecutor == null) {
+					batchExecutor = new HttpBatchExecutor(client);
+				}
+			}
+		}
+		return batchExecutor;
+	}
+	
+	/**
+	 * 批量get请求,异步发送,结果顺序与url顺序一致
+	 * @param urlList
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 */
+	public CompletableFuture<List<BatchResult<String>>> batchGet(List<String> urlList) throws IllegalArgumentException {
+		List<Request> requestList = new ArrayList<>(urlList.size());
+		for (String url : urlList) {
+			Request.Builder builder = new Request.Builder().url(url);
+			if(tag != null) {
+				builder.tag(tag);
+			}
+			requestList.add(builder.build());
+		}
+		return batchExecutor().executeForStr(requestList);
+	}
+	
+	/**
+	 * 批量请求
+	 * @param requestList
+	 * @param handler 返回处理
+	 * @return
+	 */
+	public <T>CompletableFuture<List<BatchResult<T>>> batch(List<Request> requestList, HttpBatchExecutor.ResponseHandler<T> handler) {
+		return batchExecutor().execute(requestList, handler);
+	}
+	
 	/**===================其他方法===========================*/
 	/**
 	 * 取消tag对应的所有请求
@@ -62,8 +132,8 @@ public class HttpHelper {
 	}
 	
 	public <K, V>MyCall get(String url, Map<K, V> paramMap, Map<K,V> headerMap) throws IllegalArgumentException {
-		Call call = HttpUtils.getByClient(client, url, paramMap, headerMap);
-		return new MyCall(call);
+		Call call = HttpUtils.getByClient(client, url, paramMap, headerMap, tag);
+		return new MyCall(call, client, singleFlight);
 	}
 	
 	/**
@@ -74,14 +144,29 @@ public class HttpHelper {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public <K,V>MyCall get(String url, Headers headers) throws IllegalArgumentException {
-		Call call = HttpUtils.getByClient(client, url, headers);
-		return new MyCall(call);
+		Call call = HttpUtils.getByClient(client, url, headers, tag);
+		return new MyCall(call, client, singleFlight);
 	}
 	
 	/**===================POST请求===========================*/
 	
 	public <K,V>MyCall postJson(String url, String json, Map<K,V> headerMap) throws IllegalArgumentException {
-		Call call = HttpUtils.postJsonByClient(client, url, json, headerMap);
+		Call call = HttpUtils.postJsonByClient(client, url, json, headerMap, tag);
+		return new MyCall(call);
+	}
+	
+	/**
+	 * 发送对象转换成的json,超过阈值时边转换边压缩发送
+	 * @param url
+	 * @param obj
+	 * @param encoding JsonRequestBody.ENCODING_GZIP/ENCODING_DEFLATE,传null不压缩
+	 * @param threshold json超过该字节数才压缩
+	 * @param headerMap
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 */
+	public <K,V>MyCall postJsonObj(String url, Object obj, String encoding, long threshold, Map<K,V> headerMap) throws IllegalArgumentException {
+		Call call = HttpUtils.postJsonObjByClient(client, url, obj, encoding, threshold, headerMap, tag);
 		return new MyCall(call);
 	}
 	
@@ -113,6 +198,11 @@ public class HttpHelper {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public MyCall downLoad(String url,  ProgressResponseBody.ProgressListener listener) throws IllegalArgumentException {
+		if(HttpUtils.isProgressSupported(client)) {	//共用client,不需要重新构建
+			Call call = HttpUtils.withProgress(HttpUtils.getByClient(client, url, tag), listener);
+			return new MyCall(call);
+		}
+		@SuppressWarnings("deprecation")
 		OkHttpClient client = HttpUtils.clientWithProgress(this.client.newBuilder(), listener);
 		Call call = HttpUtils.getByClient(client, url, tag);
 		return new MyCall(call);
@@ -132,4 +222,21 @@ public class HttpHelper {
 		Call call = HttpUtils.postMultiFilesByClient(client, url, files, params, headerMap, tag);
 		return new MyCall(call);
 	}
+	
+	/**
+	 * post请求带附件(流式上传,文件不读入内存)
+	 * @param url
+	 * @param files
+	 * @param gzip 是否边读边压缩上传
+	 * @param params
+	 * @param headerMap
+	 * @param listener 上传进度监听
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 * @throws FileNotFoundException
+	 */
+	public <K, V>MyCall postMultiFilesStreaming(String url, File[] files, boolean gzip, Map<K, V> params, Map<K, V> headerMap, ProgressRequestBody.ProgressListener listener) throws IllegalArgumentException, FileNotFoundException {
+		Call call = HttpUtils.postMultiFilesStreamingByClient(client, url, files, gzip, params, headerMap, listener, tag);
+		return new MyCall(call);
+	}
 }
@@ -6,13 +6,35 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.net.ConnectException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.ag777.util.Utils;
 import com.ag777.util.file.FileUtils;
+import com.ag777.util.gson.model.TypeFactory;
+import com.ag777.util.http.cache.HttpResponseCache;
+import com.ag777.util.http.interceptor.BulkheadInterceptor;
+import com.ag777.util.http.interceptor.CircuitBreakerInterceptor;
+import com.ag777.util.http.interceptor.DecompressInterceptor;
+import com.ag777.util.http.interceptor.HedgingInterceptor;
+import com.ag777.util.http.interceptor.RetryInterceptor;
+import com.ag777.util.http.metrics.HttpMetrics;
+import com.ag777.util.http.model.ClientConfig;
+import com.ag777.util.http.model.CompositeEventListener;
+import com.ag777.util.http.model.FileRequestBody;
+import com.ag777.util.http.model.JsonRequestBody;
+import com.ag777.util.http.model.ProgressRequestBody;
 import com.ag777.util.http.model.ProgressResponseBody;
 import com.ag777.util.http.model.SSLSocketClient;
 import com.ag777.util.lang.StringUtils;
@@ -21,7 +43,9 @@ import com.ag777.util.lang.collection.MapUtils;
 import com.ag777.util.lang.exception.model.JsonSyntaxException;
 
 import okhttp3.Call;
+import okhttp3.ConnectionPool;
 import okhttp3.Dispatcher;
+import okhttp3.EventListener;
 import okhttp3.FormBody;
 import okhttp3.Headers;
 import okhttp3.Interceptor;
@@ -31,6 +55,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * 有关http请求的方法类(二次封装okhttp3)
@@ -48,11 +73,39 @@ import okhttp3.Response;
  * </p>
  * 
  * @author ag777
- * @version last modify at 2018年04月03日
+ * @version last modify at 2018年06月13日
  */
 public class HttpUtils {
 	
-	private static OkHttpClient mOkHttpClient;
+	public static final String PROFILE_DEFAULT = "default";
+	
+	private static volatile OkHttpClient mOkHttpClient;
+	//所有client共用的连接池和线程调度器,保证keep-alive连接和线程在不同client之间复用
+	private static volatile ConnectionPool mConnectionPool = new ConnectionPool(5, 5, TimeUnit.MINUTES);
+	private static final Dispatcher mDispatcher = new Dispatcher();
+	private static final Map<String, ClientConfig> mConfigMap = new ConcurrentHashMap<>();
+	private static final Map<String, OkHttpClient> mProfileMap = new ConcurrentHashMap<>();
+	//json请求体压缩方式(null为不压缩)及阈值
+	private static volatile String mJsonEncoding;
+	private static volatile long mJsonCompressThreshold = 8192;
+	private static final Interceptor DECOMPRESS_INTERCEPTOR = new DecompressInterceptor();
+	//共用调度器上所有请求的tag索引
+	private static final CallTagIndex mCallTagIndex = new CallTagIndex();
+	//单次请求的下载进度监听,key为call,请求开始时取出(弱引用,未执行的call不会导致内存泄漏)
+	private static final Map<Call, ProgressResponseBody.ProgressListener> mProgressMap = Collections.synchronizedMap(new WeakHashMap<>());
+	private static final Interceptor PROGRESS_INTERCEPTOR = new Interceptor() {
+		@Override
+		public Response intercept(Chain chain) throws IOException {
+			ProgressResponseBody.ProgressListener listener = mProgressMap.remove(chain.call());
+			Response response = chain.proceed(chain.request());
+			if(listener == null || response.body() == null) {
+				return response;
+			}
+			return response.newBuilder()
+					.body(new ProgressResponseBody(response.body(), listener))
+					.build();
+		}
+	};
 	
 	public static final MediaType FORM_CONTENT_TYPE
     									= MediaType.parse("application/x-www-form-urlencoded; charset=utf-8");
@@ -60,33 +113,252 @@ public class HttpUtils {
 	private HttpUtils() {}
 	
 	/**
-	 * 生成并获取client对象,双锁校验
+	 * 生成并获取client对象(默认配置),双锁校验
 	 * @return
 	 */
-	@SuppressWarnings("deprecation")
 	public static OkHttpClient client() {
 		if(mOkHttpClient == null) {
 			synchronized (HttpUtils.class) {
 				if(mOkHttpClient == null) {
-					mOkHttpClient = new OkHttpClient().newBuilder()  
-		                    .connectTimeout(15, TimeUnit.SECONDS)  
-		                    .readTimeout(15, TimeUnit.SECONDS)  
-		                    .writeTimeout(15, TimeUnit.SECONDS)  
-		                    .sslSocketFactory(SSLSocketClient.getSSLSocketFactory())  
-		                    .hostnameVerifier(SSLSocketClient.getHostnameVerifier())  
-		                    .build();  
+					mOkHttpClient = client(PROFILE_DEFAULT);
 				}
 			}
 		}
 		return mOkHttpClient;
 	}
 	
+	/**
+	 * 获取指定配置名对应的client,同一配置名只构建一次
+	 * <p>
+	 * 	所有配置共用同一个连接池和线程调度器,配置名default未注册时使用默认配置
+	 * </p>
+	 * 
+	 * @param profile 配置名
+	 * @return
+	 * @throws IllegalArgumentException 配置名未注册
+	 */
+	public static OkHttpClient client(String profile) throws IllegalArgumentException {
+		OkHttpClient client = mProfileMap.get(profile);
+		if(client != null) {
+			return client;
+		}
+		synchronized (HttpUtils.class) {
+			client = mProfileMap.get(profile);
+			if(client == null) {
+				ClientConfig config = mConfigMap.get(profile);
+				if(config == null) {
+					if(!PROFILE_DEFAULT.equals(profile)) {
+						throw new IllegalArgumentException("未注册的client配置:"+profile);
+					}
+					config = new ClientConfig();
+					mConfigMap.put(profile, config);
+				}
+				client = build(config);
+				mProfileMap.put(profile, client);
+			}
+			return client;
+		}
+	}
+	
+	/**
+	 * 注册(或覆盖)一个client配置
+	 * @param profile 配置名,传入default则修改默认client
+	 * @param config
+	 * @return 根据配置构建的client
+	 */
+	public static OkHttpClient registerProfile(String profile, ClientConfig config) {
+		synchronized (HttpUtils.class) {
+			config = config.copy();	//防止外部修改
+			OkHttpClient client = build(config);
+			mConfigMap.put(profile, config);
+			mProfileMap.put(profile, client);
+			if(PROFILE_DEFAULT.equals(profile)) {
+				mOkHttpClient = client;
+			}
+			return client;
+		}
+	}
+	
+	/**
+	 * 获取已注册的配置(副本)
+	 * @param profile
+	 * @return 未注册返回null
+	 */
+	public static ClientConfig getProfileConfig(String profile) {
+		ClientConfig config = mConfigMap.get(profile);
+		return config == null ? null : config.copy();
+	}
+	
+	/**
+	 * 为默认client开启(或关闭)返回缓存,HttpEasy等使用默认client的请求都会经过缓存
+	 * @param cache 传null关闭缓存
+	 * @see HttpResponseCache
+	 */
+	public static void setModeCache(HttpResponseCache cache) {
+		synchronized (HttpUtils.class) {
+			ClientConfig config = mConfigMap.get(PROFILE_DEFAULT);
+			config = config == null ? new ClientConfig() : config.copy();
+			registerProfile(PROFILE_DEFAULT, config.cache(cache));
+		}
+	}
+	
+	/**
+	 * 为默认client设置容错拦截器(替换上次设置的,全部传null关闭),传null的跳过
+	 * <p>
+	 * 	HttpEasy的请求失败时仍返回Optional.empty(),但会先按设置重试/对冲,熔断期间直接失败不再访问下游
+	 * </p>
+	 * @param hedging 对冲请求
+	 * @param retry 指数退避重试
+	 * @param circuitBreaker 按host熔断
+	 * @param bulkhead 按host限制并发
+	 * @see ClientConfig#resilience(HedgingInterceptor, RetryInterceptor, CircuitBreakerInterceptor, BulkheadInterceptor)
+	 */
+	public static void setModeResilience(HedgingInterceptor hedging, RetryInterceptor retry, CircuitBreakerInterceptor circuitBreaker, BulkheadInterceptor bulkhead) {
+		synchronized (HttpUtils.class) {
+			ClientConfig config = mConfigMap.get(PROFILE_DEFAULT);
+			config = config == null ? new ClientConfig() : config.copy();
+			registerProfile(PROFILE_DEFAULT, config.resilience(hedging, retry, circuitBreaker, bulkhead));
+		}
+	}
+	
+	/**
+	 * 为默认client开启(或关闭)请求统计
+	 * @param metrics 传null关闭统计
+	 * @see HttpMetrics
+	 */
+	public static void setModeMetrics(HttpMetrics metrics) {
+		synchronized (HttpUtils.class) {
+			ClientConfig config = mConfigMap.get(PROFILE_DEFAULT);
+			config = config == null ? new ClientConfig() : config.copy();
+			registerProfile(PROFILE_DEFAULT, config.eventListenerFactory(metrics));
+		}
+	}
+	
+	/**
+	 * 开启(或关闭)json请求压缩
+	 * <p>
+	 * 	开启后postJsonByClient/postJsonObjByClient发送的json超过阈值时压缩后发送(请求头Content-Encoding),
+	 * 	需要服务端支持解压请求体。返回的解压通过setModeDecompress单独开关
+	 * </p>
+	 * @param encoding JsonRequestBody.ENCODING_GZIP/ENCODING_DEFLATE,传null关闭
+	 * @param threshold json超过该字节数(utf-8)才压缩
+	 * @see #setModeDecompress(boolean)
+	 */
+	public static void setModeCompression(String encoding, long threshold) {
+		if(encoding != null && !JsonRequestBody.ENCODING_GZIP.equals(encoding) && !JsonRequestBody.ENCODING_DEFLATE.equals(encoding)) {
+			throw new IllegalArgumentException("不支持的压缩方式:" + encoding);
+		}
+		synchronized (HttpUtils.class) {
+			mJsonEncoding = encoding;
+			mJsonCompressThreshold = threshold;
+		}
+	}
+	
+	/**
+	 * 为默认client开启(或关闭)gzip/deflate返回的自动解压
+	 * @param decompress
+	 * @see ClientConfig#decompress(boolean)
+	 */
+	public static void setModeDecompress(boolean decompress) {
+		synchronized (HttpUtils.class) {
+			ClientConfig config = mConfigMap.get(PROFILE_DEFAULT);
+			config = config == null ? new ClientConfig() : config.copy();
+			registerProfile(PROFILE_DEFAULT, config.decompress(decompress));
+		}
+	}
+	
+	/**
+	 * 设置共用连接池,已构建的client会按原配置重建(之前取得的client对象仍使用旧连接池,请重新获取)
+	 * <p>
+	 * 	默认最多保留5个空闲连接,空闲5分钟后关闭
+	 * </p>
+	 * 
+	 * @param maxIdleConnections 最大空闲连接数
+	 * @param keepAlive 空闲连接保留时间
+	 * @param unit
+	 */
+	public static void configConnectionPool(int maxIdleConnections, long keepAlive, TimeUnit unit) {
+		synchronized (HttpUtils.class) {
+			ConnectionPool old = mConnectionPool;
+			mConnectionPool = new ConnectionPool(maxIdleConnections, keepAlive, unit);
+			for (Map.Entry<String, ClientConfig> entry : mConfigMap.entrySet()) {
+				mProfileMap.put(entry.getKey(), build(entry.getValue()));
+			}
+			mOkHttpClient = mProfileMap.get(PROFILE_DEFAULT);
+			old.evictAll();
+		}
+	}
+	
+	/**
+	 * 设置共用调度器的最大并发数(只对异步请求enqueue生效,即时生效)
+	 * <p>
+	 * 	okhttp默认最多64个并发请求,每个host最多5个
+	 * </p>
+	 * 
+	 * @param maxRequests 最大并发请求数
+	 * @param maxRequestsPerHost 每个host的最大并发请求数
+	 */
+	public static void configDispatcher(int maxRequests, int maxRequestsPerHost) {
+		mDispatcher.setMaxRequests(maxRequests);
+		mDispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+	}
+	
+	/**
+	 * @return 所有client共用的连接池
+	 */
+	public static ConnectionPool connectionPool() {
+		return mConnectionPool;
+	}
+	
+	/**
+	 * @return 所有client共用的线程调度器
+	 */
+	public static Dispatcher dispatcher() {
+		return mDispatcher;
+	}
+	
+	/**
+	 * 获取共用调度器上请求的tag索引,可以查询某个tag进行中的请求数
+	 * @return
+	 */
+	public static CallTagIndex callTagIndex() {
+		return mCallTagIndex;
+	}
+	
+	/**
+	 * 为单次请求设置下载进度监听,不需要重新构建client
+	 * <p>
+	 * 	只对通过HttpUtils构建的client(client()/client(profile))生成的call有效,需要在执行请求前调用
+	 * </p>
+	 * 
+	 * @param call
+	 * @param listener
+	 * @return 传入的call
+	 */
+	public static Call withProgress(Call call, ProgressResponseBody.ProgressListener listener) {
+		if(listener != null) {
+			mProgressMap.put(call, listener);
+		}
+		return call;
+	}
+	
+	/**
+	 * 判断client是否支持通过withProgress设置单次请求的进度监听(即是否由HttpUtils构建)
+	 * @param client
+	 * @return
+	 */
+	public static boolean isProgressSupported(OkHttpClient client) {
+		return client != null && client.interceptors().contains(PROGRESS_INTERCEPTOR);
+	}
+	
 	/**
 	 * 构建带进度监听的okhttpClient
 	 * @param builder
 	 * @param listener
 	 * @return
+	 * @deprecated 每次调用都会新建client,请使用withProgress(call, listener)为单次请求设置监听
 	 */
+	@Deprecated
 	public static OkHttpClient clientWithProgress(OkHttpClient.Builder builder, ProgressResponseBody.ProgressListener listener) {
 		if(listener != null) {		
 			if(builder == null) {
@@ -121,6 +393,11 @@ public class HttpUtils {
 	}
 	
 	/**
+	 * 取消tag对应的所有请求(tag为CallTag时包括其下所有子标记的请求)
+	 * <p>
+	 * 	HttpUtils构建的client通过标记索引取消,只遍历带该tag的请求;
+	 * 	其他client扫描调度器中的所有请求(CallTag只匹配相同的标记)
+	 * </p>
 	 * <p>
 	 * 来源:https://www.zhihu.com/question/46147227
 	 * </p>
@@ -131,8 +408,11 @@ public class HttpUtils {
 	public static void cancelAll(OkHttpClient client, Object tag) {
 		if(tag == null) {
 			cancelAll(client);
+			return;
 		}
-		if(client != null) {
+		if(client != null && client.eventListenerFactory() instanceof IndexedListenerFactory) {	//HttpUtils构建的client,通过索引取消
+			mCallTagIndex.cancel(tag);
+		} else if(client != null) {
 			Dispatcher dispatcher = client.dispatcher();
 		    synchronized (dispatcher){
 		        for (Call call : dispatcher.queuedCalls()) {
@@ -227,7 +507,41 @@ public class HttpUtils {
 	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
 	 */
 	public static <K,V>Call postJsonByClient(OkHttpClient client, String url, String json, Map<K,V> headerMap, Object tag) throws IllegalArgumentException {
-		RequestBody requestBody = RequestBody.create(MediaType.parse("application/json; charset=utf-8"), json);
+		RequestBody requestBody = JsonRequestBody.create(json, mJsonEncoding, mJsonCompressThreshold);
+		return postByClient(client, url, requestBody, getHeaders(headerMap), tag);
+	}
+	
+	/**
+	 * post请求,发送对象转换成的json(压缩方式见setModeCompression)
+	 * @param client
+	 * @param url
+	 * @param obj
+	 * @param headerMap
+	 * @param tag
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 */
+	public static <K,V>Call postJsonObjByClient(OkHttpClient client, String url, Object obj, Map<K,V> headerMap, Object tag) throws IllegalArgumentException {
+		return postJsonObjByClient(client, url, obj, mJsonEncoding, mJsonCompressThreshold, headerMap, tag);
+	}
+	
+	/**
+	 * post请求,发送对象转换成的json
+	 * <p>
+	 * 	转换后超过阈值时,发送过程中边转换边压缩直接写入网络,不会在内存中生成完整的json串
+	 * </p>
+	 * @param client
+	 * @param url
+	 * @param obj
+	 * @param encoding JsonRequestBody.ENCODING_GZIP/ENCODING_DEFLATE,传null不压缩
+	 * @param threshold json超过该字节数才压缩
+	 * @param headerMap
+	 * @param tag
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 */
+	public static <K,V>Call postJsonObjByClient(OkHttpClient client, String url, Object obj, String encoding, long threshold, Map<K,V> headerMap, Object tag) throws IllegalArgumentException {
+		RequestBody requestBody = JsonRequestBody.create(obj, Utils.jsonUtils(), encoding, encoding == null ? Long.MAX_VALUE : threshold);
 		return postByClient(client, url, requestBody, getHeaders(headerMap), tag);
 	}
 	
@@ -275,6 +589,33 @@ public class HttpUtils {
 		return postByClient(client, url, getRequestBody(files, paramMap), getHeaders(headerMap), tag);
 	}
 	
+	/**
+	 * post请求带附件(流式上传)
+	 * <p>
+	 * 	文件不读入内存,直接从磁盘逐段写入网络,适合上传大文件;
+	 * 	gzip为true时每个文件边读边压缩后上传(文件名加.gz后缀),请求使用分块传输
+	 * </p>
+	 * 
+	 * @param client
+	 * @param url
+	 * @param files
+	 * @param gzip 是否压缩上传
+	 * @param paramMap
+	 * @param headerMap
+	 * @param listener 上传进度监听,可以为null
+	 * @param tag
+	 * @return
+	 * @throws IllegalArgumentException 一般为url异常，比如没有http(s):\\的前缀
+	 * @throws FileNotFoundException
+	 */
+	public static <K, V>Call postMultiFilesStreamingByClient(OkHttpClient client, String url, File[] files, boolean gzip, Map<K, V> paramMap, Map<K, V> headerMap, ProgressRequestBody.ProgressListener listener, Object tag) throws IllegalArgumentException, FileNotFoundException {
+		RequestBody body = getStreamingRequestBody(files, gzip, paramMap);
+		if(listener != null) {
+			body = new ProgressRequestBody(body, listener);
+		}
+		return postByClient(client, url, body, getHeaders(headerMap), tag);
+	}
+	
 	/**===================其他方法===========================*/
 	
 	/**
@@ -475,6 +816,108 @@ public class HttpUtils {
 		return Optional.empty();
 	}
 	
+	/**
+	 * 流式解析返回的json为map,不会先把整个返回体读成字符串
+	 * <p>
+	 * 	只有response.isSuccessful()时才有返回,否则抛出异常,读取后关闭返回体
+	 * </p>
+	 * 
+	 * @param response
+	 * @return
+	 * @throws IOException
+	 * @throws JsonSyntaxException json转化异常
+	 */
+	public static Optional<Map<String, Object>> responseMapStreaming(Response response) throws IOException, JsonSyntaxException {
+		return responseObjStreaming(response, new TypeFactory(Map.class, String.class, Object.class));
+	}
+	
+	/**
+	 * 流式解析返回的json为javaBean,不会先把整个返回体读成字符串
+	 * <p>
+	 * 	只有response.isSuccessful()时才有返回,否则抛出异常,读取后关闭返回体
+	 * </p>
+	 * 
+	 * @param response
+	 * @param type
+	 * @return
+	 * @throws IOException
+	 * @throws JsonSyntaxException json转化异常
+	 */
+	public static <T>Optional<T> responseObjStreaming(Response response, Type type) throws IOException, JsonSyntaxException {
+		if(response == null) {
+			return Optional.empty();
+		}
+		checkSuccessful(response);
+		try (ResponseBody body = response.body()) {
+			T result = Utils.jsonUtils().fromJsonWithException(body.charStream(), type);
+			return Optional.ofNullable(result);
+		}
+	}
+	
+	/**
+	 * 将返回的json数组转为元素流,边读边解析,处理超大数组时内存占用恒定
+	 * <p>
+	 * 	只有response.isSuccessful()时才有返回,否则抛出异常。
+	 * 	返回的Stream使用完毕后需要关闭(推荐try-with-resources),关闭时释放连接。
+	 * 	遍历中的读取/格式错误以IllegalStateException(cause为JsonSyntaxException)抛出
+	 * </p>
+	 * 
+	 * @param response
+	 * @param elementType 元素类型,map请传入new TypeFactory(Map.class, String.class, Object.class)
+	 * @return
+	 * @throws IOException
+	 * @throws JsonSyntaxException 返回的不是json数组
+	 */
+	public static <T>Stream<T> responseArray(Response response, Type elementType) throws IOException, JsonSyntaxException {
+		if(response == null) {
+			return Stream.empty();
+		}
+		checkSuccessful(response);
+		ResponseBody body = response.body();
+		try {
+			Iterator<T> itor = Utils.jsonUtils().arrayIterator(body.charStream(), elementType);
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(itor, Spliterator.ORDERED), false)
+					.onClose(body::close);
+		} catch(JsonSyntaxException | RuntimeException ex) {
+			body.close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * 逐个读取返回的json数组中的元素并回调,读取完毕后关闭返回体
+	 * <p>
+	 * 	只有response.isSuccessful()时才有返回,否则抛出异常
+	 * </p>
+	 * 
+	 * @param response
+	 * @param elementType
+	 * @param consumer
+	 * @return 元素个数
+	 * @throws IOException
+	 * @throws JsonSyntaxException json转化异常
+	 */
+	public static <T>long responseArrayForEach(Response response, Type elementType, Consumer<T> consumer) throws IOException, JsonSyntaxException {
+		if(response == null) {
+			return 0;
+		}
+		checkSuccessful(response);
+		try (ResponseBody body = response.body()) {
+			Iterator<T> itor = Utils.jsonUtils().arrayIterator(body.charStream(), elementType);
+			long count = 0;
+			while(itor.hasNext()) {
+				consumer.accept(itor.next());
+				count++;
+			}
+			return count;
+		} catch(IllegalStateException ex) {
+			if(ex.getCause() instanceof JsonSyntaxException) {
+				throw (JsonSyntaxException) ex.getCause();
+			}
+			throw ex;
+		}
+	}
+	
 	/**
 	 * 发送请求并得到返回流
 	 * <p>
@@ -560,6 +1003,59 @@ public class HttpUtils {
 	
 	/**===================内部方法===========================*/
 	
+	/**
+	 * 返回码不为2xx时关闭返回体并抛出异常
+	 * @param response
+	 * @throws IOException
+	 */
+	private static void checkSuccessful(Response response) throws IOException {
+		if(!response.isSuccessful()) {
+			response.close();
+			throw new IOException(response.code()+"||"+response.message());
+		}
+	}
+	
+	/**
+	 * 根据配置构建client,共用连接池和调度器
+	 * @param config
+	 * @return
+	 */
+	private static OkHttpClient build(ClientConfig config) {
+		OkHttpClient.Builder builder = new OkHttpClient.Builder()
+				.connectionPool(mConnectionPool)
+				.dispatcher(mDispatcher)
+				.connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
+				.readTimeout(config.getReadTimeout(), TimeUnit.MILLISECONDS)
+				.writeTimeout(config.getWriteTimeout(), TimeUnit.MILLISECONDS)
+				.retryOnConnectionFailure(config.isRetryOnConnectionFailure())
+				.followRedirects(config.isFollowRedirects())
+				.addInterceptor(mCallTagIndex.getInterceptor())
+				.addInterceptor(PROGRESS_INTERCEPTOR);
+		if(config.isTrustAllSsl()) {
+			builder.sslSocketFactory(SSLSocketClient.getSSLSocketFactory(), SSLSocketClient.getX509TrustManager())
+				.hostnameVerifier(SSLSocketClient.getHostnameVerifier());
+		}
+		for (Interceptor interceptor : config.getInterceptorList()) {
+			builder.addInterceptor(interceptor);
+		}
+		if(config.isDecompress()) {	//应用拦截器才能区分调用方自己指定的Accept-Encoding和okhttp自动添加的gzip
+			builder.addInterceptor(DECOMPRESS_INTERCEPTOR);
+		}
+		for (Interceptor interceptor : config.getNetworkInterceptorList()) {
+			builder.addNetworkInterceptor(interceptor);
+		}
+		List<EventListener.Factory> listenerFactoryList = config.getEventListenerFactoryList();
+		listenerFactoryList.add(0, mCallTagIndex);
+		builder.eventListenerFactory(new IndexedListenerFactory(CompositeEventListener.factory(listenerFactoryList)));
+		HttpResponseCache cache = config.getCache();
+		if(cache != null) {	//内存层放在应用拦截器的最内层,其他拦截器(重试等)命中缓存时同样生效
+			builder.cache(cache.getDiskCache())
+				.addInterceptor(cache.getMemoryInterceptor())
+				.addNetworkInterceptor(cache.getRevalidationInterceptor());
+		}
+		return builder.build();
+	}
+	
 	/**
 	 * 拼接get请求的url及参数
 	 * @param url
@@ -610,6 +1106,11 @@ public class HttpUtils {
 			builder.headers(headers);
 		}
 		
+		String contentEncoding = JsonRequestBody.contentEncoding(body);
+		if(contentEncoding != null) {
+			builder.header("Content-Encoding", contentEncoding);
+		}
+		
 		if(tag != null) {
 			builder.tag(tag);
 		}
@@ -668,18 +1169,7 @@ public class HttpUtils {
 		/*附件部分*/
 		if(!ListUtils.isEmpty(files)) {
 			for (File file : files) {
-				if(file == null) {
-					throw new FileNotFoundException(
-							StringUtils.concat("文件上传失败:","文件不能为空"));
-				}
-				if(!file.exists()) {
-					throw new FileNotFoundException(
-							StringUtils.concat("文件上传失败:","文件[",file.getPath(),"]未找到"));
-				}
-				if(!file.isFile()) {
-					throw new FileNotFoundException(
-							StringUtils.concat("文件上传失败:","文件[",file.getPath(),"]不是个文件"));
-				}
+				checkFile(file);
 				RequestBody fileBody = RequestBody.create(MediaType.parse("application/octet-stream"), file);
 				builder = builder.addFormDataPart("file", file.getName(), fileBody);									
 			}
@@ -705,4 +1195,77 @@ public class HttpUtils {
 		return  builder.build();
 	}
 	
+	/**
+	 * 通过参数构建流式上传的请求体
+	 * <p>
+	 * 	文件逐段从磁盘写入网络,开启gzip时每个文件边读边压缩(文件名加上.gz后缀),此时总长度未知,使用分块传输
+	 * </p>
+	 * 
+	 * @param files
+	 * @param gzip
+	 * @param params
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	private static <K,V> RequestBody getStreamingRequestBody(File[] files, boolean gzip, Map<K, V> params) throws FileNotFoundException {
+		okhttp3.MultipartBody.Builder builder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+		/*附件部分*/
+		if(!ListUtils.isEmpty(files)) {
+			for (File file : files) {
+				checkFile(file);
+				if(gzip) {
+					builder.addFormDataPart("file", file.getName()+".gz", new FileRequestBody(MediaType.parse("application/gzip"), file, true));
+				} else {
+					builder.addFormDataPart("file", file.getName(), new FileRequestBody(MediaType.parse("application/octet-stream"), file, false));
+				}
+			}
+		}
+		/*表单部分*/
+		if(!MapUtils.isEmpty(params)) {
+			Iterator<K> itor = params.keySet().iterator();
+			while(itor.hasNext()) {
+				 K key = itor.next();
+				 V value = params.get(key);
+				 builder.addFormDataPart(key.toString(), value==null?null:value.toString());
+			}
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * 验证上传的文件存在且是个文件
+	 * @param file
+	 * @throws FileNotFoundException
+	 */
+	private static void checkFile(File file) throws FileNotFoundException {
+		if(file == null) {
+			throw new FileNotFoundException(
+					StringUtils.concat("文件上传失败:","文件不能为空"));
+		}
+		if(!file.exists()) {
+			throw new FileNotFoundException(
+					StringUtils.concat("文件上传失败:","文件[",file.getPath(),"]未找到"));
+		}
+		if(!file.isFile()) {
+			throw new FileNotFoundException(
+					StringUtils.concat("文件上传失败:","文件[",file.getPath(),"]不是个文件"));
+		}
+	}
+	
+	
+	/**
+	 * 标记client的请求会登记到tag索引
+	 */
+	private static class IndexedListenerFactory implements EventListener.Factory {
+		private final EventListener.Factory factory;
+		
+		IndexedListenerFactory(EventListener.Factory factory) {
+			this.factory = factory;
+		}
+		
+		@Override
+		public EventListener create(Call call) {
+			return factory.create(call);
+		}
+	}
 }
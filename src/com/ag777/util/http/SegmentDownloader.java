@@ -0,0 +1,617 @@
+package com.ag777.util.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ag777.util.http.model.ProgressResponseBody;
+
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 分段并行下载(支持断点续传)
+ * <p>
+ * 	先通过Range: bytes=0-0探测文件大小和服务端是否支持分段,支持时把文件分为若干段并行下载,
+ * 	每段按偏移写入预先分配好大小的临时文件(目标路径.tmp),下载进度定期保存到状态文件(目标路径.dl),
+ * 	中断后重新下载同一个url到同一路径时从上次的位置继续(通过ETag/Last-Modified校验文件未变化)。
+ * 	每段失败后单独重试,全部完成后可以校验摘要(md5/sha-256等),最后把临时文件重命名为目标文件。
+ * 	服务端不支持分段或者文件大小未知时退化为单连接下载(失败重试时从头开始)
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	File file = new SegmentDownloader(url, "d:/a.zip")
+ * 		.segments(4)
+ * 		.checksum("SHA-256", sha256Hex)
+ * 		.listener((cur, total, read, done)->{...})
+ * 		.download();
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月05日,last modify at 2018年06月13日
+ */
+public class SegmentDownloader {
+
+	private static final Pattern P_CONTENT_RANGE = Pattern.compile("bytes\\s+\\d+-\\d+/(\\d+)");
+	private static final Pattern P_CONTENT_RANGE_UNSATISFIED = Pattern.compile("bytes\\s+\\*/(\\d+)");	//416的返回
+	private static final String SUFFIX_TEMP = ".tmp";
+	private static final String SUFFIX_STATE = ".dl";
+	private static final int BUFF_SIZE = 64 * 1024;
+	private static final long SAVE_STATE_BYTES = 4 * 1024 * 1024;	//每下载多少字节保存一次状态
+
+	private final String url;
+	private final File targetFile;
+	private final File tempFile;
+	private final File stateFile;
+	private OkHttpClient client;
+	private Headers headers;
+	private int segmentCount;
+	private long minSegmentSize;
+	private int retryTimes;
+	private long retryIntervalMillis;
+	private String checksumAlgorithm;
+	private String checksumExpected;
+	private ProgressResponseBody.ProgressListener listener;
+
+	private volatile boolean canceled;
+	private final List<Call> runningCalls;
+	private AtomicLong totalRead;
+	private volatile long lastSavedRead;
+
+	public SegmentDownloader(String url, String targetPath) {
+		this.url = url;
+		targetFile = new File(targetPath);
+		tempFile = new File(targetPath+SUFFIX_TEMP);
+		stateFile = new File(targetPath+SUFFIX_STATE);
+		client = null;
+		segmentCount = 4;
+		minSegmentSize = 1024 * 1024;
+		retryTimes = 3;
+		retryIntervalMillis = 1000;
+		runningCalls = new ArrayList<>();
+		canceled = false;
+	}
+
+	/*==================配置========================*/
+	/**
+	 * 使用的client,默认为HttpUtils.client()
+	 * @param client
+	 * @return
+	 */
+	public SegmentDownloader client(OkHttpClient client) {
+		this.client = client;
+		return this;
+	}
+
+	public <K, V>SegmentDownloader headers(Map<K, V> headerMap) {
+		this.headers = HttpUtils.getHeaders(headerMap);
+		return this;
+	}
+
+	/**
+	 * 并行下载的段数(默认4)
+	 * @param segmentCount
+	 * @return
+	 */
+	public SegmentDownloader segments(int segmentCount) {
+		this.segmentCount = Math.max(segmentCount, 1);
+		return this;
+	}
+
+	/**
+	 * 每段的最小字节数,文件较小时减少段数(默认1M)
+	 * @param minSegmentSize
+	 * @return
+	 */
+	public SegmentDownloader minSegmentSize(long minSegmentSize) {
+		this.minSegmentSize = Math.max(minSegmentSize, 1);
+		return this;
+	}
+
+	/**
+	 * 每段失败后的重试次数及间隔(第n次重试等待n*间隔)
+	 * @param retryTimes
+	 * @param intervalMillis
+	 * @return
+	 */
+	public SegmentDownloader retry(int retryTimes, long intervalMillis) {
+		this.retryTimes = Math.max(retryTimes, 0);
+		this.retryIntervalMillis = Math.max(intervalMillis, 0);
+		return this;
+	}
+
+	/**
+	 * 下载完成后校验摘要,不一致时删除文件并抛出异常
+	 * @param algorithm 例:MD5/SHA-1/SHA-256
+	 * @param expectedHex 期望的摘要(16进制,不区分大小写)
+	 * @return
+	 */
+	public SegmentDownloader checksum(String algorithm, String expectedHex) {
+		this.checksumAlgorithm = algorithm;
+		this.checksumExpected = expectedHex;
+		return this;
+	}
+
+	/**
+	 * 总进度监听(各段合计),会在多个下载线程中回调,回调已加锁
+	 * @param listener
+	 * @return
+	 */
+	public SegmentDownloader listener(ProgressResponseBody.ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * 取消下载,保留已下载的部分用于续传
+	 * <p>
+	 * 	在download()之前调用同样有效;取消后该对象不能再次下载,续传请新建一个SegmentDownloader
+	 * </p>
+	 */
+	public void cancel() {
+		canceled = true;
+		synchronized (runningCalls) {
+			for (Call call : runningCalls) {
+				call.cancel();
+			}
+		}
+	}
+
+	/*==================下载========================*/
+	/**
+	 * 开始下载(阻塞至完成)
+	 * @return 下载完成的文件
+	 * @throws IOException 下载失败/取消/校验失败
+	 */
+	public File download() throws IOException {
+		try {
+			return doDownload();
+		} finally {
+			synchronized (runningCalls) {
+				runningCalls.clear();
+			}
+		}
+	}
+
+	private File doDownload() throws IOException {
+		if(client == null) {
+			client = HttpUtils.client();
+		}
+		File parent = targetFile.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		State state = probe();
+		if(state.length < 0 || !state.acceptRanges) {
+			downloadSingle(state);
+		} else {
+			State saved = loadState();
+			if(saved != null && saved.sameFile(state) && tempFile.length() == state.length) {
+				state = saved;
+			} else {
+				state.split(segmentCount, minSegmentSize);
+				try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {	//预分配空间
+					raf.setLength(state.length);
+				}
+			}
+			downloadSegments(state);
+		}
+		verifyChecksum();
+		Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		stateFile.delete();
+		return targetFile;
+	}
+
+	/**
+	 * 通过Range: bytes=0-0探测文件大小及是否支持分段
+	 */
+	private State probe() throws IOException {
+		Request request = newRequest().header("Range", "bytes=0-0").build();
+		try (Response response = execute(request)) {
+			State state = new State();
+			state.url = url;
+			state.etag = response.header("ETag");
+			state.lastModified = response.header("Last-Modified");
+			if(response.code() == 416) {	//空文件没有可以满足的范围,返回Content-Range: bytes */0
+				Matcher matcher = P_CONTENT_RANGE_UNSATISFIED.matcher(String.valueOf(response.header("Content-Range")));
+				if(matcher.find() && Long.parseLong(matcher.group(1)) == 0) {
+					state.length = 0;
+					state.acceptRanges = false;	//不分段,单连接下载空内容
+					return state;
+				}
+			}
+			if(!response.isSuccessful()) {
+				throw new IOException(response.code()+"||"+response.message());
+			}
+			if(response.code() == 206) {
+				Matcher matcher = P_CONTENT_RANGE.matcher(String.valueOf(response.header("Content-Range")));
+				if(matcher.find()) {
+					state.length = Long.parseLong(matcher.group(1));
+					state.acceptRanges = true;
+					return state;
+				}
+			}
+			//服务端忽略了Range
+			state.length = response.body() == null ? -1 : response.body().contentLength();
+			state.acceptRanges = false;
+			return state;
+		}
+	}
+
+	/**
+	 * 单连接下载,失败重试时从头开始
+	 */
+	private void downloadSingle(State state) throws IOException {
+		stateFile.delete();
+		IOException last = null;
+		for (int i = 0; i <= retryTimes; i++) {
+			if(i > 0) {
+				sleepBeforeRetry(i);
+			}
+			totalRead = new AtomicLong(0);
+			try (Response response = execute(newRequest().build());
+					FileOutputStream out = new FileOutputStream(tempFile)) {
+				if(!response.isSuccessful()) {
+					throw new IOException(response.code()+"||"+response.message());
+				}
+				long length = state.length >= 0 ? state.length : response.body().contentLength();
+				InputStream in = response.body().byteStream();
+				byte[] buff = new byte[BUFF_SIZE];
+				int len;
+				while((len = in.read(buff)) != -1) {
+					if(canceled) {
+						throw new InterruptedIOException("下载已取消");
+					}
+					out.write(buff, 0, len);
+					onProgress(length, len, false);
+				}
+				onProgress(length, 0, true);
+				return;
+			} catch(IOException ex) {
+				if(canceled) {
+					throw new InterruptedIOException("下载已取消");
+				}
+				last = ex;
+			}
+		}
+		throw last;
+	}
+
+	/**
+	 * 各段并行下载
+	 */
+	private void downloadSegments(State state) throws IOException {
+		totalRead = new AtomicLong(state.downloaded());
+		lastSavedRead = totalRead.get();
+		List<Segment> pending = new ArrayList<>();
+		for (Segment segment : state.segments) {
+			if(!segment.isFinished()) {
+				pending.add(segment);
+			}
+		}
+		if(pending.isEmpty()) {
+			onProgress(state.length, 0, true);
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(pending.size());
+		try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+			FileChannel channel = raf.getChannel();
+			List<Future<?>> futureList = new ArrayList<>();
+			for (Segment segment : pending) {
+				futureList.add(pool.submit(()->{
+					downloadSegment(state, segment, channel);
+					return null;
+				}));
+			}
+			IOException error = null;
+			for (Future<?> future : futureList) {
+				try {
+					future.get();
+				} catch(ExecutionException ex) {
+					if(error == null) {
+						error = ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+						cancel();	//一段彻底失败则停止其他段,已下载部分保留用于续传
+					}
+				} catch(InterruptedException ex) {
+					cancel();
+					Thread.currentThread().interrupt();
+					error = new InterruptedIOException("下载被中断");
+				}
+			}
+			channel.force(false);
+			saveState(state);
+			if(error != null) {
+				throw error;
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		onProgress(state.length, 0, true);
+	}
+
+	/**
+	 * 下载单个分段,失败后从已下载的位置重试
+	 */
+	private void downloadSegment(State state, Segment segment, FileChannel channel) throws IOException {
+		IOException last = null;
+		for (int i = 0; i <= retryTimes && !segment.isFinished(); i++) {
+			if(i > 0) {
+				sleepBeforeRetry(i);
+			}
+			if(canceled) {
+				throw new InterruptedIOException("下载已取消");
+			}
+			try {
+				fetchRange(state, segment, channel);
+				return;
+			} catch(IOException ex) {
+				if(canceled) {
+					throw new InterruptedIOException("下载已取消");
+				}
+				last = ex;
+			}
+		}
+		if(last != null) {
+			throw last;
+		}
+	}
+
+	private void fetchRange(State state, Segment segment, FileChannel channel) throws IOException {
+		long position = segment.start + segment.done.get();
+		Request.Builder builder = newRequest().header("Range", "bytes="+position+"-"+segment.end);
+		String validator = state.etag != null ? state.etag : state.lastModified;
+		if(validator != null) {	//文件变化时服务端返回200完整内容
+			builder.header("If-Range", validator);
+		}
+		try (Response response = execute(builder.build())) {
+			if(response.code() != 206) {
+				throw new IOException("分段请求失败(文件可能已变化):"+response.code()+"||"+response.message());
+			}
+			ResponseBody body = response.body();
+			InputStream in = body.byteStream();
+			byte[] buff = new byte[BUFF_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(buff);
+			long remaining = segment.end - position + 1;
+			int len;
+			while(remaining > 0 && (len = in.read(buff, 0, (int) Math.min(buff.length, remaining))) != -1) {
+				if(canceled) {
+					throw new InterruptedIOException("下载已取消");
+				}
+				buffer.clear().limit(len);
+				while(buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				remaining -= len;
+				segment.done.addAndGet(len);
+				onProgress(state.length, len, false);
+				if(totalRead.get() - lastSavedRead >= SAVE_STATE_BYTES) {
+					channel.force(false);	//先落盘再记录进度,否则断电后续传会跳过没有写入磁盘的部分
+					saveState(state);
+				}
+			}
+			if(remaining > 0) {
+				throw new IOException("分段数据不完整:"+segment.start+"-"+segment.end);
+			}
+		}
+	}
+
+	/*==================内部方法========================*/
+	private Request.Builder newRequest() {
+		Request.Builder builder = new Request.Builder().url(url);
+		if(headers != null) {
+			builder.headers(headers);
+		}
+		return builder;
+	}
+
+	private Response execute(Request request) throws IOException {
+		Call call = client.newCall(request);
+		synchronized (runningCalls) {
+			if(canceled) {
+				throw new InterruptedIOException("下载已取消");
+			}
+			runningCalls.add(call);
+		}
+		return call.execute();	//读取返回体期间也需要能取消,call在download结束时统一移除
+	}
+
+	private void onProgress(long length, long bytesRead, boolean done) {
+		long cur = totalRead.addAndGet(bytesRead);
+		if(listener != null) {
+			synchronized (listener) {
+				listener.update(cur, length, bytesRead, done);
+			}
+		}
+	}
+
+	private void sleepBeforeRetry(int times) throws InterruptedIOException {
+		try {
+			Thread.sleep(retryIntervalMillis * times);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("下载被中断");
+		}
+	}
+
+	private void verifyChecksum() throws IOException {
+		if(checksumAlgorithm == null || checksumExpected == null) {
+			return;
+		}
+		String actual;
+		try (InputStream in = new FileInputStream(tempFile)) {
+			MessageDigest digest = MessageDigest.getInstance(checksumAlgorithm);
+			byte[] buff = new byte[BUFF_SIZE];
+			int len;
+			while((len = in.read(buff)) != -1) {
+				digest.update(buff, 0, len);
+			}
+			actual = toHex(digest.digest());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException("不支持的摘要算法:"+checksumAlgorithm, ex);
+		}
+		if(!actual.equalsIgnoreCase(checksumExpected.trim())) {
+			tempFile.delete();
+			stateFile.delete();
+			throw new IOException("文件校验失败,期望:"+checksumExpected+",实际:"+actual);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 保存下载状态(先写临时文件再替换,避免中途崩溃导致状态文件损坏)
+	 */
+	private synchronized void saveState(State state) throws IOException {
+		lastSavedRead = totalRead.get();
+		Properties props = state.toProperties();
+		File temp = new File(stateFile.getPath()+SUFFIX_TEMP);
+		try (OutputStream out = new FileOutputStream(temp)) {
+			props.store(out, null);
+		}
+		Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private State loadState() {
+		if(!stateFile.isFile()) {
+			return null;
+		}
+		try (InputStream in = new FileInputStream(stateFile)) {
+			Properties props = new Properties();
+			props.load(in);
+			return State.fromProperties(props);
+		} catch(Exception ex) {	//状态文件损坏则重新下载
+			return null;
+		}
+	}
+
+	/*==================内部类========================*/
+	/**
+	 * 下载状态
+	 */
+	private static class State {
+		String url;
+		long length;
+		boolean acceptRanges;
+		String etag;
+		String lastModified;
+		List<Segment> segments = new ArrayList<>();
+
+		/**
+		 * 判断与本次探测到的是否为同一个文件
+		 */
+		boolean sameFile(State other) {
+			return url.equals(other.url) && length == other.length
+					&& equals(etag, other.etag) && equals(lastModified, other.lastModified);
+		}
+
+		void split(int count, long minSize) {
+			count = (int) Math.max(1, Math.min(count, length / minSize));
+			long size = length / count;
+			segments.clear();
+			for (int i = 0; i < count; i++) {
+				long start = i * size;
+				long end = i == count - 1 ? length - 1 : start + size - 1;
+				segments.add(new Segment(start, end, 0));
+			}
+		}
+
+		long downloaded() {
+			long total = 0;
+			for (Segment segment : segments) {
+				total += segment.done.get();
+			}
+			return total;
+		}
+
+		Properties toProperties() {
+			Properties props = new Properties();
+			props.setProperty("url", url);
+			props.setProperty("length", String.valueOf(length));
+			if(etag != null) {
+				props.setProperty("etag", etag);
+			}
+			if(lastModified != null) {
+				props.setProperty("lastModified", lastModified);
+			}
+			props.setProperty("segments", String.valueOf(segments.size()));
+			for (int i = 0; i < segments.size(); i++) {
+				Segment segment = segments.get(i);
+				props.setProperty("segment."+i, segment.start+","+segment.end+","+segment.done.get());
+			}
+			return props;
+		}
+
+		static State fromProperties(Properties props) {
+			State state = new State();
+			state.url = props.getProperty("url");
+			state.length = Long.parseLong(props.getProperty("length"));
+			state.acceptRanges = true;
+			state.etag = props.getProperty("etag");
+			state.lastModified = props.getProperty("lastModified");
+			int count = Integer.parseInt(props.getProperty("segments"));
+			for (int i = 0; i < count; i++) {
+				String[] group = props.getProperty("segment."+i).split(",");
+				state.segments.add(new Segment(Long.parseLong(group[0]), Long.parseLong(group[1]), Long.parseLong(group[2])));
+			}
+			return state;
+		}
+
+		private static boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	/**
+	 * 分段,[start, end]闭区间
+	 */
+	private static class Segment {
+		final long start;
+		final long end;
+		final AtomicLong done;
+
+		Segment(long start, long end, long done) {
+			this.start = start;
+			this.end = end;
+			this.done = new AtomicLong(done);
+		}
+
+		boolean isFinished() {
+			return start + done.get() > end;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package com.ag777.util.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import okhttp3.Call;
+import okhttp3.Handshake;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 合并并发的相同请求(single-flight)
+ * <p>
+ * 	同一时刻多个线程发出相同的GET/HEAD请求时,只有第一个真正发出,其他线程等待它的结果,
+ * 	返回体读入内存后每个线程各自得到一份副本(因此不适合下载大文件);请求失败时所有等待的线程都抛出异常。
+ * 	只合并正在进行中的请求,请求结束后再发出的相同请求会重新发出(需要缓存请使用HttpResponseCache)。
+ * 	等待中的请求不会真正执行,但仍可以通过call.cancel()或HttpUtils.cancelAll(client, tag)取消,
+ * 	等待时间不超过其client的读超时
+ * </p>
+ * <p>
+ * 	默认按请求方法+url(参数不区分顺序)+所有请求头判断是否相同,带不同Authorization/Cookie的请求不会共用结果。
+ * 	确认返回与某些请求头无关时,可以通过keyHeaders只比较指定的请求头,通过ignoreParams忽略参数,或者通过keyFunction完全自定义
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	SingleFlight singleFlight = new SingleFlight().keyHeaders("Authorization", "Cookie");	//忽略其他请求头(如追踪id)
+ * 	HttpHelper helper = new HttpHelper(HttpUtils.client(), null).singleFlight(singleFlight);
+ * 	helper.get(url, params).executeForStr();
+ * 	System.out.println(singleFlight.getDedupCount());
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月11日,last modify at 2018年06月13日
+ */
+public class SingleFlight {
+
+	private static final long POLL_MILLIS = 100;	//等待相同请求时检查是否被取消的间隔
+
+	private final Map<String, CompletableFuture<Snapshot>> flightMap;
+	private final AtomicLong flightCount;
+	private final AtomicLong dedupCount;
+	private List<String> keyHeaderList;
+	private boolean ignoreParams;
+	private Function<Request, String> keyFunction;
+
+	public SingleFlight() {
+		flightMap = new ConcurrentHashMap<>();
+		flightCount = new AtomicLong(0);
+		dedupCount = new AtomicLong(0);
+		keyHeaderList = null;
+		ignoreParams = false;
+	}
+
+	/*==================配置========================*/
+	/**
+	 * 只比较指定的请求头(默认比较所有请求头),值不同的请求不合并
+	 * <p>
+	 * 	没有列出的请求头不再参与判断,比如不列出Authorization时不同用户的请求会共用同一个结果
+	 * </p>
+	 * @param headerNames
+	 * @return
+	 */
+	public SingleFlight keyHeaders(String... headerNames) {
+		List<String> list = new ArrayList<>(headerNames.length);
+		Collections.addAll(list, headerNames);
+		keyHeaderList = list;
+		return this;
+	}
+
+	/**
+	 * 是否忽略url参数(只按路径判断),默认false
+	 * @param ignoreParams
+	 * @return
+	 */
+	public SingleFlight ignoreParams(boolean ignoreParams) {
+		this.ignoreParams = ignoreParams;
+		return this;
+	}
+
+	/**
+	 * 自定义请求的key,返回null则该请求不合并,设置后keyHeaders和ignoreParams不再生效
+	 * @param keyFunction
+	 * @return
+	 */
+	public SingleFlight keyFunction(Function<Request, String> keyFunction) {
+		this.keyFunction = keyFunction;
+		return this;
+	}
+
+	/*==================统计========================*/
+	/**
+	 * @return 实际发出的请求数
+	 */
+	public long getFlightCount() {
+		return flightCount.get();
+	}
+
+	/**
+	 * @return 被合并(没有发出,直接使用其他请求结果)的请求数
+	 */
+	public long getDedupCount() {
+		return dedupCount.get();
+	}
+
+	/**
+	 * @return 当前正在进行中的请求数
+	 */
+	public int getInFlightCount() {
+		return flightMap.size();
+	}
+
+	/*==================执行========================*/
+	/**
+	 * 执行请求,有相同请求正在进行中时等待其结果
+	 * <p>
+	 * 	非GET/HEAD请求直接执行。等待时间以HttpUtils.client()的读超时为上限
+	 * </p>
+	 * @param call 未执行过的call
+	 * @return 返回体已读入内存,关闭与否不影响连接
+	 * @throws IOException
+	 * @see #execute(Call, OkHttpClient)
+	 */
+	public Response execute(Call call) throws IOException {
+		return execute(call, null);
+	}
+
+	/**
+	 * 执行请求,有相同请求正在进行中时等待其结果
+	 * <p>
+	 * 	非GET/HEAD请求直接执行。
+	 * 	等待期间每隔一段时间检查call是否被取消(取消时抛出IOException("Canceled")),
+	 * 	超过client的读超时仍没有结果时抛出SocketTimeoutException(读超时为0时不限制)
+	 * </p>
+	 * @param call 未执行过的call
+	 * @param client 创建call的client,为null时使用HttpUtils.client()
+	 * @return 返回体已读入内存,关闭与否不影响连接
+	 * @throws IOException
+	 */
+	public Response execute(Call call, OkHttpClient client) throws IOException {
+		Request request = call.request();
+		String key = keyOf(request);
+		if(key == null) {
+			return call.execute();
+		}
+		CompletableFuture<Snapshot> flight = new CompletableFuture<>();
+		CompletableFuture<Snapshot> existing = flightMap.putIfAbsent(key, flight);
+		if(existing != null) {
+			dedupCount.incrementAndGet();
+			long timeoutMillis = (client == null ? HttpUtils.client() : client).readTimeoutMillis();
+			CallTagIndex index = HttpUtils.callTagIndex();
+			index.add(call);	//没有真正执行,手动登记以便按tag取消
+			try {
+				return await(existing, call, timeoutMillis).toResponse(request);
+			} finally {
+				index.remove(call);
+			}
+		}
+		flightCount.incrementAndGet();
+		try (Response response = call.execute()) {
+			Snapshot snapshot = new Snapshot(response);
+			flight.complete(snapshot);
+			return snapshot.toResponse(request);
+		} catch(Throwable ex) {
+			flight.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			if(!flight.isDone()) {	//保证等待的线程不会一直阻塞
+				flight.completeExceptionally(new IOException("相同请求没有返回结果"));
+			}
+			flightMap.remove(key, flight);
+		}
+	}
+
+	/**
+	 * 获取请求的key
+	 * @param request
+	 * @return 不合并的请求返回null
+	 */
+	public String keyOf(Request request) {
+		String method = request.method();
+		if(!"GET".equals(method) && !"HEAD".equals(method)) {
+			return null;
+		}
+		if(keyFunction != null) {
+			return keyFunction.apply(request);
+		}
+		StringBuilder sb = new StringBuilder(method).append(' ');
+		HttpUrl url = request.url();
+		if(ignoreParams) {
+			sb.append(url.newBuilder().query(null).build());
+		} else {
+			sb.append(canonical(url));
+		}
+		List<String> nameList = keyHeaderList;
+		if(nameList == null) {	//默认比较所有请求头
+			nameList = new ArrayList<>(request.headers().names());
+		}
+		for (String name : nameList) {
+			sb.append('\n').append(name).append(':');
+			List<String> values = request.headers(name);
+			if(!values.isEmpty()) {
+				sb.append(String.join(",", values));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 参数按名称排序,参数顺序不同的url视为相同
+	 */
+	private static String canonical(HttpUrl url) {
+		if(url.querySize() < 2) {
+			return url.toString();
+		}
+		List<String> names = new ArrayList<>(url.queryParameterNames());
+		Collections.sort(names);
+		HttpUrl.Builder builder = url.newBuilder().query(null);
+		for (String name : names) {
+			for (String value : url.queryParameterValues(name)) {
+				builder.addQueryParameter(name, value);
+			}
+		}
+		return builder.build().toString();
+	}
+
+	/**
+	 * 等待相同请求的结果
+	 * @param flight
+	 * @param call 等待中的请求,被取消时停止等待
+	 * @param timeoutMillis 最长等待时间,0为不限制
+	 */
+	private static Snapshot await(CompletableFuture<Snapshot> flight, Call call, long timeoutMillis) throws IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			while(true) {
+				if(call.isCanceled()) {
+					throw new IOException("Canceled");
+				}
+				long wait = POLL_MILLIS;
+				if(timeoutMillis > 0) {
+					long left = deadline - System.currentTimeMillis();
+					if(left <= 0) {
+						throw new SocketTimeoutException("等待相同请求的结果超时");
+					}
+					wait = Math.min(wait, left);
+				}
+				try {
+					return flight.get(wait, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException ex) {
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("等待相同请求的结果被中断");
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("相同请求执行失败:" + cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * 读入内存的返回
+	 */
+	private static class Snapshot {
+		final Protocol protocol;
+		final int code;
+		final String message;
+		final Headers headers;
+		final Handshake handshake;
+		final MediaType contentType;
+		final byte[] body;
+		final long sentRequestAtMillis;
+		final long receivedResponseAtMillis;
+
+		Snapshot(Response response) throws IOException {
+			protocol = response.protocol();
+			code = response.code();
+			message = response.message();
+			headers = response.headers();
+			handshake = response.handshake();
+			ResponseBody responseBody = response.body();
+			contentType = responseBody == null ? null : responseBody.contentType();
+			body = responseBody == null ? new byte[0] : responseBody.bytes();
+			sentRequestAtMillis = response.sentRequestAtMillis();
+			receivedResponseAtMillis = response.receivedResponseAtMillis();
+		}
+
+		Response toResponse(Request request) {
+			return new Response.Builder()
+					.request(request)
+					.protocol(protocol)
+					.code(code)
+					.message(message)
+					.headers(headers)
+					.handshake(handshake)
+					.body(ResponseBody.create(contentType, body))
+					.sentRequestAtMillis(sentRequestAtMillis)
+					.receivedResponseAtMillis(receivedResponseAtMillis)
+					.build();
+		}
+	}
+}
@@ -0,0 +1,432 @@
+package com.ag777.util.http.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ag777.util.lang.interf.Disposable;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * http返回缓存
+ * <p>
+ * 	磁盘层为okhttp自带的Cache(按大小淘汰),遵循Cache-Control/ETag/Last-Modified,过期后通过If-None-Match/If-Modified-Since重新校验。
+ * 	可选的内存层只缓存较小的json返回(GET请求),新鲜期内直接返回,不再读取磁盘和解析缓存头;
+ * 	过期后带上校验头请求,服务端返回304时继续使用内存中的内容。
+ * 	内存层以url为键,带Authorization/Cookie/Range请求头的请求不经过内存层(避免不同用户或不同范围共用结果),
+ * 	返回带Vary时记录对应请求头的值,值不同的请求视为未命中,Vary: *的返回不缓存。
+ * 	通过ClientConfig.cache(cache)或HttpUtils.setModeCache(cache)启用
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	HttpResponseCache cache = new HttpResponseCache(new File("cache/http"), 50 * 1024 * 1024)
+ * 		.memoryLayer(500, 64 * 1024);
+ * 	HttpUtils.setModeCache(cache);
+ * 	HttpEasy.getForMap(url, null, null);
+ * 	System.out.println(cache.stats());
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月06日,last modify at 2018年06月13日
+ */
+public class HttpResponseCache implements Disposable {
+
+	private final Cache diskCache;
+	private final AtomicLong memoryHitCount;
+	private final AtomicLong memoryMissCount;
+	private final AtomicLong revalidationCount;	//服务端返回304的次数
+	private final Interceptor memoryInterceptor;
+	private final Interceptor revalidationInterceptor;
+	private volatile MemoryLayer memoryLayer;
+
+	/**
+	 * @param directory 缓存目录
+	 * @param maxSize 磁盘缓存最大字节数
+	 */
+	public HttpResponseCache(File directory, long maxSize) {
+		diskCache = new Cache(directory, maxSize);
+		memoryHitCount = new AtomicLong(0);
+		memoryMissCount = new AtomicLong(0);
+		revalidationCount = new AtomicLong(0);
+		memoryInterceptor = this::interceptMemory;
+		revalidationInterceptor = chain->{
+			Response response = chain.proceed(chain.request());
+			if(response.code() == 304) {
+				revalidationCount.incrementAndGet();
+			}
+			return response;
+		};
+	}
+
+	/**
+	 * 开启内存层,只缓存content-type为json且不超过maxBodyBytes的GET返回
+	 * @param maxEntries 最多缓存条数,小于等于0则关闭内存层
+	 * @param maxBodyBytes 单条最大字节数
+	 * @return
+	 */
+	public HttpResponseCache memoryLayer(int maxEntries, int maxBodyBytes) {
+		memoryLayer = maxEntries > 0 ? new MemoryLayer(maxEntries, maxBodyBytes) : null;
+		return this;
+	}
+
+	/*==================接入client========================*/
+	/**
+	 * @return okhttp磁盘缓存,设置到OkHttpClient.Builder.cache
+	 */
+	public Cache getDiskCache() {
+		return diskCache;
+	}
+
+	/**
+	 * @return 内存层拦截器,作为应用拦截器添加
+	 */
+	public Interceptor getMemoryInterceptor() {
+		return memoryInterceptor;
+	}
+
+	/**
+	 * @return 统计304次数的拦截器,作为网络拦截器添加
+	 */
+	public Interceptor getRevalidationInterceptor() {
+		return revalidationInterceptor;
+	}
+
+	/*==================统计========================*/
+	public long getMemoryHitCount() {
+		return memoryHitCount.get();
+	}
+
+	public long getMemoryMissCount() {
+		return memoryMissCount.get();
+	}
+
+	/**
+	 * @return 磁盘缓存命中次数(包括校验后返回304的)
+	 */
+	public long getDiskHitCount() {
+		return diskCache.hitCount();
+	}
+
+	/**
+	 * @return 经过磁盘缓存层后实际发出网络请求的次数(包括校验请求)
+	 */
+	public long getNetworkCount() {
+		return diskCache.networkCount();
+	}
+
+	/**
+	 * @return 经过磁盘缓存层的请求数
+	 */
+	public long getRequestCount() {
+		return diskCache.requestCount();
+	}
+
+	/**
+	 * @return 服务端返回304(内容未变化)的次数
+	 */
+	public long getRevalidationCount() {
+		return revalidationCount.get();
+	}
+
+	/**
+	 * @return 内存层当前缓存条数
+	 */
+	public int getMemorySize() {
+		MemoryLayer layer = memoryLayer;
+		return layer == null ? 0 : layer.size();
+	}
+
+	public String stats() {
+		return new StringBuilder()
+				.append("内存命中:").append(getMemoryHitCount())
+				.append(",内存未命中:").append(getMemoryMissCount())
+				.append(",磁盘命中:").append(getDiskHitCount())
+				.append(",网络请求:").append(getNetworkCount())
+				.append(",304校验:").append(getRevalidationCount())
+				.toString();
+	}
+
+	/*==================清理========================*/
+	/**
+	 * 清空内存和磁盘缓存
+	 * @throws IOException
+	 */
+	public void evictAll() throws IOException {
+		MemoryLayer layer = memoryLayer;
+		if(layer != null) {
+			layer.clear();
+		}
+		diskCache.evictAll();
+	}
+
+	@Override
+	public void dispose() {
+		try {
+			diskCache.close();
+		} catch (IOException ex) {
+		}
+	}
+
+	/*==================内存层========================*/
+	private Response interceptMemory(Interceptor.Chain chain) throws IOException {
+		MemoryLayer layer = memoryLayer;
+		Request request = chain.request();
+		if(layer == null || !"GET".equals(request.method()) || !isMemoryCacheable(request)) {
+			return chain.proceed(request);
+		}
+		CacheControl requestControl = request.cacheControl();
+		if(requestControl.noStore()) {
+			return chain.proceed(request);
+		}
+		String key = request.url().toString();
+		CacheEntry entry = layer.get(key);
+		if(entry != null && !entry.varyMatches(request)) {	//其他请求头(Vary)对应的内容
+			entry = null;
+		}
+		if(entry != null && !requestControl.noCache() && entry.isFresh()) {
+			memoryHitCount.incrementAndGet();
+			return entry.toResponse(request);
+		}
+		memoryMissCount.incrementAndGet();
+		Request networkRequest = request;
+		if(entry != null && request.header("If-None-Match") == null && request.header("If-Modified-Since") == null) {	//过期,带上校验头
+			Request.Builder builder = request.newBuilder();
+			if(entry.etag != null) {
+				builder.header("If-None-Match", entry.etag);
+			}
+			if(entry.lastModified != null) {
+				builder.header("If-Modified-Since", entry.lastModified);
+			}
+			networkRequest = builder.build();
+		}
+		Response response = chain.proceed(networkRequest);
+		if(response.code() == 304 && entry != null && networkRequest != request) {	//内容未变化,更新缓存头后继续使用
+			response.close();
+			CacheEntry refreshed = entry.refresh(response);
+			layer.put(key, refreshed);
+			return refreshed.toResponse(request);
+		}
+		return layer.store(key, request, response);
+	}
+
+	/**
+	 * 带身份或范围的请求结果因人/因请求而异,内存层只按url区分,不能共用
+	 */
+	private static boolean isMemoryCacheable(Request request) {
+		return request.header("Authorization") == null
+				&& request.header("Cookie") == null
+				&& request.header("Range") == null;
+	}
+
+	/**
+	 * 解析返回头中的Vary(小写)
+	 */
+	private static Set<String> varyNames(Headers headers) {
+		Set<String> set = new HashSet<>();
+		for (String value : headers.values("Vary")) {
+			for (String name : value.split(",")) {
+				name = name.trim();
+				if(!name.isEmpty()) {
+					set.add(name.toLowerCase());
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * 记录Vary中列出的请求头在请求中的值(没有该头时为空列表)
+	 */
+	private static Map<String, List<String>> varyValues(Request request, Headers responseHeaders) {
+		Map<String, List<String>> map = new HashMap<>();
+		for (String name : varyNames(responseHeaders)) {
+			map.put(name, request.headers(name));
+		}
+		return map;
+	}
+
+	/**
+	 * 内存缓存(LRU)
+	 */
+	private static class MemoryLayer {
+		private final int maxBodyBytes;
+		private final Map<String, CacheEntry> map;
+
+		MemoryLayer(int maxEntries, int maxBodyBytes) {
+			this.maxBodyBytes = maxBodyBytes;
+			map = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+					return size() > maxEntries;
+				}
+			};
+		}
+
+		synchronized CacheEntry get(String key) {
+			return map.get(key);
+		}
+
+		synchronized void put(String key, CacheEntry entry) {
+			map.put(key, entry);
+		}
+
+		synchronized void remove(String key) {
+			map.remove(key);
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+
+		synchronized void clear() {
+			map.clear();
+		}
+
+		/**
+		 * 满足条件时读取返回体存入缓存,返回可以继续读取的response
+		 * @param key
+		 * @param request 应用层的请求(用于记录Vary对应的请求头)
+		 * @param response
+		 */
+		Response store(String key, Request request, Response response) throws IOException {
+			ResponseBody body = response.body();
+			CacheControl control = response.cacheControl();
+			if(response.code() != 200 || body == null || control.noStore() || !isJson(body.contentType())
+					|| varyNames(response.headers()).contains("*")) {
+				remove(key);
+				return response;
+			}
+			String etag = response.header("ETag");
+			String lastModified = response.header("Last-Modified");
+			if(control.maxAgeSeconds() <= 0 && etag == null && lastModified == null) {	//既不能直接使用也不能校验
+				remove(key);
+				return response;
+			}
+			long length = body.contentLength();
+			if(length > maxBodyBytes) {
+				remove(key);
+				return response;
+			}
+			ResponseBody peek = response.peekBody(maxBodyBytes + 1L);
+			if(peek.contentLength() > maxBodyBytes) {	//未知长度且超出上限
+				remove(key);
+				return response;
+			}
+			byte[] bytes = peek.bytes();
+			CacheEntry entry = new CacheEntry(request, response, bytes);
+			put(key, entry);
+			response.close();
+			return entry.toResponse(response.request());
+		}
+
+		private static boolean isJson(MediaType type) {
+			return type != null && type.subtype().toLowerCase().contains("json");
+		}
+	}
+
+	/**
+	 * 内存缓存条目
+	 */
+	private static class CacheEntry {
+		final Protocol protocol;
+		final int code;
+		final String message;
+		final Headers headers;
+		final MediaType contentType;
+		final byte[] body;
+		final String etag;
+		final String lastModified;
+		final long maxAgeMillis;	//小于等于0则每次都需要校验
+		final long receivedAtMillis;
+		final Map<String, List<String>> varyValues;	//Vary中列出的请求头->缓存时请求中的值
+
+		CacheEntry(Request request, Response response, byte[] body) {
+			this(response.protocol(), response.code(), response.message(), response.headers(),
+					response.body().contentType(), body, System.currentTimeMillis(), varyValues(request, response.headers()));
+		}
+
+		private CacheEntry(Protocol protocol, int code, String message, Headers headers, MediaType contentType, byte[] body, long receivedAtMillis, Map<String, List<String>> varyValues) {
+			this.varyValues = varyValues;
+			this.protocol = protocol;
+			this.code = code;
+			this.message = message;
+			this.headers = headers;
+			this.contentType = contentType;
+			this.body = body;
+			this.etag = headers.get("ETag");
+			this.lastModified = headers.get("Last-Modified");
+			CacheControl control = CacheControl.parse(headers);
+			this.maxAgeMillis = control.noCache() ? 0 : control.maxAgeSeconds() * 1000L;
+			this.receivedAtMillis = receivedAtMillis;
+		}
+
+		boolean isFresh() {
+			return maxAgeMillis > 0 && System.currentTimeMillis() - receivedAtMillis < maxAgeMillis;
+		}
+
+		/**
+		 * 304后合并新的头信息,重新开始计算新鲜期
+		 */
+		CacheEntry refresh(Response notModified) {
+			Headers.Builder builder = headers.newBuilder();
+			Headers newHeaders = notModified.headers();
+			for (Iterator<String> itor = newHeaders.names().iterator(); itor.hasNext();) {
+				String name = itor.next();
+				if("Content-Length".equalsIgnoreCase(name) || "Content-Encoding".equalsIgnoreCase(name)) {
+					continue;
+				}
+				builder.removeAll(name);
+				for (String value : newHeaders.values(name)) {
+					builder.add(name, value);
+				}
+			}
+			return new CacheEntry(protocol, code, message, builder.build(), contentType, body, System.currentTimeMillis(), varyValues);
+		}
+
+		/**
+		 * 请求中Vary列出的请求头与缓存时是否一致
+		 */
+		boolean varyMatches(Request request) {
+			for (Map.Entry<String, List<String>> entry : varyValues.entrySet()) {
+				if(!entry.getValue().equals(request.headers(entry.getKey()))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		Response toResponse(Request request) {
+			return new Response.Builder()
+					.request(request)
+					.protocol(protocol)
+					.code(code)
+					.message(message)
+					.headers(headers)
+					.body(ResponseBody.create(contentType, body))
+					.sentRequestAtMillis(receivedAtMillis)
+					.receivedResponseAtMillis(receivedAtMillis)
+					.build();
+		}
+	}
+}
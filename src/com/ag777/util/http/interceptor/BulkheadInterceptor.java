@@ -0,0 +1,158 @@
+package com.ag777.util.http.interceptor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 舱壁隔离拦截器(限制每个host的并发请求数)
+ * <p>
+ * 	一个下游变慢时,占用的线程和连接不会超过上限,其他host的请求不受影响。
+ * 	名额从发出请求开始占用,到返回体读取完毕或关闭时归还,因此请务必关闭response;
+ * 	等待超过设定时间仍没有名额则抛出BulkheadFullException
+ * </p>
+ * <p>
+ * 	与HttpUtils.configDispatcher的区别:调度器只限制异步请求(enqueue),这里对同步请求同样生效。
+ * 	拦截器顺序见HttpUtils.setModeResilience
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月08日,last modify at 2018年06月08日
+ */
+public class BulkheadInterceptor implements Interceptor {
+
+	/**
+	 * 等待超时仍没有并发名额时抛出
+	 */
+	public static class BulkheadFullException extends IOException {
+		private static final long serialVersionUID = -2304786019832417162L;
+
+		private final String host;
+
+		public BulkheadFullException(String host) {
+			super("并发数已满,拒绝请求:" + host);
+			this.host = host;
+		}
+
+		public String getHost() {
+			return host;
+		}
+	}
+
+	private final int maxConcurrentPerHost;
+	private long maxWaitMillis;
+	private final Map<String, Semaphore> semaphoreMap;
+	private final AtomicLong rejectedCount;
+
+	/**
+	 * @param maxConcurrentPerHost 每个host最大并发请求数
+	 */
+	public BulkheadInterceptor(int maxConcurrentPerHost) {
+		this.maxConcurrentPerHost = maxConcurrentPerHost;
+		maxWaitMillis = 0;
+		semaphoreMap = new ConcurrentHashMap<>();
+		rejectedCount = new AtomicLong(0);
+	}
+
+	/**
+	 * @param maxWait 等待名额的最长时间,默认为0(没有名额立即拒绝)
+	 * @param unit
+	 * @return
+	 */
+	public BulkheadInterceptor maxWait(long maxWait, TimeUnit unit) {
+		maxWaitMillis = unit.toMillis(maxWait);
+		return this;
+	}
+
+	/*==================统计========================*/
+	/**
+	 * @param host 格式为host:port
+	 * @return 该host当前正在进行的请求数
+	 */
+	public int getRunningCount(String host) {
+		Semaphore semaphore = semaphoreMap.get(host);
+		return semaphore == null ? 0 : maxConcurrentPerHost - semaphore.availablePermits();
+	}
+
+	/**
+	 * @return 累计拒绝的请求数
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/*==================拦截========================*/
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		String host = hostOf(request.url());
+		Semaphore semaphore = semaphoreMap.computeIfAbsent(host, key->new Semaphore(maxConcurrentPerHost));
+		try {
+			if(!semaphore.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+				rejectedCount.incrementAndGet();
+				throw new BulkheadFullException(host);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("等待并发名额被中断");
+		}
+		AtomicBoolean released = new AtomicBoolean(false);
+		Runnable release = ()->{
+			if(released.compareAndSet(false, true)) {
+				semaphore.release();
+			}
+		};
+		Response response;
+		try {
+			response = chain.proceed(request);
+		} catch(IOException|RuntimeException ex) {
+			release.run();
+			throw ex;
+		}
+		ResponseBody body = response.body();
+		if(body == null) {
+			release.run();
+			return response;
+		}
+		ForwardingSource source = new ForwardingSource(body.source()) {
+			@Override
+			public long read(Buffer sink, long byteCount) throws IOException {
+				long read = super.read(sink, byteCount);
+				if(read == -1) {
+					release.run();
+				}
+				return read;
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					release.run();
+				}
+			}
+		};
+		return response.newBuilder()
+				.body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+				.build();
+	}
+
+	private static String hostOf(HttpUrl url) {
+		return url.host() + ":" + url.port();
+	}
+}
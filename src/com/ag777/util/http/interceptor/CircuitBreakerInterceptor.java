@@ -0,0 +1,266 @@
+package com.ag777.util.http.interceptor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 熔断拦截器(按host统计)
+ * <p>
+ * 	连续失败(网络异常或返回5xx)达到阈值后熔断(OPEN),熔断期间该host的请求直接抛出CircuitOpenException,不再发出;
+ * 	熔断时间过后进入半开状态(HALF_OPEN),只放行指定数量的探测请求,探测全部成功则恢复(CLOSED),任一失败则重新熔断
+ * </p>
+ * <p>
+ * 	拦截器顺序见HttpUtils.setModeResilience
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月08日,last modify at 2018年06月13日
+ */
+public class CircuitBreakerInterceptor implements Interceptor {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * 状态变化监听,在触发变化的请求线程中回调
+	 */
+	public interface StateListener {
+		void onStateChange(String host, State from, State to);
+	}
+
+	/**
+	 * 熔断期间拒绝请求时抛出
+	 */
+	public static class CircuitOpenException extends IOException {
+		private static final long serialVersionUID = 5046710283521437793L;
+
+		private final String host;
+
+		public CircuitOpenException(String host) {
+			super("熔断中,拒绝请求:" + host);
+			this.host = host;
+		}
+
+		public String getHost() {
+			return host;
+		}
+	}
+
+	private int failureThreshold;
+	private long openMillis;
+	private int halfOpenProbes;
+	private StateListener stateListener;
+	private final Map<String, Breaker> breakerMap;
+
+	/**
+	 * 默认连续失败5次熔断,熔断30秒,半开时放行1个探测请求
+	 */
+	public CircuitBreakerInterceptor() {
+		failureThreshold = 5;
+		openMillis = 30000;
+		halfOpenProbes = 1;
+		breakerMap = new ConcurrentHashMap<>();
+	}
+
+	/*==================配置========================*/
+	/**
+	 * @param failureThreshold 连续失败多少次后熔断
+	 * @return
+	 */
+	public CircuitBreakerInterceptor failureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+		return this;
+	}
+
+	/**
+	 * @param duration 熔断持续时间,过后进入半开状态
+	 * @param unit
+	 * @return
+	 */
+	public CircuitBreakerInterceptor openDuration(long duration, TimeUnit unit) {
+		openMillis = unit.toMillis(duration);
+		return this;
+	}
+
+	/**
+	 * @param halfOpenProbes 半开状态下放行的探测请求数
+	 * @return
+	 */
+	public CircuitBreakerInterceptor halfOpenProbes(int halfOpenProbes) {
+		this.halfOpenProbes = Math.max(1, halfOpenProbes);
+		return this;
+	}
+
+	public CircuitBreakerInterceptor stateListener(StateListener stateListener) {
+		this.stateListener = stateListener;
+		return this;
+	}
+
+	/*==================状态========================*/
+	/**
+	 * 获取host当前的熔断状态(熔断时间已过但还没有请求时仍为OPEN)
+	 * @param host 格式为host:port
+	 * @return
+	 */
+	public State getState(String host) {
+		Breaker breaker = breakerMap.get(host);
+		return breaker == null ? State.CLOSED : breaker.getState();
+	}
+
+	/**
+	 * 手动恢复所有host
+	 */
+	public void reset() {
+		breakerMap.clear();
+	}
+
+	/*==================拦截========================*/
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		String host = hostOf(request.url());
+		Breaker breaker = breakerMap.computeIfAbsent(host, Breaker::new);
+		boolean probe = breaker.acquire();
+		Response response;
+		try {
+			response = chain.proceed(request);
+		} catch(IOException ex) {
+			if(chain.call().isCanceled() || ex instanceof HedgingInterceptor.HedgeAbandonedException) {	//主动放弃的请求不计入失败
+				breaker.release(probe);
+			} else {
+				breaker.onFailure(probe);
+			}
+			throw ex;
+		} catch(RuntimeException ex) {
+			breaker.release(probe);
+			throw ex;
+		}
+		if(response.code() >= 500) {
+			breaker.onFailure(probe);
+		} else {
+			breaker.onSuccess(probe);
+		}
+		return response;
+	}
+
+	private static String hostOf(HttpUrl url) {
+		return url.host() + ":" + url.port();
+	}
+
+	/**
+	 * 单个host的熔断状态
+	 */
+	private class Breaker {
+		private final String host;
+		private State state;
+		private int failures;
+		private long openedAt;
+		private int probesInFlight;
+		private int probeSuccesses;
+
+		Breaker(String host) {
+			this.host = host;
+			state = State.CLOSED;
+		}
+
+		synchronized State getState() {
+			return state;
+		}
+
+		/**
+		 * @return 是否作为半开状态的探测请求放行
+		 */
+		boolean acquire() throws CircuitOpenException {
+			State from;
+			synchronized (this) {
+				if(state == State.CLOSED) {
+					return false;
+				}
+				if(state == State.OPEN) {
+					if(System.currentTimeMillis() - openedAt < openMillis) {
+						throw new CircuitOpenException(host);
+					}
+					probesInFlight = 0;
+					probeSuccesses = 0;
+					from = changeState(State.HALF_OPEN);
+				} else {
+					from = null;
+				}
+				if(probesInFlight + probeSuccesses >= halfOpenProbes) {
+					throw new CircuitOpenException(host);
+				}
+				probesInFlight++;
+			}
+			notifyChange(from, State.HALF_OPEN);
+			return true;
+		}
+
+		void onSuccess(boolean probe) {
+			State from = null;
+			synchronized (this) {
+				failures = 0;
+				if(probe && state == State.HALF_OPEN) {
+					probesInFlight--;
+					probeSuccesses++;
+					if(probeSuccesses >= halfOpenProbes) {
+						from = changeState(State.CLOSED);
+					}
+				}
+			}
+			notifyChange(from, State.CLOSED);
+		}
+
+		void onFailure(boolean probe) {
+			State from = null;
+			synchronized (this) {
+				if(state == State.HALF_OPEN) {
+					if(probe) {
+						from = open();
+					}
+				} else if(state == State.CLOSED && ++failures >= failureThreshold) {
+					from = open();
+				}
+			}
+			notifyChange(from, State.OPEN);
+		}
+
+		/**
+		 * 请求被取消等不计入结果的情况,归还探测名额
+		 */
+		synchronized void release(boolean probe) {
+			if(probe && state == State.HALF_OPEN) {
+				probesInFlight--;
+			}
+		}
+
+		private State open() {
+			openedAt = System.currentTimeMillis();
+			failures = 0;
+			return changeState(State.OPEN);
+		}
+
+		/**
+		 * @return 变化前的状态,没有变化时返回null
+		 */
+		private State changeState(State to) {
+			State from = state;
+			state = to;
+			return from == to ? null : from;
+		}
+
+		private void notifyChange(State from, State to) {
+			StateListener listener = stateListener;
+			if(from != null && listener != null) {
+				listener.onStateChange(host, from, to);
+			}
+		}
+	}
+}
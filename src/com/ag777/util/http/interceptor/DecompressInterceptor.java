@@ -0,0 +1,78 @@
+package com.ag777.util.http.interceptor;
+
+import java.io.IOException;
+import java.util.zip.Inflater;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.InflaterSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * 返回体解压拦截器(gzip/deflate),作为应用拦截器添加
+ * <p>
+ * 	okhttp只在自己添加Accept-Encoding时才自动解压,并且只支持gzip。
+ * 	本拦截器在调用方没有指定Accept-Encoding时添加Accept-Encoding: gzip, deflate,
+ * 	收到压缩的返回时边读边解压,并去掉Content-Encoding/Content-Length头,后续的流式json解析直接读取解压后的内容。
+ * 	调用方自己指定了Accept-Encoding(需要原始压缩数据)或者带Range头(断点续传,偏移量按压缩后的内容计算)的请求原样放行
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月10日,last modify at 2018年06月13日
+ */
+public class DecompressInterceptor implements Interceptor {
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		if(request.header("Accept-Encoding") != null || request.header("Range") != null) {
+			return chain.proceed(request);
+		}
+		Response response = chain.proceed(request.newBuilder()
+				.header("Accept-Encoding", "gzip, deflate")
+				.build());
+		String encoding = response.header("Content-Encoding");
+		ResponseBody body = response.body();
+		if(encoding == null || body == null || !hasBody(response)) {
+			return response;
+		}
+		Source source;
+		if("gzip".equalsIgnoreCase(encoding)) {
+			source = new GzipSource(body.source());
+		} else if("deflate".equalsIgnoreCase(encoding)) {
+			source = inflate(body.source());
+		} else {
+			return response;
+		}
+		return response.newBuilder()
+				.removeHeader("Content-Encoding")
+				.removeHeader("Content-Length")
+				.body(ResponseBody.create(body.contentType(), -1, Okio.buffer(source)))
+				.build();
+	}
+
+	/**
+	 * http的deflate应为zlib格式,但有些服务端返回不带头的原始deflate数据,通过前两个字节判断
+	 */
+	private static Source inflate(BufferedSource source) throws IOException {
+		boolean zlib = false;
+		if(source.request(2)) {
+			int header = (source.buffer().getByte(0) & 0xff) << 8 | (source.buffer().getByte(1) & 0xff);
+			zlib = (header & 0x0f00) == 0x0800 && header % 31 == 0;
+		}
+		return new InflaterSource(source, new Inflater(!zlib));
+	}
+
+	private static boolean hasBody(Response response) {
+		if("HEAD".equals(response.request().method())) {
+			return false;
+		}
+		int code = response.code();
+		return code != 204 && code != 304 && (code < 100 || code >= 200);
+	}
+}
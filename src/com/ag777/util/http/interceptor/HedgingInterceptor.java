@@ -0,0 +1,412 @@
+package com.ag777.util.http.interceptor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ag777.util.other.LatencyHistogram;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 对冲请求拦截器(hedged requests)
+ * <p>
+ * 	幂等请求在调用线程中正常发出(主请求),如果超过对冲延迟仍未返回,再在内部线程池中发出一个相同的请求,取先返回的结果并放弃另一个,用于削减长尾耗时。
+ * 	对冲延迟默认取该host历史耗时的p95(样本不足时使用固定延迟),因此只有约5%的请求会多发一次。
+ * 	对冲请求通过call.clone()发出,会重新经过client上的其他拦截器(本拦截器除外),所以请把本拦截器放在应用拦截器的最外层;
+ * 	执行对冲请求的线程数有上限(maxConcurrentHedges),达到上限时不再对冲
+ * </p>
+ * <p>
+ * 	对冲请求先返回时,需要通过getNetworkInterceptor()(作为网络拦截器添加)关闭主请求所在的连接来中止主请求,
+ * 	这样外部请求本身不会被取消(异步请求仍然回调onResponse);http/2的连接被多个请求共用不能关闭,此时仍等待主请求返回后再使用对冲请求的结果。
+ * 	ClientConfig.resilience会自动添加这两个拦截器,拦截器顺序见HttpUtils.setModeResilience
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月08日,last modify at 2018年06月13日
+ */
+public class HedgingInterceptor implements Interceptor {
+
+	private static final long POLL_MILLIS = 100;	//等待对冲请求时检查外部请求是否被取消的间隔
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, daemon("http-hedging-timer"));
+
+	static {
+		TIMER.setRemoveOnCancelPolicy(true);	//大部分请求在对冲延迟内返回,取消的定时任务立即移除
+	}
+
+	private long delayMillis;
+	private double percentile;
+	private int minSamples;
+	private final ThreadPoolExecutor executor;	//执行对冲请求
+	private final Set<Call> innerCallSet;	//本拦截器发出的请求,不再对冲
+	private final Map<Call, Race> raceMap;	//进行中的外部请求
+	private final Map<String, LatencyHistogram> latencyMap;
+	private final AtomicLong hedgeCount;
+	private final AtomicLong hedgeWinCount;
+	private final AtomicLong hedgeRejectedCount;
+	private final Interceptor networkInterceptor;
+
+	/**
+	 * 默认对冲延迟为该host耗时的p95,样本少于20个时为500毫秒,最多同时执行16个对冲请求
+	 */
+	public HedgingInterceptor() {
+		delayMillis = 500;
+		percentile = 95;
+		minSamples = 20;
+		executor = new ThreadPoolExecutor(0, 16, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), daemon("http-hedging"));
+		innerCallSet = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		raceMap = new ConcurrentHashMap<>();
+		latencyMap = new ConcurrentHashMap<>();
+		hedgeCount = new AtomicLong(0);
+		hedgeWinCount = new AtomicLong(0);
+		hedgeRejectedCount = new AtomicLong(0);
+		networkInterceptor = this::interceptNetwork;
+	}
+
+	/*==================配置========================*/
+	/**
+	 * 设置固定对冲延迟(开启按百分位计算时作为样本不足时的延迟)
+	 * @param delay
+	 * @param unit
+	 * @return
+	 */
+	public HedgingInterceptor delay(long delay, TimeUnit unit) {
+		delayMillis = unit.toMillis(delay);
+		return this;
+	}
+
+	/**
+	 * 按host历史耗时的百分位计算对冲延迟
+	 * @param percentile 0-100,小于等于0则只使用固定延迟
+	 * @param minSamples 样本数达到多少后开始使用百分位
+	 * @return
+	 */
+	public HedgingInterceptor percentile(double percentile, int minSamples) {
+		this.percentile = percentile;
+		this.minSamples = minSamples;
+		return this;
+	}
+
+	/**
+	 * 最多同时执行的对冲请求数(即内部线程数),超出时该请求不再对冲
+	 * @param maxConcurrentHedges
+	 * @return
+	 */
+	public HedgingInterceptor maxConcurrentHedges(int maxConcurrentHedges) {
+		executor.setMaximumPoolSize(Math.max(maxConcurrentHedges, 1));
+		return this;
+	}
+
+	/**
+	 * @return 用于中止主请求的网络拦截器,需要添加到同一个client的网络拦截器中
+	 */
+	public Interceptor getNetworkInterceptor() {
+		return networkInterceptor;
+	}
+
+	/*==================统计========================*/
+	/**
+	 * @return 发出对冲请求的次数
+	 */
+	public long getHedgeCount() {
+		return hedgeCount.get();
+	}
+
+	/**
+	 * @return 对冲请求先返回的次数
+	 */
+	public long getHedgeWinCount() {
+		return hedgeWinCount.get();
+	}
+
+	/**
+	 * @return 因为对冲请求数达到上限而没有对冲的次数
+	 */
+	public long getHedgeRejectedCount() {
+		return hedgeRejectedCount.get();
+	}
+
+	/**
+	 * 获取host的耗时统计(毫秒),可以调用reset清空
+	 * @param host 格式为host:port
+	 * @return 没有请求过时返回null
+	 */
+	public LatencyHistogram getLatency(String host) {
+		return latencyMap.get(host);
+	}
+
+	/**
+	 * @param host 格式为host:port
+	 * @return 该host当前的对冲延迟(毫秒)
+	 */
+	public long getHedgeDelay(String host) {
+		LatencyHistogram latency = latencyMap.get(host);
+		if(percentile <= 0 || latency == null || latency.count() < minSamples) {
+			return delayMillis;
+		}
+		return latency.percentile(percentile);
+	}
+
+	/*==================拦截========================*/
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Call call = chain.call();
+		Request request = chain.request();
+		if(innerCallSet.contains(call) || !RetryInterceptor.isIdempotent(request.method())) {
+			return chain.proceed(request);
+		}
+		String host = hostOf(request.url());
+		LatencyHistogram latency = latencyMap.computeIfAbsent(host, key->new LatencyHistogram());
+		Race race = new Race(call);
+		raceMap.put(call, race);
+		long begin = System.currentTimeMillis();
+		ScheduledFuture<?> timer = TIMER.schedule(race::launch, getHedgeDelay(host), TimeUnit.MILLISECONDS);
+		Response result = null;
+		try {
+			Response response;
+			try {
+				response = chain.proceed(request);
+			} catch(IOException ex) {	//主请求失败,或者对冲请求先返回后被中止
+				timer.cancel(false);
+				result = race.awaitHedge(ex);
+				latency.record(System.currentTimeMillis() - begin);	//对冲获胜时为主请求耗时的下限
+				return result;
+			}
+			result = race.primaryDone(response);
+			latency.record(System.currentTimeMillis() - begin);
+			return result;
+		} finally {
+			timer.cancel(false);
+			raceMap.remove(call);
+			race.finish(result);
+		}
+	}
+
+	/**
+	 * 网络拦截器:记录主请求使用的连接,主请求被放弃后抛出HedgeAbandonedException(不会被重试)
+	 */
+	private Response interceptNetwork(Chain chain) throws IOException {
+		Race race = raceMap.get(chain.call());
+		if(race == null) {
+			return chain.proceed(chain.request());
+		}
+		race.connection = chain.connection();
+		try {
+			if(race.abandoned) {
+				throw new HedgeAbandonedException(null);
+			}
+			return chain.proceed(chain.request());
+		} catch(IOException ex) {
+			if(race.abandoned && !(ex instanceof HedgeAbandonedException)) {
+				throw new HedgeAbandonedException(ex);
+			}
+			throw ex;
+		} finally {
+			race.connection = null;
+		}
+	}
+
+	private static String hostOf(HttpUrl url) {
+		return url.host() + ":" + url.port();
+	}
+
+	private static ThreadFactory daemon(String name) {
+		return r->{
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * 对冲请求先返回,主请求被中止时抛出的异常,重试和熔断拦截器不处理该异常
+	 */
+	public static class HedgeAbandonedException extends InterruptedIOException {
+		private static final long serialVersionUID = 1L;
+
+		public HedgeAbandonedException(IOException cause) {
+			super("对冲请求已先返回,主请求被中止");
+			if(cause != null) {
+				initCause(cause);
+			}
+		}
+	}
+
+	/**
+	 * 一次外部请求中主请求和对冲请求的竞争
+	 */
+	private class Race {
+		final Call call;
+		volatile boolean abandoned;	//对冲请求先返回,主请求被放弃
+		volatile Connection connection;	//主请求当前使用的连接
+		private boolean done;	//已经决出结果(或外部请求已结束)
+		private Call hedgeCall;
+		private CompletableFuture<Response> hedgeResult;	//对冲请求获胜时为其返回,失败时为异常,落败时为null
+
+		Race(Call call) {
+			this.call = call;
+		}
+
+		/**
+		 * 到达对冲延迟,发出对冲请求(在定时线程中执行)
+		 */
+		void launch() {
+			Call inner;
+			CompletableFuture<Response> result = new CompletableFuture<>();
+			synchronized (this) {
+				if(done || call.isCanceled()) {
+					return;
+				}
+				inner = call.clone();
+				hedgeCall = inner;
+				hedgeResult = result;
+			}
+			innerCallSet.add(inner);
+			try {
+				executor.execute(()->run(inner, result));
+			} catch(RejectedExecutionException ex) {
+				innerCallSet.remove(inner);
+				hedgeRejectedCount.incrementAndGet();
+				result.completeExceptionally(ex);
+				return;
+			}
+			hedgeCount.incrementAndGet();
+		}
+
+		private void run(Call inner, CompletableFuture<Response> result) {
+			Response response;
+			try {
+				response = inner.execute();
+			} catch(IOException|RuntimeException ex) {
+				result.completeExceptionally(ex);
+				return;
+			} finally {
+				innerCallSet.remove(inner);
+			}
+			boolean won;
+			synchronized (this) {
+				won = !done;
+				done = true;
+			}
+			if(!won) {	//主请求已经返回
+				response.close();
+				result.complete(null);
+				return;
+			}
+			hedgeWinCount.incrementAndGet();
+			result.complete(response);
+			abortPrimary();
+		}
+
+		/**
+		 * 关闭主请求所在的http/1连接,使阻塞在读取返回上的主请求立即失败
+		 */
+		private void abortPrimary() {
+			abandoned = true;
+			Connection conn = connection;
+			if(conn != null && (conn.protocol() == Protocol.HTTP_1_1 || conn.protocol() == Protocol.HTTP_1_0)) {
+				try {
+					conn.socket().close();
+				} catch (IOException ex) {
+				}
+			}
+		}
+
+		/**
+		 * 主请求返回
+		 * @return 对冲请求已经先返回时关闭主请求的返回,使用对冲请求的结果
+		 */
+		Response primaryDone(Response response) {
+			CompletableFuture<Response> result;
+			synchronized (this) {
+				if(!done) {
+					done = true;
+					return response;
+				}
+				result = hedgeResult;
+			}
+			response.close();
+			return result.join();
+		}
+
+		/**
+		 * 主请求失败,有对冲请求时等待其结果
+		 * @param primaryError 主请求的异常,对冲请求也失败时抛出
+		 */
+		Response awaitHedge(IOException primaryError) throws IOException {
+			CompletableFuture<Response> result;
+			synchronized (this) {
+				result = hedgeResult;
+				if(result == null) {
+					done = true;	//不再发出对冲请求
+					throw primaryError;
+				}
+			}
+			while(true) {
+				try {
+					Response response = result.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if(response == null) {
+						throw primaryError;
+					}
+					return response;
+				} catch(TimeoutException ex) {
+					if(call.isCanceled()) {
+						throw new IOException("Canceled");
+					}
+				} catch(ExecutionException ex) {
+					throw primaryError;
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("等待对冲请求被中断");
+				}
+			}
+		}
+
+		/**
+		 * 外部请求结束:取消未使用的对冲请求,关闭晚到的返回
+		 * @param returned 返回给调用方的结果,失败时为null
+		 */
+		void finish(Response returned) {
+			Call inner;
+			CompletableFuture<Response> result;
+			synchronized (this) {
+				done = true;
+				inner = hedgeCall;
+				result = hedgeResult;
+			}
+			if(inner == null) {
+				return;
+			}
+			boolean hedgeReturned = returned != null && result.isDone() && !result.isCompletedExceptionally()
+					&& result.join() == returned;
+			if(!hedgeReturned) {
+				inner.cancel();
+			}
+			result.thenAccept(response->{
+				if(response != null && response != returned) {
+					response.close();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.ag777.util.http.interceptor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 失败重试拦截器(指数退避+随机抖动)
+ * <p>
+ * 	只重试幂等请求(GET/HEAD/PUT/DELETE/OPTIONS/TRACE),出现网络异常或返回可重试的状态码(默认408/429/502/503/504)时重试。
+ * 	第n次重试前等待[0, min(最大间隔, 基础间隔*2^n)]之间的随机时间(full jitter),避免大量客户端同时重试压垮下游;
+ * 	返回头带Retry-After(秒)时按其等待(不超过最大间隔)。
+ * 	熔断器拒绝(CircuitOpenException)、对冲请求先返回(HedgeAbandonedException)和请求被取消时不重试
+ * </p>
+ * <p>
+ * 	拦截器顺序见HttpUtils.setModeResilience
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月08日,last modify at 2018年06月13日
+ */
+public class RetryInterceptor implements Interceptor {
+
+	private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+			new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE")));
+
+	private int maxRetries;
+	private long baseDelayMillis;
+	private long maxDelayMillis;
+	private Set<Integer> retryCodeSet;
+	private final AtomicLong retryCount;
+
+	/**
+	 * 默认最多重试3次,基础间隔100毫秒,最大间隔5秒
+	 */
+	public RetryInterceptor() {
+		maxRetries = 3;
+		baseDelayMillis = 100;
+		maxDelayMillis = 5000;
+		retryCodeSet = new HashSet<>(Arrays.asList(408, 429, 502, 503, 504));
+		retryCount = new AtomicLong(0);
+	}
+
+	/**
+	 * 判断请求方法是否幂等
+	 * @param method
+	 * @return
+	 */
+	public static boolean isIdempotent(String method) {
+		return IDEMPOTENT_METHODS.contains(method);
+	}
+
+	/*==================配置========================*/
+	/**
+	 * @param maxRetries 最大重试次数(不包括第一次请求)
+	 * @return
+	 */
+	public RetryInterceptor maxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	/**
+	 * 设置退避间隔
+	 * @param baseDelay 基础间隔
+	 * @param maxDelay 最大间隔
+	 * @param unit
+	 * @return
+	 */
+	public RetryInterceptor backoff(long baseDelay, long maxDelay, TimeUnit unit) {
+		baseDelayMillis = unit.toMillis(baseDelay);
+		maxDelayMillis = unit.toMillis(maxDelay);
+		return this;
+	}
+
+	/**
+	 * 设置需要重试的返回码,覆盖默认值
+	 * @param codes
+	 * @return
+	 */
+	public RetryInterceptor retryOnCodes(Integer... codes) {
+		retryCodeSet = new HashSet<>(Arrays.asList(codes));
+		return this;
+	}
+
+	/*==================统计========================*/
+	/**
+	 * @return 累计重试次数
+	 */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	/*==================拦截========================*/
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		if(maxRetries <= 0 || !isIdempotent(request.method())) {
+			return chain.proceed(request);
+		}
+		for (int attempt = 0;; attempt++) {
+			Response response = null;
+			IOException error = null;
+			try {
+				response = chain.proceed(request);
+			} catch(CircuitBreakerInterceptor.CircuitOpenException|HedgingInterceptor.HedgeAbandonedException ex) {
+				throw ex;
+			} catch(IOException ex) {
+				error = ex;
+			}
+			boolean retryable = response == null ? !chain.call().isCanceled() : retryCodeSet.contains(response.code());
+			if(!retryable || attempt >= maxRetries) {
+				if(response != null) {
+					return response;
+				}
+				throw error;
+			}
+			long delay = delayOf(attempt, response);
+			if(response != null) {
+				response.close();
+			}
+			retryCount.incrementAndGet();
+			sleep(delay);
+			if(chain.call().isCanceled()) {
+				throw new IOException("Canceled");
+			}
+		}
+	}
+
+	/**
+	 * 计算第attempt次重试前的等待时间
+	 */
+	private long delayOf(int attempt, Response response) {
+		if(response != null) {
+			String retryAfter = response.header("Retry-After");
+			if(retryAfter != null) {
+				try {
+					return Math.min(maxDelayMillis, Math.max(0, Long.parseLong(retryAfter.trim()) * 1000));
+				} catch(NumberFormatException ex) {	//http日期格式,按指数退避处理
+				}
+			}
+		}
+		long ceiling = baseDelayMillis << Math.min(attempt, 30);
+		if(ceiling <= 0 || ceiling > maxDelayMillis) {
+			ceiling = maxDelayMillis;
+		}
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		if(millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("重试等待被中断");
+		}
+	}
+}
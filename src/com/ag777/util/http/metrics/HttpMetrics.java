@@ -0,0 +1,329 @@
+package com.ag777.util.http.metrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ag777.util.http.HttpUtils;
+import com.ag777.util.other.LatencyHistogram;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * http请求统计(基于okhttp的EventListener)
+ * <p>
+ * 	按host统计各阶段耗时(微秒):dns解析、建立连接、tls握手、首字节(开始发送请求头到收到完整响应头)、整个请求,
+ * 	以及连接复用率、发送/接收字节数(只统计请求体/返回体)、失败次数;
+ * 	全局统计每次请求开始时调度器排队的请求数,快照中附带当前调度器和连接池的状态,用于调整连接池和并发数。
+ * 	通过ClientConfig.eventListenerFactory(metrics)或HttpUtils.setModeMetrics(metrics)启用,
+ * 	多个配置可以共用一个实例
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	HttpMetrics metrics = new HttpMetrics();
+ * 	HttpUtils.setModeMetrics(metrics);
+ * 	...
+ * 	System.out.println(metrics.snapshot());
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月09日,last modify at 2018年06月09日
+ */
+public class HttpMetrics implements EventListener.Factory {
+
+	private final Map<String, HostMetrics> hostMap;
+	private final LatencyHistogram queueDepth;
+
+	public HttpMetrics() {
+		hostMap = new ConcurrentHashMap<>();
+		queueDepth = new LatencyHistogram();
+	}
+
+	@Override
+	public EventListener create(Call call) {
+		return new CallListener(call.request().url());
+	}
+
+	/*==================获取========================*/
+	/**
+	 * @param host 格式为host:port
+	 * @return 没有请求过时返回null
+	 */
+	public HostMetrics getHost(String host) {
+		return hostMap.get(host);
+	}
+
+	/**
+	 * @return 每次请求开始时调度器中排队的请求数
+	 */
+	public LatencyHistogram getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * 获取当前统计快照
+	 * <p>
+	 * 	结构:{dispatcher:{queued, running, queueDepth}, connectionPool:{connections, idle}, hosts:{host:port:{...}}}
+	 * </p>
+	 * @return
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		Dispatcher dispatcher = HttpUtils.dispatcher();
+		Map<String, Object> dispatcherMap = new LinkedHashMap<>();
+		dispatcherMap.put("queued", dispatcher.queuedCallsCount());
+		dispatcherMap.put("running", dispatcher.runningCallsCount());
+		dispatcherMap.put("maxRequests", dispatcher.getMaxRequests());
+		dispatcherMap.put("maxRequestsPerHost", dispatcher.getMaxRequestsPerHost());
+		dispatcherMap.put("queueDepth", queueDepth.stats());
+		map.put("dispatcher", dispatcherMap);
+		ConnectionPool pool = HttpUtils.connectionPool();
+		Map<String, Object> poolMap = new LinkedHashMap<>();
+		poolMap.put("connections", pool.connectionCount());
+		poolMap.put("idle", pool.idleConnectionCount());
+		map.put("connectionPool", poolMap);
+		Map<String, Object> hosts = new TreeMap<>();
+		for (Map.Entry<String, HostMetrics> entry : hostMap.entrySet()) {
+			hosts.put(entry.getKey(), entry.getValue().stats());
+		}
+		map.put("hosts", hosts);
+		return map;
+	}
+
+	/**
+	 * 清空所有统计
+	 */
+	public void reset() {
+		hostMap.clear();
+		queueDepth.reset();
+	}
+
+	private HostMetrics hostOf(HttpUrl url) {
+		return hostMap.computeIfAbsent(url.host() + ":" + url.port(), key->new HostMetrics());
+	}
+
+	private static long micros(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * 单个host的统计
+	 */
+	public static class HostMetrics {
+		private final LatencyHistogram dns = new LatencyHistogram();
+		private final LatencyHistogram connect = new LatencyHistogram();
+		private final LatencyHistogram tls = new LatencyHistogram();
+		private final LatencyHistogram ttfb = new LatencyHistogram();
+		private final LatencyHistogram total = new LatencyHistogram();
+		private final AtomicLong callCount = new AtomicLong(0);
+		private final AtomicLong failedCount = new AtomicLong(0);
+		private final AtomicLong newConnectionCount = new AtomicLong(0);
+		private final AtomicLong reusedConnectionCount = new AtomicLong(0);
+		private final AtomicLong bytesOut = new AtomicLong(0);
+		private final AtomicLong bytesIn = new AtomicLong(0);
+
+		/**
+		 * @return dns解析耗时(微秒)
+		 */
+		public LatencyHistogram getDns() {
+			return dns;
+		}
+
+		/**
+		 * @return 建立连接耗时(微秒),包括tls握手
+		 */
+		public LatencyHistogram getConnect() {
+			return connect;
+		}
+
+		/**
+		 * @return tls握手耗时(微秒)
+		 */
+		public LatencyHistogram getTls() {
+			return tls;
+		}
+
+		/**
+		 * @return 从开始发送请求头到收到完整响应头的耗时(微秒),包括上传请求体
+		 */
+		public LatencyHistogram getTtfb() {
+			return ttfb;
+		}
+
+		/**
+		 * @return 成功请求的总耗时(微秒),到返回体读取完毕或关闭为止
+		 */
+		public LatencyHistogram getTotal() {
+			return total;
+		}
+
+		public long getCallCount() {
+			return callCount.get();
+		}
+
+		public long getFailedCount() {
+			return failedCount.get();
+		}
+
+		public long getNewConnectionCount() {
+			return newConnectionCount.get();
+		}
+
+		public long getReusedConnectionCount() {
+			return reusedConnectionCount.get();
+		}
+
+		/**
+		 * @return 连接复用率(0-1),没有获取过连接时为0
+		 */
+		public double getReuseRatio() {
+			long reused = reusedConnectionCount.get();
+			long all = reused + newConnectionCount.get();
+			return all == 0 ? 0 : (double) reused / all;
+		}
+
+		public long getBytesOut() {
+			return bytesOut.get();
+		}
+
+		public long getBytesIn() {
+			return bytesIn.get();
+		}
+
+		public Map<String, Object> stats() {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("calls", getCallCount());
+			map.put("failed", getFailedCount());
+			map.put("newConnections", getNewConnectionCount());
+			map.put("reusedConnections", getReusedConnectionCount());
+			map.put("reuseRatio", getReuseRatio());
+			map.put("bytesOut", getBytesOut());
+			map.put("bytesIn", getBytesIn());
+			map.put("dns", dns.stats());
+			map.put("connect", connect.stats());
+			map.put("tls", tls.stats());
+			map.put("ttfb", ttfb.stats());
+			map.put("total", total.stats());
+			return map;
+		}
+
+		@Override
+		public String toString() {
+			return stats().toString();
+		}
+	}
+
+	/**
+	 * 单次请求的监听,同一个请求的事件按顺序回调,不需要同步
+	 */
+	private class CallListener extends EventListener {
+		private final HostMetrics host;	//重定向到其他host时仍计入原host
+		private long callStart;
+		private long dnsStart;
+		private long connectStart;
+		private long tlsStart;
+		private long requestStart;
+		private boolean connected;	//获取连接前是否新建了连接
+
+		CallListener(HttpUrl url) {
+			host = hostOf(url);
+		}
+
+		@Override
+		public void callStart(Call call) {
+			callStart = System.nanoTime();
+			host.callCount.incrementAndGet();
+			queueDepth.record(HttpUtils.dispatcher().queuedCallsCount());
+		}
+
+		@Override
+		public void dnsStart(Call call, String domainName) {
+			dnsStart = System.nanoTime();
+		}
+
+		@Override
+		public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+			host.dns.record(micros(dnsStart));
+		}
+
+		@Override
+		public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+			connectStart = System.nanoTime();
+		}
+
+		@Override
+		public void secureConnectStart(Call call) {
+			tlsStart = System.nanoTime();
+		}
+
+		@Override
+		public void secureConnectEnd(Call call, Handshake handshake) {
+			host.tls.record(micros(tlsStart));
+		}
+
+		@Override
+		public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+			host.connect.record(micros(connectStart));
+			connected = true;
+		}
+
+		@Override
+		public void connectionAcquired(Call call, Connection connection) {
+			if(connected) {
+				host.newConnectionCount.incrementAndGet();
+				connected = false;
+			} else {
+				host.reusedConnectionCount.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void requestHeadersStart(Call call) {
+			requestStart = System.nanoTime();
+		}
+
+		@Override
+		public void requestBodyEnd(Call call, long byteCount) {
+			host.bytesOut.addAndGet(byteCount);
+		}
+
+		@Override
+		public void responseHeadersEnd(Call call, Response response) {	//responseHeadersStart在开始等待时就回调,不能代表首字节
+			host.ttfb.record(micros(requestStart));
+		}
+
+		@Override
+		public void responseBodyEnd(Call call, long byteCount) {
+			host.bytesIn.addAndGet(byteCount);
+		}
+
+		@Override
+		public void callEnd(Call call) {
+			host.total.record(micros(callStart));
+		}
+
+		@Override
+		public void callFailed(Call call, IOException ioe) {
+			host.failedCount.incrementAndGet();
+		}
+	}
+}
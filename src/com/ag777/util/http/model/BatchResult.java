@@ -0,0 +1,72 @@
+package com.ag777.util.http.model;
+
+import okhttp3.Request;
+
+/**
+ * 批量请求中单个请求的结果
+ *
+ * @author ag777
+ * @version create on 2018年06月06日,last modify at 2018年06月06日
+ */
+public class BatchResult<T> {
+
+	private final int index;
+	private final Request request;
+	private final T value;
+	private final Exception error;
+	private final long elapsedMillis;
+
+	public BatchResult(int index, Request request, T value, Exception error, long elapsedMillis) {
+		this.index = index;
+		this.request = request;
+		this.value = value;
+		this.error = error;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return 在请求列表中的下标
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public Request getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return 处理结果,失败时为null
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	/**
+	 * @return 失败原因,成功时为null(超时为InterruptedIOException,取消为CancellationException)
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * @return 从发出请求到处理完成的耗时,未发出时为0
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append('[').append(index).append(']')
+				.append(request == null ? "" : request.url())
+				.append(isSuccess() ? " 成功" : " 失败:"+error)
+				.append(",用时:").append(elapsedMillis).append("ms")
+				.toString();
+	}
+}
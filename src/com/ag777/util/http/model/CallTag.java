@@ -0,0 +1,101 @@
+package com.ag777.util.http.model;
+
+import java.util.Objects;
+
+/**
+ * 分层的请求标记(比如 租户->会话)
+ * <p>
+ * 	作为请求的tag使用,HttpUtils.cancelAll(client, tag)取消某一层时,其下所有子标记的请求一起取消。
+ * 	同一路径的标记equals相同,可以随时重新构建
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	CallTag tenant = CallTag.of("tenant-1");
+ * 	HttpHelper helper = new HttpHelper(HttpUtils.client(), tenant.child(sessionId));
+ * 	...
+ * 	HttpUtils.cancelAll(HttpUtils.client(), tenant);	//取消该租户下所有会话的请求
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月12日,last modify at 2018年06月12日
+ */
+public final class CallTag {
+
+	private final CallTag parent;
+	private final Object name;
+	private final int hash;
+
+	private CallTag(CallTag parent, Object name) {
+		this.parent = parent;
+		this.name = Objects.requireNonNull(name, "name不能为null");
+		this.hash = 31 * Objects.hashCode(parent) + name.hashCode();
+	}
+
+	/**
+	 * 构建顶层标记
+	 * @param name
+	 * @return
+	 */
+	public static CallTag of(Object name) {
+		return new CallTag(null, name);
+	}
+
+	/**
+	 * 构建子标记
+	 * @param name
+	 * @return
+	 */
+	public CallTag child(Object name) {
+		return new CallTag(this, name);
+	}
+
+	/**
+	 * @return 顶层标记返回null
+	 */
+	public CallTag getParent() {
+		return parent;
+	}
+
+	public Object getName() {
+		return name;
+	}
+
+	/**
+	 * 判断是否是另一个标记的子孙(或相同)
+	 * @param ancestor
+	 * @return
+	 */
+	public boolean isUnder(CallTag ancestor) {
+		for (CallTag tag = this; tag != null; tag = tag.parent) {
+			if(tag.equals(ancestor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof CallTag)) {
+			return false;
+		}
+		CallTag other = (CallTag) obj;
+		return hash == other.hash && name.equals(other.name) && Objects.equals(parent, other.parent);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return parent == null ? String.valueOf(name) : parent.toString() + "/" + name;
+	}
+}
@@ -0,0 +1,281 @@
+package com.ag777.util.http.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ag777.util.http.cache.HttpResponseCache;
+import com.ag777.util.http.interceptor.BulkheadInterceptor;
+import com.ag777.util.http.interceptor.CircuitBreakerInterceptor;
+import com.ag777.util.http.interceptor.HedgingInterceptor;
+import com.ag777.util.http.interceptor.RetryInterceptor;
+
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+
+/**
+ * okhttp客户端配置(配合HttpUtils.registerProfile使用)
+ * <p>
+ * 	同一配置名对应的client只构建一次,所有配置共用HttpUtils中的连接池和线程调度器,
+ * 	连接池和每个host的最大并发数通过HttpUtils.configConnectionPool/configDispatcher全局设置
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月03日,last modify at 2018年06月13日
+ */
+public class ClientConfig {
+
+	private long connectTimeout;	//毫秒
+	private long readTimeout;
+	private long writeTimeout;
+	private boolean retryOnConnectionFailure;
+	private boolean followRedirects;
+	private boolean trustAllSsl;
+	private boolean decompress;
+	private final List<Interceptor> interceptorList;
+	private final List<Interceptor> networkInterceptorList;
+	private final List<Interceptor> resilienceList;	//resilience添加的拦截器,再次调用时替换
+	private final List<Interceptor> resilienceNetworkList;
+	private HttpResponseCache cache;
+	private final List<EventListener.Factory> eventListenerFactoryList;
+
+	/**
+	 * 默认配置:超时都为15秒,连接失败重试,跟随重定向,信任所有https证书
+	 */
+	public ClientConfig() {
+		connectTimeout = 15000;
+		readTimeout = 15000;
+		writeTimeout = 15000;
+		retryOnConnectionFailure = true;
+		followRedirects = true;
+		trustAllSsl = true;
+		interceptorList = new ArrayList<>();
+		networkInterceptorList = new ArrayList<>();
+		resilienceList = new ArrayList<>();
+		resilienceNetworkList = new ArrayList<>();
+		eventListenerFactoryList = new ArrayList<>();
+	}
+
+	/**
+	 * 复制一份配置,用于在已有配置的基础上修改
+	 * @return
+	 */
+	public ClientConfig copy() {
+		ClientConfig config = new ClientConfig()
+				.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+				.readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+				.writeTimeout(writeTimeout, TimeUnit.MILLISECONDS)
+				.retryOnConnectionFailure(retryOnConnectionFailure)
+				.followRedirects(followRedirects)
+				.trustAllSsl(trustAllSsl)
+				.decompress(decompress)
+				.cache(cache);
+		config.interceptorList.addAll(interceptorList);
+		config.networkInterceptorList.addAll(networkInterceptorList);
+		config.resilienceList.addAll(resilienceList);
+		config.resilienceNetworkList.addAll(resilienceNetworkList);
+		config.eventListenerFactoryList.addAll(eventListenerFactoryList);
+		return config;
+	}
+
+	/*==================配置========================*/
+	public ClientConfig connectTimeout(long timeout, TimeUnit unit) {
+		connectTimeout = unit.toMillis(timeout);
+		return this;
+	}
+
+	public ClientConfig readTimeout(long timeout, TimeUnit unit) {
+		readTimeout = unit.toMillis(timeout);
+		return this;
+	}
+
+	public ClientConfig writeTimeout(long timeout, TimeUnit unit) {
+		writeTimeout = unit.toMillis(timeout);
+		return this;
+	}
+
+	/**
+	 * 同时设置连接/读/写超时
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 */
+	public ClientConfig timeout(long timeout, TimeUnit unit) {
+		return connectTimeout(timeout, unit)
+				.readTimeout(timeout, unit)
+				.writeTimeout(timeout, unit);
+	}
+
+	public ClientConfig retryOnConnectionFailure(boolean retryOnConnectionFailure) {
+		this.retryOnConnectionFailure = retryOnConnectionFailure;
+		return this;
+	}
+
+	public ClientConfig followRedirects(boolean followRedirects) {
+		this.followRedirects = followRedirects;
+		return this;
+	}
+
+	/**
+	 * 是否信任所有https证书(不校验证书和域名)
+	 * @param trustAllSsl
+	 * @return
+	 */
+	public ClientConfig trustAllSsl(boolean trustAllSsl) {
+		this.trustAllSsl = trustAllSsl;
+		return this;
+	}
+
+	/**
+	 * 是否自动解压gzip/deflate压缩的返回(调用方没有指定Accept-Encoding时请求头带上Accept-Encoding: gzip, deflate)
+	 * @param decompress
+	 * @return
+	 * @see com.ag777.util.http.interceptor.DecompressInterceptor
+	 */
+	public ClientConfig decompress(boolean decompress) {
+		this.decompress = decompress;
+		return this;
+	}
+
+	/**
+	 * 添加应用拦截器
+	 * @param interceptor
+	 * @return
+	 */
+	public ClientConfig addInterceptor(Interceptor interceptor) {
+		interceptorList.add(interceptor);
+		return this;
+	}
+
+	/**
+	 * 添加网络拦截器
+	 * @param interceptor
+	 * @return
+	 */
+	public ClientConfig addNetworkInterceptor(Interceptor interceptor) {
+		networkInterceptorList.add(interceptor);
+		return this;
+	}
+
+	/**
+	 * 按推荐顺序设置容错拦截器(对冲->重试->熔断->舱壁),传null的跳过
+	 * <p>
+	 * 	对冲在最外层,两次请求各自经过重试/熔断/舱壁;重试在熔断外层,每次重试都会被熔断器统计,熔断后不再重试;
+	 * 	舱壁在最内层,只在真正发出请求时占用名额;同时添加对冲拦截器配套的网络拦截器。
+	 * 	重复调用时先移除上次通过该方法添加的拦截器再添加(全部传null即关闭容错)
+	 * </p>
+	 * @param hedging
+	 * @param retry
+	 * @param circuitBreaker
+	 * @param bulkhead
+	 * @return
+	 */
+	public ClientConfig resilience(HedgingInterceptor hedging, RetryInterceptor retry, CircuitBreakerInterceptor circuitBreaker, BulkheadInterceptor bulkhead) {
+		removeSame(interceptorList, resilienceList);
+		removeSame(networkInterceptorList, resilienceNetworkList);
+		resilienceList.clear();
+		resilienceNetworkList.clear();
+		for (Interceptor interceptor : new Interceptor[]{hedging, retry, circuitBreaker, bulkhead}) {
+			if(interceptor != null) {
+				resilienceList.add(interceptor);
+			}
+		}
+		if(hedging != null) {	//用于对冲请求先返回时中止主请求
+			resilienceNetworkList.add(hedging.getNetworkInterceptor());
+		}
+		interceptorList.addAll(resilienceList);
+		networkInterceptorList.addAll(resilienceNetworkList);
+		return this;
+	}
+	
+	/**
+	 * 设置返回缓存(磁盘+可选的内存层),传null则不缓存
+	 * @param cache
+	 * @return
+	 */
+	public ClientConfig cache(HttpResponseCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * 设置请求事件监听(比如HttpMetrics),替换之前添加的所有监听,传null则不监听
+	 * @param eventListenerFactory
+	 * @return
+	 */
+	public ClientConfig eventListenerFactory(EventListener.Factory eventListenerFactory) {
+		eventListenerFactoryList.clear();
+		return addEventListenerFactory(eventListenerFactory);
+	}
+
+	/**
+	 * 添加请求事件监听,多个监听按添加顺序回调
+	 * @param eventListenerFactory 传null忽略
+	 * @return
+	 */
+	public ClientConfig addEventListenerFactory(EventListener.Factory eventListenerFactory) {
+		if(eventListenerFactory != null) {
+			eventListenerFactoryList.add(eventListenerFactory);
+		}
+		return this;
+	}
+
+	/**
+	 * 按引用移除(每个只移除一次,不影响通过addInterceptor添加的同一个实例)
+	 */
+	private static void removeSame(List<Interceptor> list, List<Interceptor> removeList) {
+		for (Interceptor interceptor : removeList) {
+			for (int i = list.size()-1; i >= 0; i--) {
+				if(list.get(i) == interceptor) {
+					list.remove(i);
+					break;
+				}
+			}
+		}
+	}
+
+	/*==================获取========================*/
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public long getReadTimeout() {
+		return readTimeout;
+	}
+
+	public long getWriteTimeout() {
+		return writeTimeout;
+	}
+
+	public boolean isRetryOnConnectionFailure() {
+		return retryOnConnectionFailure;
+	}
+
+	public boolean isFollowRedirects() {
+		return followRedirects;
+	}
+
+	public boolean isTrustAllSsl() {
+		return trustAllSsl;
+	}
+
+	public boolean isDecompress() {
+		return decompress;
+	}
+
+	public List<Interceptor> getInterceptorList() {
+		return new ArrayList<>(interceptorList);
+	}
+
+	public List<Interceptor> getNetworkInterceptorList() {
+		return new ArrayList<>(networkInterceptorList);
+	}
+
+	public HttpResponseCache getCache() {
+		return cache;
+	}
+
+	public List<EventListener.Factory> getEventListenerFactoryList() {
+		return new ArrayList<>(eventListenerFactoryList);
+	}
+}
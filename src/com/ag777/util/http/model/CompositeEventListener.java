@@ -0,0 +1,196 @@
+package com.ag777.util.http.model;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 组合多个EventListener(okhttp的client只能设置一个监听工厂)
+ * <p>
+ * 	按添加顺序依次回调
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月12日,last modify at 2018年06月12日
+ */
+public class CompositeEventListener extends EventListener {
+
+	private final EventListener[] listeners;
+
+	public CompositeEventListener(EventListener... listeners) {
+		this.listeners = listeners;
+	}
+
+	/**
+	 * 组合多个监听工厂
+	 * @param factoryList
+	 * @return 只有一个时直接返回该工厂,没有时返回null
+	 */
+	public static EventListener.Factory factory(List<EventListener.Factory> factoryList) {
+		List<EventListener.Factory> list = new ArrayList<>(factoryList);
+		if(list.isEmpty()) {
+			return null;
+		}
+		if(list.size() == 1) {
+			return list.get(0);
+		}
+		return call->{
+			EventListener[] listeners = new EventListener[list.size()];
+			for (int i = 0; i < listeners.length; i++) {
+				listeners[i] = list.get(i).create(call);
+			}
+			return new CompositeEventListener(listeners);
+		};
+	}
+
+	@Override
+	public void callStart(Call call) {
+		for (EventListener listener : listeners) {
+			listener.callStart(call);
+		}
+	}
+
+	@Override
+	public void dnsStart(Call call, String domainName) {
+		for (EventListener listener : listeners) {
+			listener.dnsStart(call, domainName);
+		}
+	}
+
+	@Override
+	public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+		for (EventListener listener : listeners) {
+			listener.dnsEnd(call, domainName, inetAddressList);
+		}
+	}
+
+	@Override
+	public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+		for (EventListener listener : listeners) {
+			listener.connectStart(call, inetSocketAddress, proxy);
+		}
+	}
+
+	@Override
+	public void secureConnectStart(Call call) {
+		for (EventListener listener : listeners) {
+			listener.secureConnectStart(call);
+		}
+	}
+
+	@Override
+	public void secureConnectEnd(Call call, Handshake handshake) {
+		for (EventListener listener : listeners) {
+			listener.secureConnectEnd(call, handshake);
+		}
+	}
+
+	@Override
+	public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+		for (EventListener listener : listeners) {
+			listener.connectEnd(call, inetSocketAddress, proxy, protocol);
+		}
+	}
+
+	@Override
+	public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+		for (EventListener listener : listeners) {
+			listener.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+		}
+	}
+
+	@Override
+	public void connectionAcquired(Call call, Connection connection) {
+		for (EventListener listener : listeners) {
+			listener.connectionAcquired(call, connection);
+		}
+	}
+
+	@Override
+	public void connectionReleased(Call call, Connection connection) {
+		for (EventListener listener : listeners) {
+			listener.connectionReleased(call, connection);
+		}
+	}
+
+	@Override
+	public void requestHeadersStart(Call call) {
+		for (EventListener listener : listeners) {
+			listener.requestHeadersStart(call);
+		}
+	}
+
+	@Override
+	public void requestHeadersEnd(Call call, Request request) {
+		for (EventListener listener : listeners) {
+			listener.requestHeadersEnd(call, request);
+		}
+	}
+
+	@Override
+	public void requestBodyStart(Call call) {
+		for (EventListener listener : listeners) {
+			listener.requestBodyStart(call);
+		}
+	}
+
+	@Override
+	public void requestBodyEnd(Call call, long byteCount) {
+		for (EventListener listener : listeners) {
+			listener.requestBodyEnd(call, byteCount);
+		}
+	}
+
+	@Override
+	public void responseHeadersStart(Call call) {
+		for (EventListener listener : listeners) {
+			listener.responseHeadersStart(call);
+		}
+	}
+
+	@Override
+	public void responseHeadersEnd(Call call, Response response) {
+		for (EventListener listener : listeners) {
+			listener.responseHeadersEnd(call, response);
+		}
+	}
+
+	@Override
+	public void responseBodyStart(Call call) {
+		for (EventListener listener : listeners) {
+			listener.responseBodyStart(call);
+		}
+	}
+
+	@Override
+	public void responseBodyEnd(Call call, long byteCount) {
+		for (EventListener listener : listeners) {
+			listener.responseBodyEnd(call, byteCount);
+		}
+	}
+
+	@Override
+	public void callEnd(Call call) {
+		for (EventListener listener : listeners) {
+			listener.callEnd(call);
+		}
+	}
+
+	@Override
+	public void callFailed(Call call, IOException ioe) {
+		for (EventListener listener : listeners) {
+			listener.callFailed(call, ioe);
+		}
+	}
+}
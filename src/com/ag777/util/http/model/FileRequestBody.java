@@ -0,0 +1,95 @@
+package com.ag777.util.http.model;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * 流式文件请求体
+ * <p>
+ * 	通过okio的Source按段(8k)从文件直接搬运到网络,段对象池内复用,不会把整个文件读入内存,适合上传GB级的文件。
+ * 	开启gzip时边读边压缩,压缩后的长度未知,okhttp会使用分块传输(Transfer-Encoding: chunked)。
+ * 	每次发送(包括重试重发)都重新打开文件
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月07日,last modify at 2018年06月10日
+ */
+public class FileRequestBody extends RequestBody {
+
+	private static final long SEGMENT_SIZE = 8192;
+
+	private final MediaType contentType;
+	private final File file;
+	private final boolean gzip;
+
+	/**
+	 * @param contentType
+	 * @param file
+	 * @param gzip 是否边读边gzip压缩
+	 */
+	public FileRequestBody(MediaType contentType, File file, boolean gzip) {
+		this.contentType = contentType;
+		this.file = file;
+		this.gzip = gzip;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	@Override
+	public MediaType contentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return 不压缩时为文件大小,压缩时未知(-1)
+	 */
+	@Override
+	public long contentLength() {
+		return gzip ? -1 : file.length();
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) throws IOException {
+		try (Source source = Okio.source(file)) {
+			if(!gzip) {
+				sink.writeAll(source);
+				return;
+			}
+			//压缩结束时需要写入gzip尾部,但不能关闭okhttp的sink
+			BufferedSink gzipSink = Okio.buffer(new GzipSink(uncloseable(sink)));
+			Buffer buffer = new Buffer();
+			while(source.read(buffer, SEGMENT_SIZE) != -1) {
+				gzipSink.write(buffer, buffer.size());
+			}
+			gzipSink.close();
+		}
+	}
+
+	/**
+	 * 包装okhttp的sink,关闭时只flush(压缩流关闭时需要写入尾部,但不能关闭底层的sink)
+	 */
+	static Sink uncloseable(Sink sink) {
+		return new ForwardingSink(sink) {
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+	}
+}
@@ -0,0 +1,156 @@
+package com.ag777.util.http.model;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import com.ag777.util.lang.interf.JsonUtilsInterf;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.DeflaterSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Utf8;
+
+/**
+ * json请求体(可压缩)
+ * <p>
+ * 	构建时先把json写入内存,不超过阈值则按普通请求体发送(长度已知);
+ * 	超过阈值则停止写入,发送时边转换边压缩(gzip/deflate)直接写入网络,不会生成完整的json串,
+ * 	长度未知,使用分块传输,请求头带上Content-Encoding(HttpUtils构建请求时自动添加)
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月10日,last modify at 2018年06月13日
+ */
+public class JsonRequestBody extends RequestBody {
+
+	public static final String ENCODING_GZIP = "gzip";
+	public static final String ENCODING_DEFLATE = "deflate";
+	public static final MediaType JSON_CONTENT_TYPE = MediaType.parse("application/json; charset=utf-8");
+
+	private final String json;
+	private final Object obj;
+	private final JsonUtilsInterf jsonUtils;
+	private final String encoding;
+
+	private JsonRequestBody(String json, Object obj, JsonUtilsInterf jsonUtils, String encoding) {
+		this.json = json;
+		this.obj = obj;
+		this.jsonUtils = jsonUtils;
+		this.encoding = encoding;
+	}
+
+	/**
+	 * 通过json串构建请求体
+	 * @param json
+	 * @param encoding 压缩方式(ENCODING_GZIP/ENCODING_DEFLATE),null则不压缩
+	 * @param threshold json的utf-8字节数超过该值才压缩
+	 * @return
+	 */
+	public static RequestBody create(String json, String encoding, long threshold) {
+		if(encoding == null || Utf8.size(json) <= threshold) {
+			return RequestBody.create(JSON_CONTENT_TYPE, json);
+		}
+		return new JsonRequestBody(json, null, null, checkEncoding(encoding));
+	}
+
+	/**
+	 * 通过对象构建请求体,转换后不超过阈值时与直接发送json串相同
+	 * @param obj
+	 * @param jsonUtils
+	 * @param encoding 压缩方式(ENCODING_GZIP/ENCODING_DEFLATE),null则超过阈值时不压缩直接流式发送
+	 * @param threshold 转换后超过该字节数才压缩
+	 * @return
+	 */
+	public static RequestBody create(Object obj, JsonUtilsInterf jsonUtils, String encoding, long threshold) {
+		Buffer buffer = new Buffer();
+		try {
+			writeJson(obj, jsonUtils, Okio.buffer(limit(buffer, threshold)));
+		} catch(ThresholdException ex) {
+			return new JsonRequestBody(null, obj, jsonUtils, encoding == null ? null : checkEncoding(encoding));
+		} catch(IOException ex) {	//写入内存不会出现io异常
+			throw new UncheckedIOException(ex);
+		}
+		return RequestBody.create(JSON_CONTENT_TYPE, buffer.readByteArray());
+	}
+
+	/**
+	 * 获取请求体的压缩方式,用于设置请求头Content-Encoding
+	 * @param body
+	 * @return 没有压缩时返回null
+	 */
+	public static String contentEncoding(RequestBody body) {
+		return body instanceof JsonRequestBody ? ((JsonRequestBody) body).encoding : null;
+	}
+
+	@Override
+	public MediaType contentType() {
+		return JSON_CONTENT_TYPE;
+	}
+
+	@Override
+	public long contentLength() {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) throws IOException {
+		if(encoding == null) {
+			writeContent(sink);
+			return;
+		}
+		Sink target = FileRequestBody.uncloseable(sink);
+		BufferedSink compressSink = Okio.buffer(ENCODING_GZIP.equals(encoding) ? new GzipSink(target) : new DeflaterSink(target, new Deflater()));
+		writeContent(compressSink);
+		compressSink.close();
+	}
+
+	private void writeContent(BufferedSink sink) throws IOException {
+		if(json != null) {
+			sink.writeUtf8(json);
+		} else {
+			writeJson(obj, jsonUtils, sink);
+		}
+	}
+
+	private static void writeJson(Object obj, JsonUtilsInterf jsonUtils, BufferedSink sink) throws IOException {
+		Writer writer = new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8);
+		jsonUtils.toJson(obj, writer);
+		writer.flush();
+	}
+
+	private static String checkEncoding(String encoding) {
+		if(!ENCODING_GZIP.equals(encoding) && !ENCODING_DEFLATE.equals(encoding)) {
+			throw new IllegalArgumentException("不支持的压缩方式:" + encoding);
+		}
+		return encoding;
+	}
+
+	/**
+	 * 写入超过limit字节时抛出ThresholdException
+	 */
+	private static Sink limit(Buffer buffer, long limit) {
+		return new ForwardingSink(buffer) {
+			@Override
+			public void write(Buffer source, long byteCount) throws IOException {
+				if(buffer.size() + byteCount > limit) {
+					throw new ThresholdException();
+				}
+				super.write(source, byteCount);
+			}
+		};
+	}
+
+	private static class ThresholdException extends IOException {
+		private static final long serialVersionUID = 3862094174571830271L;
+	}
+}
@@ -7,11 +7,15 @@ import java.lang.reflect.Type;
 import java.net.ConnectException;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.ag777.util.http.HttpUtils;
+import com.ag777.util.http.SingleFlight;
 import com.ag777.util.lang.exception.model.JsonSyntaxException;
 
 import okhttp3.Call;
+import okhttp3.OkHttpClient;
 import okhttp3.Response;
 
 /**
@@ -22,17 +26,30 @@ import okhttp3.Response;
  * </p>
  * 
  * @author ag777
- * @version create on 2018年03月30日,last modify at 2018年04月03日
+ * @version create on 2018年03月30日,last modify at 2018年06月13日
  */
 public class MyCall {
 	
 	private Call call;
 	private Response response;
+	private OkHttpClient client;
+	private SingleFlight singleFlight;
 	
 	public MyCall(Call call) {
 		this.call = call;
 	}
 	
+	/**
+	 * @param call
+	 * @param client 创建call的client,合并请求时以其读超时作为等待上限,为null时使用HttpUtils.client()
+	 * @param singleFlight 不为null时,与正在进行中的相同请求合并
+	 */
+	public MyCall(Call call, OkHttpClient client, SingleFlight singleFlight) {
+		this.call = call;
+		this.client = client;
+		this.singleFlight = singleFlight;
+	}
+	
 	public Call getCall() {
 		return call;
 	}
@@ -68,7 +85,7 @@ public class MyCall {
 	 * @throws IOException
 	 */
 	public Response executeForResponse() throws ConnectException, IOException {
-		response = HttpUtils.execute(call);
+		response = singleFlight == null ? HttpUtils.execute(call) : singleFlight.execute(call, client);
 		return response;
 	}
 	
@@ -205,6 +222,69 @@ public class MyCall {
 		return HttpUtils.responseObjForce(response, type);
 	}
 	
+	/**
+	 * 发送请求并流式解析返回的json为map(不会先读成字符串)
+	 * <p>
+	 * 	只有response.isSuccessful()时才有返回,否则抛出异常
+	 * </p>
+	 * 
+	 * @return
+	 * @throws ConnectException 一般为连不上接口
+	 * @throws IOException 其他异常
+	 * @throws JsonSyntaxException json转化异常
+	 */
+	public Optional<Map<String, Object>> executeForMapStreaming() throws ConnectException, IOException, JsonSyntaxException {
+		executeForResponse();
+		return HttpUtils.responseMapStreaming(response);
+	}
+	
+	/**
+	 * 发送请求并流式解析返回的json为javaBean(不会先读成字符串)
+	 * <p>
+	 * 	只有response.isSuccessful()时才有返回,否则抛出异常
+	 * </p>
+	 * 
+	 * @param type
+	 * @return
+	 * @throws ConnectException 一般为连不上接口
+	 * @throws IOException 其他异常
+	 * @throws JsonSyntaxException json转化异常
+	 */
+	public <T>Optional<T> executeForObjStreaming(Type type) throws ConnectException, IOException, JsonSyntaxException {
+		executeForResponse();
+		return HttpUtils.responseObjStreaming(response, type);
+	}
+	
+	/**
+	 * 发送请求并将返回的json数组转为元素流(边读边解析,使用完毕后需要关闭)
+	 * 
+	 * @param elementType
+	 * @return
+	 * @throws ConnectException 一般为连不上接口
+	 * @throws IOException 其他异常
+	 * @throws JsonSyntaxException 返回的不是json数组
+	 * @see HttpUtils#responseArray(Response, Type)
+	 */
+	public <T>Stream<T> executeForArray(Type elementType) throws ConnectException, IOException, JsonSyntaxException {
+		executeForResponse();
+		return HttpUtils.responseArray(response, elementType);
+	}
+	
+	/**
+	 * 发送请求并逐个回调返回的json数组中的元素
+	 * 
+	 * @param elementType
+	 * @param consumer
+	 * @return 元素个数
+	 * @throws ConnectException 一般为连不上接口
+	 * @throws IOException 其他异常
+	 * @throws JsonSyntaxException json转化异常
+	 */
+	public <T>long executeForArrayForEach(Type elementType, Consumer<T> consumer) throws ConnectException, IOException, JsonSyntaxException {
+		executeForResponse();
+		return HttpUtils.responseArrayForEach(response, elementType, consumer);
+	}
+	
 	/**
 	 * 发送请求并得到返回流
 	 * <p>
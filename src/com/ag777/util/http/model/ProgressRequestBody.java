@@ -0,0 +1,68 @@
+package com.ag777.util.http.model;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * okhttp上传进度监听辅助类(与ProgressResponseBody对应)
+ * <p>
+ * 	请求体重发(重试/重定向)时进度从0重新开始
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年06月07日,last modify at 2018年06月07日
+ */
+public class ProgressRequestBody extends RequestBody {
+
+	//回调接口
+	public interface ProgressListener {
+		/**
+		 * @param curWrite 已经发送的字节数
+		 * @param contentLength 请求体总长度,未知(分块传输)时为-1
+		 * @param bytesWrite 当前发送字节数
+		 * @param done 是否发送完毕
+		 */
+		void update(long curWrite, long contentLength, long bytesWrite, boolean done);
+	}
+
+	private final RequestBody requestBody;
+	private final ProgressListener progressListener;
+
+	public ProgressRequestBody(RequestBody requestBody, ProgressListener progressListener) {
+		this.requestBody = requestBody;
+		this.progressListener = progressListener;
+	}
+
+	@Override
+	public MediaType contentType() {
+		return requestBody.contentType();
+	}
+
+	@Override
+	public long contentLength() throws IOException {
+		return requestBody.contentLength();
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) throws IOException {
+		long contentLength = contentLength();
+		long[] total = new long[]{0L};	//每次发送(包括重发)从0开始统计
+		BufferedSink progressSink = Okio.buffer(new ForwardingSink(sink) {
+			@Override
+			public void write(Buffer source, long byteCount) throws IOException {
+				super.write(source, byteCount);
+				total[0] += byteCount;
+				progressListener.update(total[0], contentLength, byteCount, false);
+			}
+		});
+		requestBody.writeTo(progressSink);
+		progressSink.flush();
+		progressListener.update(total[0], contentLength, 0, true);
+	}
+}
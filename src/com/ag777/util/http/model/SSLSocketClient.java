@@ -13,7 +13,7 @@ import javax.net.ssl.X509TrustManager;
  * 用于连接https
  * 
  * @author ag777
- * @version create on 2017年06月06日,last modify at 2017年09月15日
+ * @version create on 2017年06月06日,last modify at 2018年06月03日
  */
 public class SSLSocketClient {  
 	  
@@ -28,6 +28,11 @@ public class SSLSocketClient {
         }  
     }  
   
+    //获取信任所有证书的X509TrustManager(okhttp的sslSocketFactory(factory, trustManager)需要,jdk9以上不能只传factory)
+    public static X509TrustManager getX509TrustManager() {
+        return (X509TrustManager) getTrustManager()[0];
+    }
+  
     //获取TrustManager  
     private static TrustManager[] getTrustManager() {  
         TrustManager[] trustAllCerts = new TrustManager[]{  
@@ -1,6 +1,11 @@
 package com.ag777.util.lang.interf;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -10,12 +15,26 @@ import com.ag777.util.lang.exception.model.JsonSyntaxException;
  * json转化接口
  * 
  * @author wanggz
- * @version last modify at 2018年03月30日
+ * @version last modify at 2018年06月13日
  */
 public interface JsonUtilsInterf {
 
 	public String toJson(Object obj);
 	
+	/**
+	 * 转换对象为json并写入字符流(不关闭流)
+	 * <p>
+	 * 	默认实现先转成字符串再写入,GsonUtils重写为边转换边写入,不需要在内存中生成完整的json串
+	 * </p>
+	 * 
+	 * @param obj
+	 * @param writer
+	 * @throws IOException 写入失败
+	 */
+	public default void toJson(Object obj, Writer writer) throws IOException {
+		writer.write(toJson(obj));
+	}
+	
 	public Map<String, Object> toMap(String json);
 	
 	public Map<String, Object> toMapWithException(String json) throws JsonSyntaxException;
@@ -31,4 +50,63 @@ public interface JsonUtilsInterf {
 	public <T>T fromJson(String json, Type type);
 	
 	public <T>T fromJsonWithException(String json, Type type) throws JsonSyntaxException;
+	
+	/**
+	 * 从字符流中解析json(不关闭流)
+	 * <p>
+	 * 	默认实现先读成字符串再转换,GsonUtils重写为流式解析,不需要把整个json读入内存
+	 * </p>
+	 * 
+	 * @param reader
+	 * @param type
+	 * @return
+	 * @throws JsonSyntaxException 读取失败或者json格式错误
+	 */
+	public default <T>T fromJsonWithException(Reader reader, Type type) throws JsonSyntaxException {
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buff = new char[4096];
+			int len;
+			while((len = reader.read(buff)) != -1) {
+				sb.append(buff, 0, len);
+			}
+			return fromJsonWithException(sb.toString(), type);
+		} catch(IOException ex) {
+			throw new JsonSyntaxException(ex);
+		}
+	}
+	
+	/**
+	 * 逐个读取json数组中的元素(不关闭流)
+	 * <p>
+	 * 	默认实现先转成列表,GsonUtils重写为流式解析,每次只解析一个元素,处理超大数组时内存占用恒定。
+	 * 	遍历过程中出现的读取/格式错误以IllegalStateException(cause为JsonSyntaxException)抛出
+	 * </p>
+	 * 
+	 * @param reader
+	 * @param elementType 元素类型
+	 * @return
+	 * @throws JsonSyntaxException json不是数组
+	 */
+	public default <T>Iterator<T> arrayIterator(Reader reader, Type elementType) throws JsonSyntaxException {
+		Type listType = new ParameterizedType() {	//List<elementType>,保留泛型元素类型
+			@Override
+			public Type[] getActualTypeArguments() {
+				return new Type[]{elementType};
+			}
+
+			@Override
+			public Type getRawType() {
+				return List.class;
+			}
+
+			@Override
+			public Type getOwnerType() {
+				return null;
+			}
+		};
+		List<T> list = fromJsonWithException(reader, listType);
+		return list.iterator();
+	}
+
 }
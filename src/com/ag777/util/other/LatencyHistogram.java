@@ -0,0 +1,171 @@
+package com.ag777.util.other;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时直方图(HDR风格,线程安全)
+ * <p>
+ * 	按对数-线性分桶:小于128的值每个值一个桶,更大的值在每个2的幂区间内再均分为64个桶,
+ * 	因此任意值的相对误差不超过1/64(约1.6%),占用内存固定,记录时只有一次原子加操作。
+ * 	单位由调用方决定(一般为微秒)
+ * </p>
+ *
+ * <p>
+ * 	用法:
+ * <pre>
+ * 	LatencyHistogram h = new LatencyHistogram();
+ * 	h.record(costMicros);
+ * 	h.percentile(99);	//p99
+ * </pre>
+ * </p>
+ *
+ * @author ag777
+ * @version create on 2018年05月29日,last modify at 2018年05月29日
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;	//每个区间的桶数
+	private static final int LINEAR_COUNT = SUB_COUNT << 1;	//线性区的桶数
+	private static final int BUCKET_COUNT = LINEAR_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong min;
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(BUCKET_COUNT);
+		count = new AtomicLong(0);
+		sum = new AtomicLong(0);
+		min = new AtomicLong(Long.MAX_VALUE);
+		max = new AtomicLong(0);
+	}
+
+	/**
+	 * 记录一个值,负数按0处理
+	 * @param value
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while(value < (current = min.get()) && !min.compareAndSet(current, value)) {
+		}
+		while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	public long count() {
+		return count.get();
+	}
+
+	public long sum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return 没有记录时返回0
+	 */
+	public long min() {
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * @return 没有记录时返回0
+	 */
+	public double mean() {
+		long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * 获取百分位值(返回所在桶的上界,不超过最大值)
+	 * @param percent 0-100,比如99表示p99
+	 * @return 没有记录时返回0
+	 */
+	public long percentile(double percent) {
+		long total = count.get();
+		if(total == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(total * Math.min(100, Math.max(0, percent)) / 100);
+		if(target < 1) {
+			target = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if(seen >= target) {
+				return Math.min(highestValueOf(i), max());
+			}
+		}
+		return max();
+	}
+
+	/**
+	 * 清空所有记录
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	/**
+	 * 获取常用统计值(count/min/max/mean/p50/p90/p99/p999)
+	 * @return
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("count", count());
+		map.put("min", min());
+		map.put("max", max());
+		map.put("mean", mean());
+		map.put("p50", percentile(50));
+		map.put("p90", percentile(90));
+		map.put("p99", percentile(99));
+		map.put("p999", percentile(99.9));
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return stats().toString();
+	}
+
+	private static int indexOf(long value) {
+		if(value < LINEAR_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;	//保留最高的SUB_BITS+1位
+		int top = (int) (value >>> shift);	//[SUB_COUNT, 2*SUB_COUNT)
+		return LINEAR_COUNT + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+	}
+
+	private static long highestValueOf(int index) {
+		if(index < LINEAR_COUNT) {
+			return index;
+		}
+		int shift = (index - LINEAR_COUNT) / SUB_COUNT + 1;
+		long top = (index - LINEAR_COUNT) % SUB_COUNT + SUB_COUNT;
+		return ((top + 1) << shift) - 1;
+	}
+}